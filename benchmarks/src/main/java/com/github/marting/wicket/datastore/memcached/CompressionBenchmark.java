@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.MemcachedClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares Deflate with a trained dictionary with plain Deflate on serialized
+ * Wicket pages. The compression ratio of each compressor is logged in the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CompressionBenchmark
+{
+	private static final Logger LOG = LoggerFactory.getLogger(CompressionBenchmark.class);
+
+	private static final int PAGE_COUNT = 500;
+
+	/**
+	 * Whether the pages are compressed with a trained dictionary
+	 */
+	@Param({"false", "true"})
+	boolean dictionary;
+
+	private EmbeddedMemcached server;
+
+	private MemcachedClient client;
+
+	private IPageCompressor compressor;
+
+	private List<byte[]> pages;
+
+	private byte[][] compressedPages;
+
+	private int index;
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException
+	{
+		pages = new PageCorpus(2).serializePages(PAGE_COUNT);
+		if (dictionary)
+		{
+			server = new EmbeddedMemcached().start();
+			client = new MemcachedClient(new InetSocketAddress("localhost", server.getPort()));
+			DictionaryPageCompressor dictionaryCompressor = new DictionaryPageCompressor(client, null,
+					new PageKeys(KeyFormat.COMPACT, "bench"), Integer.MAX_VALUE, 0, 1000,
+					new DataStoreMetrics(Collections.<String, PageIdIndex>emptyMap()));
+			for (byte[] page : new PageCorpus(1).serializePages(DictionaryPageCompressor.SAMPLE_COUNT))
+			{
+				dictionaryCompressor.compress(page);
+			}
+			// trained in the background
+			long deadline = System.currentTimeMillis() + 5000;
+			while (dictionaryCompressor.getDictionaryId() == 0 && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			if (dictionaryCompressor.getDictionaryId() == 0)
+			{
+				throw new IllegalStateException("The dictionary was not trained in time");
+			}
+			compressor = dictionaryCompressor;
+		}
+		else
+		{
+			compressor = new DeflatePageCompressor();
+		}
+
+		long originalBytes = 0;
+		long compressedBytes = 0;
+		compressedPages = new byte[pages.size()][];
+		for (int i = 0; i < pages.size(); i++)
+		{
+			compressedPages[i] = compressor.compress(pages.get(i));
+			originalBytes += pages.get(i).length;
+			compressedBytes += compressedPages[i].length;
+		}
+		LOG.info("{} pages of {} bytes on average compressed to {}% with dictionary={}",
+				new Object[] {pages.size(), originalBytes / pages.size(),
+						compressedBytes * 100 / originalBytes, dictionary});
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		if (compressor instanceof DictionaryPageCompressor)
+		{
+			((DictionaryPageCompressor) compressor).stop();
+		}
+		if (client != null)
+		{
+			client.shutdown(100, TimeUnit.MILLISECONDS);
+			server.stop();
+		}
+	}
+
+	@Benchmark
+	public byte[] compress()
+	{
+		return compressor.compress(pages.get(index++ % PAGE_COUNT));
+	}
+
+	@Benchmark
+	public byte[] decompress()
+	{
+		byte[] page = compressedPages[index++ % PAGE_COUNT];
+		return compressor.decompress(page, 0, page.length);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A data store connected to an in-process Memcached stand-in,
+ * shared by all threads of a benchmark
+ */
+@State(Scope.Benchmark)
+public class DataStoreState
+{
+	@Param({"READABLE"})
+	KeyFormat keyFormat;
+
+	EmbeddedMemcached server;
+
+	MemcachedDataStore dataStore;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(server.getPort())
+				.setKeyFormat(keyFormat)
+				.setJmxEnabled(false);
+		dataStore = new MemcachedDataStore(settings);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the construction of the Memcached keys of the pages.
+ * Run with {@code -prof gc} to see the allocations per key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class KeyBenchmark
+{
+	@Param({"READABLE", "COMPACT"})
+	KeyFormat keyFormat;
+
+	private final String sessionId = UUID.randomUUID().toString().replace("-", "").toUpperCase();
+
+	private PageKeys keys;
+
+	private String sessionPrefix;
+
+	private int pageId;
+
+	@Setup
+	public void setUp()
+	{
+		keys = new PageKeys(keyFormat, "wm:");
+		sessionPrefix = keys.getSessionPrefix(sessionId);
+	}
+
+	/**
+	 * The key of a page, with the prefix cached per session as in MemcachedDataStore
+	 */
+	@Benchmark
+	public String getPageKey()
+	{
+		return keys.getPageKey(sessionPrefix, pageId++ & 0xFF);
+	}
+
+	/**
+	 * Created once per session
+	 */
+	@Benchmark
+	public String getSessionPrefix()
+	{
+		return keys.getSessionPrefix(sessionId);
+	}
+
+	/**
+	 * How the keys were built before PageKeys, for comparison
+	 */
+	@Benchmark
+	public String stringBuilder()
+	{
+		return new StringBuilder()
+			.append(sessionId)
+			.append("|||")
+			.append(pageId++ & 0xFF)
+			.append("|||")
+			.append("Wicket-Memcached")
+			.toString();
+	}
+}
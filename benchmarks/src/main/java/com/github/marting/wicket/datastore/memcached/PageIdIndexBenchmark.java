@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the updates of the index of the pages of a session.
+ * All threads update the same index, like the concurrent requests of a session.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PageIdIndexBenchmark
+{
+	/**
+	 * The number of pages kept in the index
+	 */
+	@Param({"5", "20", "100"})
+	int pages;
+
+	private PageIdIndex index;
+
+	@Setup
+	public void setUp()
+	{
+		index = new PageIdIndex();
+		for (int pageId = 0; pageId < pages; pageId++)
+		{
+			index.add(pageId, 0);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PageCounter
+	{
+		int pageId;
+	}
+
+	/**
+	 * Stores a new page and evicts the oldest one, as the page store does
+	 */
+	@Benchmark
+	public boolean addAndRemove(PageCounter counter)
+	{
+		int pageId = counter.pageId++;
+		index.add(pageId, 0);
+		return index.remove(pageId - pages);
+	}
+
+	/**
+	 * Looks up a page, as done when a page is read
+	 */
+	@Benchmark
+	public boolean contains(PageCounter counter)
+	{
+		return index.contains(counter.pageId++ % pages);
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the heap used by the page index with the heap used by
+ * the previous index of key strings in TreeSets. The indexes are filled
+ * with all the fields the data store keeps per page. The heap used by
+ * each index is logged after each iteration, the score is the time to fill it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class PageIdIndexFootprintBenchmark
+{
+	private static final Logger LOG = LoggerFactory.getLogger(PageIdIndexFootprintBenchmark.class);
+
+	private static final int PAGES_PER_SESSION = 20;
+
+	private static final int PAGE_SIZE = 8 * 1024;
+
+	@Param({"100000"})
+	int sessions;
+
+	private String[] sessionIds;
+
+	private long before;
+
+	/**
+	 * The index filled by the last invocation
+	 */
+	private Object filled;
+
+	@Setup
+	public void setUp()
+	{
+		sessionIds = new String[sessions];
+		for (int i = 0; i < sessions; i++)
+		{
+			sessionIds[i] = UUID.randomUUID().toString();
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void measureBefore()
+	{
+		filled = null;
+		before = usedHeap();
+	}
+
+	@TearDown(Level.Iteration)
+	public void measureAfter()
+	{
+		long used = usedHeap() - before;
+		LOG.info("{} sessions x {} pages: {} MB ({} bytes/page)", new Object[] {sessions, PAGES_PER_SESSION,
+				used / 1024 / 1024, used / sessions / PAGES_PER_SESSION});
+		filled = null;
+	}
+
+	@Benchmark
+	public Object treeSets()
+	{
+		ConcurrentMap<String, SortedSet<String>> keys = new ConcurrentHashMap<String, SortedSet<String>>();
+		for (String sessionId : sessionIds)
+		{
+			SortedSet<String> set = new TreeSet<String>();
+			for (int pageId = 0; pageId < PAGES_PER_SESSION; pageId++)
+			{
+				set.add(sessionId + "|||" + pageId + "|||Wicket-Memcached");
+			}
+			keys.put(sessionId, set);
+		}
+		filled = keys;
+		return keys;
+	}
+
+	@Benchmark
+	public Object pageIdIndexes()
+	{
+		PageKeys pageKeys = new PageKeys(KeyFormat.READABLE, "");
+		long deadline = System.currentTimeMillis() + 30 * 60 * 1000;
+		ConcurrentMap<String, PageIdIndex> indexes = new ConcurrentHashMap<String, PageIdIndex>();
+		for (String sessionId : sessionIds)
+		{
+			// filled like MemcachedDataStore#writePage fills it
+			PageIdIndex index = new PageIdIndex();
+			index.setKeyPrefix(pageKeys.getSessionPrefix(sessionId));
+			for (int pageId = 0; pageId < PAGES_PER_SESSION; pageId++)
+			{
+				index.add(pageId, 1, PAGE_SIZE, deadline);
+			}
+			indexes.put(sessionId, index);
+		}
+		filled = indexes;
+		return indexes;
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.util.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures removing all pages of a session, until Memcached
+ * has acknowledged all deletes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RemoveSessionBenchmark
+{
+	/**
+	 * The number of pages of the removed session
+	 */
+	@Param({"1", "20", "100"})
+	int pages;
+
+	/**
+	 * The size of the pages in bytes
+	 */
+	@Param({"1024"})
+	int payloadSize;
+
+	private String sessionId;
+
+	@Setup(Level.Invocation)
+	public void storePages(DataStoreState state)
+	{
+		sessionId = UUID.randomUUID().toString();
+		byte[] page = new byte[payloadSize];
+		for (int pageId = 0; pageId < pages; pageId++)
+		{
+			state.dataStore.storeData(sessionId, pageId, page);
+		}
+	}
+
+	@Benchmark
+	public RemovalResult removeData(DataStoreState state)
+	{
+		RemovalResult result = state.dataStore.removeData(Collections.singleton(sessionId), Duration.seconds(10));
+		if (!result.isComplete())
+		{
+			throw new IllegalStateException("The removal did not complete: " + result);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures storing and reading pages. Every thread uses its own session,
+ * which keeps the {@value #PAGES_PER_SESSION} most recent pages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class StoreAndGetBenchmark
+{
+	private static final int PAGES_PER_SESSION = 20;
+
+	/**
+	 * The size of the pages in bytes
+	 */
+	@Param({"1024", "16384", "131072"})
+	int payloadSize;
+
+	private final String sessionId = UUID.randomUUID().toString();
+
+	private byte[] page;
+
+	private int pageId;
+
+	@Setup
+	public void setUp(DataStoreState state)
+	{
+		// random bytes do not compress, like the worst case of a serialized page
+		page = new byte[payloadSize];
+		new Random(payloadSize).nextBytes(page);
+		for (int i = 0; i < PAGES_PER_SESSION; i++)
+		{
+			state.dataStore.storeData(sessionId, i, page);
+		}
+	}
+
+	@Benchmark
+	public void storeData(DataStoreState state)
+	{
+		state.dataStore.storeData(sessionId, pageId++ % PAGES_PER_SESSION, page);
+	}
+
+	@Benchmark
+	public byte[] getData(DataStoreState state)
+	{
+		return state.dataStore.getData(sessionId, pageId++ % PAGES_PER_SESSION);
+	}
+}
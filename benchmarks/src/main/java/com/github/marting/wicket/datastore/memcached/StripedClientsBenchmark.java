@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the throughput of reading big pages with the sessions striped
+ * over several MemcachedClients. A single I/O thread becomes the bottleneck
+ * only when many request threads read at the same time, so run it with
+ * several threads, e.g. {@code -Dthreads=16}.
+ *
+ * The in-process Memcached stand-in has a single thread as well. Set
+ * {@code -Dmemcached.port} to run against a real Memcached on localhost.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class StripedClientsBenchmark
+{
+	private static final int PAGES_PER_SESSION = 10;
+
+	/**
+	 * A data store with several clients, shared by all threads
+	 */
+	@State(Scope.Benchmark)
+	public static class StripedState
+	{
+		@Param({"1", "2", "4"})
+		int clientCount;
+
+		@Param({"307200"})
+		int payloadSize;
+
+		EmbeddedMemcached server;
+
+		MemcachedDataStore dataStore;
+
+		@Setup
+		public void setUp() throws IOException
+		{
+			Integer port = Integer.getInteger("memcached.port");
+			if (port == null)
+			{
+				server = new EmbeddedMemcached().setMaxMemory(Bytes.megabytes(512)).start();
+				port = server.getPort();
+			}
+			IMemcachedSettings settings = new MemcachedSettings()
+					.setPost(port)
+					.setClientCount(clientCount)
+					.setJmxEnabled(false);
+			dataStore = new MemcachedDataStore(settings);
+		}
+
+		@TearDown
+		public void tearDown()
+		{
+			dataStore.destroy();
+			if (server != null)
+			{
+				server.stop();
+			}
+		}
+	}
+
+	private final String sessionId = UUID.randomUUID().toString();
+
+	private int pageId;
+
+	@Setup
+	public void setUp(StripedState state)
+	{
+		byte[] page = new byte[state.payloadSize];
+		new Random(state.payloadSize).nextBytes(page);
+		for (int i = 0; i < PAGES_PER_SESSION; i++)
+		{
+			state.dataStore.storeData(sessionId, i, page);
+		}
+	}
+
+	@Benchmark
+	public byte[] getData(StripedState state)
+	{
+		return state.dataStore.getData(sessionId, pageId++ % PAGES_PER_SESSION);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares PageTranscoder with the default SerializingTranscoder of spymemcached
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TranscoderBenchmark
+{
+	/**
+	 * The size of the pages in bytes
+	 */
+	@Param({"204800", "307200"})
+	int payloadSize;
+
+	/**
+	 * Whether the page compresses well, like a serialized page,
+	 * or not at all, like a page compressed by the IPageCompressor
+	 */
+	@Param({"true", "false"})
+	boolean compressible;
+
+	private final SerializingTranscoder serializing = new SerializingTranscoder();
+
+	private byte[] page;
+
+	private CachedData serializedPage;
+
+	private CachedData encodedPage;
+
+	@Setup
+	public void setUp()
+	{
+		page = new byte[payloadSize];
+		Random random = new Random(payloadSize);
+		if (compressible)
+		{
+			// a small alphabet, like the class names and fields of a serialized page
+			for (int i = 0; i < page.length; i++)
+			{
+				page[i] = (byte) ('a' + random.nextInt(8));
+			}
+		}
+		else
+		{
+			random.nextBytes(page);
+		}
+		serializedPage = serializing.encode(page);
+		encodedPage = PageTranscoder.INSTANCE.encode(page);
+	}
+
+	@Benchmark
+	public CachedData encodeSerializing()
+	{
+		return serializing.encode(page);
+	}
+
+	@Benchmark
+	public CachedData encodePage()
+	{
+		return PageTranscoder.INSTANCE.encode(page);
+	}
+
+	@Benchmark
+	public Object decodeSerializing()
+	{
+		return serializing.decode(serializedPage);
+	}
+
+	@Benchmark
+	public byte[] decodePage()
+	{
+		return PageTranscoder.INSTANCE.decode(encodedPage);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Deletes many keys at once and counts the outcome.
+ *
+ * The deletes are sent back to back when the batch is executed. MemcachedClient
+ * routes each of them to its server and pipelines the queued operations
+ * of a server into as few writes as possible.
+ */
+final class BatchRemoval
+{
+	private final DataStoreMetrics metrics;
+
+	private final List<String> keys = new ArrayList<String>();
+
+	/**
+	 * The client to delete each key in {@link #keys} with
+	 */
+	private final List<MemcachedClient> clients = new ArrayList<MemcachedClient>();
+
+	private final OperationCompletionListener listener = new OperationCompletionListener()
+	{
+		@Override
+		public void onComplete(OperationFuture<?> future) throws Exception
+		{
+			completed(future.getStatus());
+		}
+	};
+
+	private int operations;
+
+	private int removed;
+
+	private int notFound;
+
+	private int failed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param metrics the metrics of the data store
+	 */
+	BatchRemoval(DataStoreMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Adds a key to delete when the batch is executed
+	 *
+	 * @param client the connection to Memcached to delete the key with
+	 * @param key    the key to delete
+	 */
+	void delete(MemcachedClient client, String key)
+	{
+		keys.add(key);
+		clients.add(client);
+	}
+
+	/**
+	 * Counts the outcome of an operation already sent to Memcached
+	 *
+	 * @param future the future of the operation
+	 */
+	void track(OperationFuture<?> future)
+	{
+		synchronized (this)
+		{
+			operations++;
+		}
+		future.addListener(listener);
+	}
+
+	/**
+	 * Sends the deletes
+	 *
+	 * @return this instance, for chaining
+	 */
+	BatchRemoval execute()
+	{
+		for (int i = 0; i < keys.size(); i++)
+		{
+			OperationFuture<Boolean> future = clients.get(i).delete(keys.get(i));
+			future.addListener(metrics.newDeleteListener());
+			track(future);
+		}
+		keys.clear();
+		clients.clear();
+		return this;
+	}
+
+	/**
+	 * Waits for the sent operations to complete
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, 0 to not wait at all
+	 * @return the outcome of the operations completed so far
+	 */
+	synchronized RemovalResult await(long timeout)
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (removed + notFound + failed < operations && remaining > 0)
+		{
+			try
+			{
+				wait(remaining);
+			}
+			catch (InterruptedException ix)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return new RemovalResult(operations, removed, notFound, failed);
+	}
+
+	private synchronized void completed(OperationStatus status)
+	{
+		if (status.isSuccess())
+		{
+			removed++;
+		}
+		else if (isNotFound(status))
+		{
+			notFound++;
+		}
+		else
+		{
+			failed++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * The text protocol replies with "NOT_FOUND", the binary one with "Not found"
+	 */
+	private static boolean isNotFound(OperationStatus status)
+	{
+		String message = status.getMessage();
+		return message != null && message.replace('_', ' ').equalsIgnoreCase("not found");
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops sending operations to Memcached while too many of them fail.
+ *
+ * The outcomes of the last <em>window</em> operations are kept. When the
+ * share of the failed ones reaches <em>failureRate</em> the breaker opens.
+ * After <em>openTime</em> a single caller may probe Memcached. A successful
+ * probe closes the breaker, a failed one opens it again.
+ */
+final class CircuitBreaker
+{
+	private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final boolean[] outcomes;
+
+	private final double failureRate;
+
+	private final long openTime;
+
+	private State state = State.CLOSED;
+
+	/**
+	 * The position of the next outcome in {@link #outcomes}
+	 */
+	private int position;
+
+	private int recorded;
+
+	private int failures;
+
+	/**
+	 * When the breaker may be probed, in milliseconds
+	 */
+	private long probeAt;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param window      the number of the last operations to consider
+	 * @param failureRate the share of failed operations which opens the breaker
+	 * @param openTime    how long to wait before probing an open breaker, in milliseconds
+	 */
+	CircuitBreaker(int window, double failureRate, long openTime)
+	{
+		this.outcomes = new boolean[window];
+		this.failureRate = failureRate;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * @return {@code true} if the operations may be sent to Memcached
+	 */
+	synchronized boolean isClosed()
+	{
+		return state == State.CLOSED;
+	}
+
+	/**
+	 * Lets a single caller probe Memcached once the breaker has been open for long enough.
+	 * A probe which does not complete within the open time is treated as failed.
+	 *
+	 * @return {@code true} if the caller should probe Memcached
+	 */
+	synchronized boolean tryProbe()
+	{
+		long now = System.currentTimeMillis();
+		if (state != State.CLOSED && now >= probeAt)
+		{
+			state = State.HALF_OPEN;
+			probeAt = now + openTime;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records a successful operation
+	 */
+	synchronized void recordSuccess()
+	{
+		if (state == State.HALF_OPEN)
+		{
+			LOG.info("Memcached is available again, closing the circuit breaker");
+			state = State.CLOSED;
+			reset();
+		}
+		else if (state == State.CLOSED)
+		{
+			record(false);
+		}
+	}
+
+	/**
+	 * Records a failed or timed out operation
+	 */
+	synchronized void recordFailure()
+	{
+		if (state == State.HALF_OPEN)
+		{
+			open();
+		}
+		else if (state == State.CLOSED)
+		{
+			record(true);
+			if (recorded == outcomes.length && failures >= failureRate * outcomes.length)
+			{
+				LOG.warn("{} of the last {} operations failed, opening the circuit breaker",
+						failures, outcomes.length);
+				open();
+			}
+		}
+	}
+
+	private void record(boolean failure)
+	{
+		if (recorded == outcomes.length)
+		{
+			if (outcomes[position])
+			{
+				failures--;
+			}
+		}
+		else
+		{
+			recorded++;
+		}
+		outcomes[position] = failure;
+		if (failure)
+		{
+			failures++;
+		}
+		position = (position + 1) % outcomes.length;
+	}
+
+	private void open()
+	{
+		state = State.OPEN;
+		probeAt = System.currentTimeMillis() + openTime;
+		reset();
+	}
+
+	private void reset()
+	{
+		position = 0;
+		recorded = 0;
+		failures = 0;
+	}
+}
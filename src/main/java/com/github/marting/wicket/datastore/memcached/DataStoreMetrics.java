@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+
+/**
+ * The metrics of a MemcachedDataStore.
+ *
+ * All counters are lock-free, so recording costs a few atomic increments.
+ * The metrics can be read with {@link MemcachedDataStore#getMetrics()}
+ * or over JMX.
+ */
+public final class DataStoreMetrics implements DataStoreMetricsMXBean
+{
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong readTimeouts = new AtomicLong();
+
+	private final AtomicLong sets = new AtomicLong();
+
+	private final AtomicLong failedSets = new AtomicLong();
+
+	private final AtomicLong deletes = new AtomicLong();
+
+	private final AtomicLong lostConnections = new AtomicLong();
+
+	private final AtomicLong reconnects = new AtomicLong();
+
+	private final AtomicLong quotaEvictions = new AtomicLong();
+
+	private final AtomicLong touches = new AtomicLong();
+
+	private final AtomicLong replicaHits = new AtomicLong();
+
+	private final AtomicLong quorumFailures = new AtomicLong();
+
+	private final AtomicLong hedgedReads = new AtomicLong();
+
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	private final AtomicLong keyframes = new AtomicLong();
+
+	private final AtomicLong deltaBytesSaved = new AtomicLong();
+
+	private final AtomicLong dictionaryMisses = new AtomicLong();
+
+	private final Histogram getLatency = new Histogram();
+
+	private final Histogram setLatency = new Histogram();
+
+	private final Histogram deleteLatency = new Histogram();
+
+	private final Histogram payloadSize = new Histogram();
+
+	private final Map<String, PageIdIndex> keysPerSession;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param keysPerSession the local page index of the data store
+	 */
+	DataStoreMetrics(Map<String, PageIdIndex> keysPerSession)
+	{
+		this.keysPerSession = keysPerSession;
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	@Override
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		return total > 0 ? (double) h / total : 0d;
+	}
+
+	@Override
+	public long getReadTimeouts()
+	{
+		return readTimeouts.get();
+	}
+
+	@Override
+	public long getSets()
+	{
+		return sets.get();
+	}
+
+	@Override
+	public long getFailedSets()
+	{
+		return failedSets.get();
+	}
+
+	@Override
+	public long getDeletes()
+	{
+		return deletes.get();
+	}
+
+	@Override
+	public long getLostConnections()
+	{
+		return lostConnections.get();
+	}
+
+	@Override
+	public long getReconnects()
+	{
+		return reconnects.get();
+	}
+
+	@Override
+	public int getSessions()
+	{
+		return keysPerSession.size();
+	}
+
+	@Override
+	public long getPages()
+	{
+		long pages = 0;
+		for (PageIdIndex index : keysPerSession.values())
+		{
+			pages += index.size();
+		}
+		return pages;
+	}
+
+	@Override
+	public long getQuotaEvictions()
+	{
+		return quotaEvictions.get();
+	}
+
+	@Override
+	public long getTouches()
+	{
+		return touches.get();
+	}
+
+	@Override
+	public long getReplicaHits()
+	{
+		return replicaHits.get();
+	}
+
+	@Override
+	public long getQuorumFailures()
+	{
+		return quorumFailures.get();
+	}
+
+	@Override
+	public long getHedgedReads()
+	{
+		return hedgedReads.get();
+	}
+
+	@Override
+	public long getHedgeWins()
+	{
+		return hedgeWins.get();
+	}
+
+	@Override
+	public long getKeyframes()
+	{
+		return keyframes.get();
+	}
+
+	@Override
+	public long getDeltaBytesSaved()
+	{
+		return deltaBytesSaved.get();
+	}
+
+	@Override
+	public long getDictionaryMisses()
+	{
+		return dictionaryMisses.get();
+	}
+
+	@Override
+	public Histogram getGetLatency()
+	{
+		return getLatency;
+	}
+
+	@Override
+	public Histogram getSetLatency()
+	{
+		return setLatency;
+	}
+
+	@Override
+	public Histogram getDeleteLatency()
+	{
+		return deleteLatency;
+	}
+
+	@Override
+	public Histogram getPayloadSize()
+	{
+		return payloadSize;
+	}
+
+	void recordGet(boolean hit)
+	{
+		(hit ? hits : misses).incrementAndGet();
+	}
+
+	void recordReadTimeout()
+	{
+		readTimeouts.incrementAndGet();
+	}
+
+	void recordGetLatency(long startNanos)
+	{
+		getLatency.record(elapsedMicros(startNanos));
+	}
+
+	void recordPayloadSize(int size)
+	{
+		payloadSize.record(size);
+	}
+
+	void recordLostConnection()
+	{
+		lostConnections.incrementAndGet();
+	}
+
+	void recordReconnect()
+	{
+		reconnects.incrementAndGet();
+	}
+
+	void recordQuotaEvictions(int pages)
+	{
+		quotaEvictions.addAndGet(pages);
+	}
+
+	void recordTouches(int keys)
+	{
+		touches.addAndGet(keys);
+	}
+
+	void recordReplicaHit()
+	{
+		replicaHits.incrementAndGet();
+	}
+
+	void recordQuorumFailure()
+	{
+		quorumFailures.incrementAndGet();
+	}
+
+	void recordHedgedRead()
+	{
+		hedgedReads.incrementAndGet();
+	}
+
+	void recordHedgeWin()
+	{
+		hedgeWins.incrementAndGet();
+	}
+
+	void recordKeyframe()
+	{
+		keyframes.incrementAndGet();
+	}
+
+	void recordDelta(int pageSize, int storedSize)
+	{
+		deltaBytesSaved.addAndGet(pageSize - storedSize);
+	}
+
+	void recordDictionaryMiss()
+	{
+		dictionaryMisses.incrementAndGet();
+	}
+
+	/**
+	 * @return a listener to add to a set operation started now
+	 */
+	OperationCompletionListener newSetListener()
+	{
+		sets.incrementAndGet();
+		final long start = System.nanoTime();
+		return new OperationCompletionListener()
+		{
+			@Override
+			public void onComplete(OperationFuture<?> future) throws Exception
+			{
+				setLatency.record(elapsedMicros(start));
+				if (future.isCancelled() || !future.getStatus().isSuccess())
+				{
+					failedSets.incrementAndGet();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return a listener to add to a delete operation started now
+	 */
+	OperationCompletionListener newDeleteListener()
+	{
+		deletes.incrementAndGet();
+		final long start = System.nanoTime();
+		return new OperationCompletionListener()
+		{
+			@Override
+			public void onComplete(OperationFuture<?> future) throws Exception
+			{
+				deleteLatency.record(elapsedMicros(start));
+			}
+		};
+	}
+
+	@Override
+	public String toString()
+	{
+		return "hits: " + getHits() + ", misses: " + getMisses() + ", read timeouts: " + getReadTimeouts()
+				+ ", sets: " + getSets() + ", failed sets: " + getFailedSets() + ", deletes: " + getDeletes()
+				+ ", sessions: " + getSessions() + ", pages: " + getPages() + ", quota evictions: " + getQuotaEvictions() + ", touches: " + getTouches()
+				+ ", replica hits: " + getReplicaHits() + ", quorum failures: " + getQuorumFailures()
+				+ ", hedged reads: " + getHedgedReads() + ", hedge wins: " + getHedgeWins()
+				+ ", keyframes: " + getKeyframes() + ", delta bytes saved: " + getDeltaBytesSaved()
+				+ ", dictionary misses: " + getDictionaryMisses();
+	}
+
+	private static long elapsedMicros(long startNanos)
+	{
+		return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+	}
+}
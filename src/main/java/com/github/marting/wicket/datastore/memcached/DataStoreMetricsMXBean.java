@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * The metrics of a MemcachedDataStore exposed over JMX.
+ *
+ * The latencies are in microseconds, the payload sizes in bytes.
+ */
+public interface DataStoreMetricsMXBean
+{
+	/**
+	 * @return the number of getData calls which found the page
+	 */
+	long getHits();
+
+	/**
+	 * @return the number of getData calls which did not find the page
+	 */
+	long getMisses();
+
+	/**
+	 * @return the share of the getData calls which found the page
+	 */
+	double getHitRate();
+
+	/**
+	 * @return the number of reads which did not complete within the read timeout
+	 */
+	long getReadTimeouts();
+
+	/**
+	 * @return the number of set operations, including the chunks of big pages
+	 */
+	long getSets();
+
+	/**
+	 * @return the number of set operations rejected by Memcached or cancelled
+	 */
+	long getFailedSets();
+
+	/**
+	 * @return the number of delete operations
+	 */
+	long getDeletes();
+
+	/**
+	 * @return the number of lost connections to the Memcached servers
+	 */
+	long getLostConnections();
+
+	/**
+	 * @return the number of reestablished connections to the Memcached servers
+	 */
+	long getReconnects();
+
+	/**
+	 * @return the number of sessions in the local page index
+	 */
+	int getSessions();
+
+	/**
+	 * @return the number of pages in the local page index
+	 */
+	long getPages();
+
+	/**
+	 * @return the number of pages removed because their session exceeded its quota
+	 */
+	long getQuotaEvictions();
+
+	/**
+	 * @return the number of keys whose expiration was extended by the sliding expiration
+	 */
+	long getTouches();
+
+	/**
+	 * @return the number of pages read from the secondary servers because they were missing in the primary ones
+	 */
+	long getReplicaHits();
+
+	/**
+	 * @return the number of writes which were not confirmed by enough server groups in time
+	 */
+	long getQuorumFailures();
+
+	/**
+	 * @return the number of reads sent to the secondary servers because the primary ones were slow
+	 */
+	long getHedgedReads();
+
+	/**
+	 * @return the number of hedged reads answered first by the secondary servers
+	 */
+	long getHedgeWins();
+
+	/**
+	 * @return the number of keyframes stored for the delta encoding
+	 */
+	long getKeyframes();
+
+	/**
+	 * @return the number of bytes saved by the delta encoding, before compression,
+	 *          compared to storing the full pages. The keyframes count as stored bytes.
+	 */
+	long getDeltaBytesSaved();
+
+	/**
+	 * @return the number of pages read as misses because their compression dictionary
+	 *          was missing in Memcached, e.g. evicted, or could not be read in time
+	 */
+	long getDictionaryMisses();
+
+	/**
+	 * @return the latency of the reads
+	 */
+	Histogram getGetLatency();
+
+	/**
+	 * @return the latency of the set operations
+	 */
+	Histogram getSetLatency();
+
+	/**
+	 * @return the latency of the delete operations
+	 */
+	Histogram getDeleteLatency();
+
+	/**
+	 * @return the size of the stored payloads, after the compression
+	 */
+	Histogram getPayloadSize();
+}
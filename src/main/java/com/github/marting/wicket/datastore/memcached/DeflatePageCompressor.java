@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.util.lang.Args;
+
+/**
+ * A page compressor that uses {@link Deflater}.
+ *
+ * The compressed page starts with the length of the uncompressed page
+ * so it can be inflated into an array with the exact size.
+ */
+public class DeflatePageCompressor implements IPageCompressor
+{
+	/**
+	 * The id of this compressor in the page header
+	 */
+	public static final int ID = 1;
+
+	private final int level;
+
+	/**
+	 * Constructor.
+	 *
+	 * Uses {@link Deflater#BEST_SPEED}. Serialized pages compress well
+	 * even at the fastest level.
+	 */
+	public DeflatePageCompressor()
+	{
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param level the compression level, 0-9
+	 */
+	public DeflatePageCompressor(int level)
+	{
+		this.level = Args.withinRange(Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION, level, "level");
+	}
+
+	@Override
+	public int getId()
+	{
+		return ID;
+	}
+
+	@Override
+	public byte[] compress(byte[] data)
+	{
+		Deflater deflater = new Deflater(level);
+		try
+		{
+			deflater.setInput(data);
+			deflater.finish();
+			return deflate(deflater, data.length);
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length)
+	{
+		Inflater inflater = new Inflater();
+		try
+		{
+			int originalLength = readInt(data, offset);
+			inflater.setInput(data, offset + 4, length - 4);
+			return inflate(inflater, originalLength);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Deflates the input of the deflater into an array prefixed
+	 * with the uncompressed length
+	 *
+	 * @param deflater       a deflater with its input set
+	 * @param originalLength the length of the uncompressed data
+	 * @return the compressed data
+	 */
+	static byte[] deflate(Deflater deflater, int originalLength)
+	{
+		return deflate(deflater, originalLength, 4);
+	}
+
+	/**
+	 * Deflates the input of the deflater into an array prefixed
+	 * with the uncompressed length and room for more header fields
+	 *
+	 * @param deflater       a deflater with its input set
+	 * @param originalLength the length of the uncompressed data
+	 * @param headerLength   the length of the header, at least 4
+	 * @return the compressed data
+	 */
+	static byte[] deflate(Deflater deflater, int originalLength, int headerLength)
+	{
+		// the compressed page is rarely bigger than a quarter of the original
+		byte[] buffer = new byte[headerLength + Math.max(64, originalLength / 4)];
+		writeInt(buffer, 0, originalLength);
+		int length = headerLength;
+		while (!deflater.finished())
+		{
+			if (length == buffer.length)
+			{
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}
+		return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Inflates the input of the inflater
+	 *
+	 * @param inflater       an inflater with its input set
+	 * @param originalLength the length of the uncompressed data
+	 * @return the uncompressed data
+	 */
+	static byte[] inflate(Inflater inflater, int originalLength)
+	{
+		byte[] result = new byte[originalLength];
+		try
+		{
+			int length = 0;
+			while (length < originalLength)
+			{
+				int count = inflater.inflate(result, length, originalLength - length);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				length += count;
+			}
+			if (length != originalLength)
+			{
+				throw new WicketRuntimeException("Corrupted compressed page. Expected " + originalLength +
+						" bytes but got " + length);
+			}
+			return result;
+		}
+		catch (DataFormatException dfx)
+		{
+			throw new WicketRuntimeException("Corrupted compressed page", dfx);
+		}
+	}
+
+	static void writeInt(byte[] buffer, int offset, int value)
+	{
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	static int readInt(byte[] buffer, int offset)
+	{
+		return ((buffer[offset] & 0xFF) << 24)
+				| ((buffer[offset + 1] & 0xFF) << 16)
+				| ((buffer[offset + 2] & 0xFF) << 8)
+				| (buffer[offset + 3] & 0xFF);
+	}
+}
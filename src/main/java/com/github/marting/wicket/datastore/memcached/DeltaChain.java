@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * The current keyframe of a session, which its pages are encoded against.
+ *
+ * The keyframes are stored under their own negative ids, so overwriting
+ * a page never changes the keyframe of the other pages. The ids are taken
+ * from a counter of the session in Memcached, so the nodes of a cluster
+ * never store their keyframes under the same id. The current keyframe
+ * is kept in the heap, indexed once, to encode the new pages and to decode
+ * the pages encoded against it without reading it from Memcached.
+ */
+final class DeltaChain
+{
+	private int keyframeId;
+
+	private PageDelta.Keyframe keyframe;
+
+	private long createdAt;
+
+	private int pages;
+
+	/**
+	 * @param now      the current time in milliseconds
+	 * @param interval the maximum number of pages encoded against a keyframe
+	 * @param maxAge   the maximum age of a keyframe in milliseconds
+	 * @return {@code true} if the next page needs a new keyframe
+	 */
+	synchronized boolean needsKeyframe(long now, int interval, long maxAge)
+	{
+		return keyframe == null || pages >= interval || now - createdAt >= maxAge;
+	}
+
+	/**
+	 * Starts a new keyframe
+	 *
+	 * @param id   the id of the new keyframe, negative
+	 * @param page the page which becomes the keyframe
+	 * @param now  the current time in milliseconds
+	 * @return the new keyframe
+	 */
+	synchronized PageDelta.Keyframe newKeyframe(int id, byte[] page, long now)
+	{
+		keyframeId = id;
+		keyframe = new PageDelta.Keyframe(page);
+		createdAt = now;
+		pages = 0;
+		return keyframe;
+	}
+
+	/**
+	 * Counts a page encoded against the current keyframe
+	 */
+	synchronized void addPage()
+	{
+		pages++;
+	}
+
+	/**
+	 * @return the id of the current keyframe
+	 */
+	synchronized int getKeyframeId()
+	{
+		return keyframeId;
+	}
+
+	/**
+	 * @return the current keyframe, {@code null} if there is none
+	 */
+	synchronized PageDelta.Keyframe getCurrentKeyframe()
+	{
+		return keyframe;
+	}
+
+	/**
+	 * @param id the id of a keyframe
+	 * @return the keyframe if it is the current one, otherwise {@code null}
+	 */
+	synchronized byte[] getKeyframe(int id)
+	{
+		return keyframe != null && id == keyframeId ? keyframe.getData() : null;
+	}
+
+	/**
+	 * Drops the keyframe if it is the current one, e.g. because it has been
+	 * removed from Memcached, so the next page starts a new one
+	 *
+	 * @param id the id of a keyframe
+	 */
+	synchronized void invalidate(int id)
+	{
+		if (id == keyframeId)
+		{
+			keyframe = null;
+		}
+	}
+}
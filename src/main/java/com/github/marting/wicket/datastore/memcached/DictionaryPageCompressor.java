@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.GetFuture;
+import org.apache.wicket.util.lang.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A page compressor that uses {@link Deflater} with a preset dictionary
+ * trained from the stored pages by {@link PageDictionary}.
+ *
+ * A page compresses against the class descriptors and strings repeated
+ * in all pages, not only in itself. Until there are enough samples the pages
+ * are compressed without a dictionary. After that a new dictionary is trained
+ * every so many pages, so it follows the pages the application stores.
+ * The samples are collected and the dictionaries trained and stored in
+ * a background thread. The pages are compressed with the current dictionary
+ * until the new one is stored.
+ *
+ * The dictionaries are stored in Memcached under their ids, the Adler-32 checksums,
+ * before any page is compressed with them, so all nodes can read all pages.
+ * They are replicated to the secondary servers like the pages. They expire
+ * twice as late as the pages and the dictionaries in the heap, the current one
+ * and the ones of the pages read recently, are touched once per expiration time
+ * of the pages, so they outlive the pages which use them. A page whose
+ * dictionary cannot be read anymore is a miss.
+ * The compressed page starts with the length of the uncompressed page and
+ * the id of the dictionary, 0 for none.
+ */
+final class DictionaryPageCompressor implements IPageCompressor
+{
+	private static final Logger LOG = LoggerFactory.getLogger(DictionaryPageCompressor.class);
+
+	/**
+	 * The id of this compressor in the page header
+	 */
+	static final int ID = 2;
+
+	/**
+	 * The size of the dictionaries. Deflate does not look further back.
+	 */
+	static final int DICTIONARY_SIZE = 32 * 1024;
+
+	/**
+	 * The number of pages a dictionary is trained from
+	 */
+	static final int SAMPLE_COUNT = 64;
+
+	/**
+	 * Only the start of the bigger pages is sampled
+	 */
+	private static final int MAX_SAMPLE_LENGTH = 64 * 1024;
+
+	/**
+	 * The number of dictionaries kept in the heap, for the pages stored before a retraining
+	 */
+	private static final int MAX_CACHED_DICTIONARIES = 8;
+
+	private static final int HEADER_LENGTH = 8;
+
+	private final MemcachedClient client;
+
+	private final MemcachedClient secondaryClient;
+
+	private final PageKeys keys;
+
+	private final int retrainInterval;
+
+	/**
+	 * The expiration of the dictionaries in seconds, twice the one of the pages
+	 */
+	private final int expiration;
+
+	private final long timeout;
+
+	private final DataStoreMetrics metrics;
+
+	/**
+	 * The dictionaries by id
+	 */
+	private final Map<Integer, byte[]> dictionaries = Collections.synchronizedMap(
+			new LinkedHashMap<Integer, byte[]>(16, 0.75f, true)
+			{
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest)
+				{
+					return size() > MAX_CACHED_DICTIONARIES;
+				}
+			});
+
+	/**
+	 * Collects the samples and trains the dictionaries. The samples are dropped
+	 * while it is busy training.
+	 */
+	private final ThreadPoolExecutor trainer;
+
+	/**
+	 * The samples for the next dictionary, used by the trainer thread only
+	 */
+	private final List<byte[]> samples = new ArrayList<byte[]>();
+
+	private final AtomicInteger pages = new AtomicInteger();
+
+	/**
+	 * When the dictionaries in the heap have been touched last, in milliseconds
+	 */
+	private final AtomicLong touchedAt = new AtomicLong();
+
+	/**
+	 * The dictionary for new pages or {@code null}
+	 */
+	private volatile Dictionary current;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param client          the connection to store and read the dictionaries
+	 * @param secondaryClient the connection to the secondary servers, may be {@code null}
+	 * @param keys            builds the keys of the dictionaries
+	 * @param retrainInterval the number of compressed pages after which a new dictionary is trained
+	 * @param expiration      the expiration of the dictionaries in seconds, twice the one of the pages,
+	 *                        0 for none
+	 * @param timeout         how long to wait for Memcached, in milliseconds
+	 * @param metrics         counts the pages whose dictionary is missing
+	 */
+	DictionaryPageCompressor(MemcachedClient client, MemcachedClient secondaryClient, PageKeys keys,
+			int retrainInterval, int expiration, long timeout, DataStoreMetrics metrics)
+	{
+		this.client = Args.notNull(client, "client");
+		this.secondaryClient = secondaryClient;
+		this.keys = Args.notNull(keys, "keys");
+		this.retrainInterval = Args.withinRange(SAMPLE_COUNT, Integer.MAX_VALUE, retrainInterval, "retrainInterval");
+		this.expiration = expiration;
+		this.timeout = timeout;
+		this.metrics = Args.notNull(metrics, "metrics");
+		this.trainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(SAMPLE_COUNT), new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable, "wicket-memcached-dictionary");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	@Override
+	public int getId()
+	{
+		return ID;
+	}
+
+	@Override
+	public byte[] compress(byte[] data)
+	{
+		final Dictionary dictionary = current;
+		if (isSampled(dictionary))
+		{
+			final byte[] page = data;
+			trainer.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						sample(page);
+					}
+					catch (RuntimeException rx)
+					{
+						LOG.warn("Could not train a compression dictionary", rx);
+					}
+				}
+			});
+		}
+
+		if (dictionary != null)
+		{
+			touchDictionaries();
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try
+		{
+			if (dictionary != null)
+			{
+				deflater.setDictionary(dictionary.bytes);
+			}
+			deflater.setInput(data);
+			deflater.finish();
+			byte[] compressed = DeflatePageCompressor.deflate(deflater, data.length, HEADER_LENGTH);
+			DeflatePageCompressor.writeInt(compressed, 4, dictionary != null ? dictionary.id : 0);
+			return compressed;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return the page, {@code null} if its dictionary cannot be read
+	 */
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length)
+	{
+		int originalLength = DeflatePageCompressor.readInt(data, offset);
+		int dictionaryId = DeflatePageCompressor.readInt(data, offset + 4);
+		byte[] dictionary = dictionaryId != 0 ? getDictionary(dictionaryId) : null;
+		if (dictionaryId != 0 && dictionary == null)
+		{
+			metrics.recordDictionaryMiss();
+			return null;
+		}
+		if (dictionary != null)
+		{
+			touchDictionaries();
+		}
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			if (dictionary != null)
+			{
+				inflater.setDictionary(dictionary);
+			}
+			inflater.setInput(data, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+			return DeflatePageCompressor.inflate(inflater, originalLength);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return the id of the dictionary for new pages, 0 if there is none yet
+	 */
+	int getDictionaryId()
+	{
+		Dictionary dictionary = current;
+		return dictionary != null ? dictionary.id : 0;
+	}
+
+	/**
+	 * Stops training the dictionaries
+	 */
+	void stop()
+	{
+		trainer.shutdownNow();
+	}
+
+	/**
+	 * Extends the expiration of the dictionaries in the heap, at most once per
+	 * expiration time of the pages. The touches are not awaited.
+	 */
+	private void touchDictionaries()
+	{
+		long now = System.currentTimeMillis();
+		long last = touchedAt.get();
+		// half the expiration of the dictionaries is the one of the pages
+		if (expiration == 0 || now - last < expiration * 500L || !touchedAt.compareAndSet(last, now))
+		{
+			return;
+		}
+		Integer[] ids;
+		synchronized (dictionaries)
+		{
+			ids = dictionaries.keySet().toArray(new Integer[dictionaries.size()]);
+		}
+		for (Integer id : ids)
+		{
+			String key = keys.getDictionaryKey(id);
+			client.touch(key, expiration);
+			if (secondaryClient != null)
+			{
+				secondaryClient.touch(key, expiration);
+			}
+		}
+	}
+
+	/**
+	 * @param dictionary the current dictionary or {@code null}
+	 * @return {@code true} if the page is a sample for the next dictionary, all pages until
+	 *          the first dictionary and then {@link #SAMPLE_COUNT} pages per retrain interval
+	 */
+	private boolean isSampled(Dictionary dictionary)
+	{
+		int interval = dictionary == null ? 1 : retrainInterval / SAMPLE_COUNT;
+		return pages.incrementAndGet() % interval == 0;
+	}
+
+	/**
+	 * Keeps the page as a sample for the next dictionary and trains it
+	 * once there are enough samples
+	 */
+	private void sample(byte[] data)
+	{
+		samples.add(Arrays.copyOf(data, Math.min(data.length, MAX_SAMPLE_LENGTH)));
+		if (samples.size() < SAMPLE_COUNT)
+		{
+			return;
+		}
+		List<byte[]> trainingSet = new ArrayList<byte[]>(samples);
+		samples.clear();
+		train(trainingSet);
+	}
+
+	/**
+	 * Trains a new dictionary and uses it once it is stored in Memcached
+	 */
+	private void train(List<byte[]> trainingSet)
+	{
+		byte[] bytes = PageDictionary.train(trainingSet, DICTIONARY_SIZE);
+		if (bytes == null)
+		{
+			return;
+		}
+		int id = PageDictionary.getId(bytes);
+		if (id == 0 || id == getDictionaryId())
+		{
+			return;
+		}
+
+		String key = keys.getDictionaryKey(id);
+		if (!store(client, key, bytes))
+		{
+			return;
+		}
+		if (secondaryClient != null && !store(secondaryClient, key, bytes))
+		{
+			// the pages are readable as long as the primary servers keep the dictionary
+			LOG.warn("Could not replicate the compression dictionary '{}'", key);
+		}
+
+		dictionaries.put(id, bytes);
+		current = new Dictionary(id, bytes);
+		LOG.info("Trained the compression dictionary '{}' of {} bytes from {} pages",
+				new Object[] {key, bytes.length, trainingSet.size()});
+	}
+
+	/**
+	 * Stores a dictionary in Memcached
+	 *
+	 * @param client the connection to the servers
+	 * @param key    the key of the dictionary
+	 * @param bytes  the dictionary
+	 * @return {@code true} if the dictionary has been stored
+	 */
+	private boolean store(MemcachedClient client, String key, byte[] bytes)
+	{
+		try
+		{
+			// the dictionary is touched while it is used, so it outlives the pages compressed with it
+			if (client.set(key, expiration, bytes, PageTranscoder.INSTANCE).get(timeout, TimeUnit.MILLISECONDS))
+			{
+				return true;
+			}
+			LOG.warn("Could not store the compression dictionary '{}'", key);
+		}
+		catch (TimeoutException tx)
+		{
+			LOG.warn("Timed out storing the compression dictionary '{}'", key);
+		}
+		catch (InterruptedException ix)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			LOG.warn("Could not store the compression dictionary '{}'", key, ex.getCause());
+		}
+		return false;
+	}
+
+	/**
+	 * @param id the id of a dictionary
+	 * @return the dictionary from the heap or from Memcached, {@code null} if it is
+	 *          missing there, e.g. evicted, or cannot be read in time
+	 */
+	private byte[] getDictionary(int id)
+	{
+		byte[] dictionary = dictionaries.get(id);
+		if (dictionary != null)
+		{
+			return dictionary;
+		}
+
+		String key = keys.getDictionaryKey(id);
+		dictionary = read(client, key, id);
+		if (dictionary == null && secondaryClient != null)
+		{
+			dictionary = read(secondaryClient, key, id);
+		}
+		if (dictionary == null)
+		{
+			LOG.warn("The compression dictionary '{}' is missing, its pages cannot be read", key);
+			return null;
+		}
+		dictionaries.put(id, dictionary);
+		return dictionary;
+	}
+
+	/**
+	 * Reads a dictionary from Memcached
+	 *
+	 * @param client the connection to the servers
+	 * @param key    the key of the dictionary
+	 * @param id     the id of the dictionary
+	 * @return the dictionary, {@code null} if it is missing or cannot be read in time
+	 */
+	private byte[] read(MemcachedClient client, String key, int id)
+	{
+		GetFuture<byte[]> future = client.asyncGet(key, PageTranscoder.INSTANCE);
+		byte[] dictionary = null;
+		try
+		{
+			dictionary = future.get(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException tx)
+		{
+			future.cancel(false);
+			LOG.warn("Timed out reading the compression dictionary '{}'", key);
+		}
+		catch (InterruptedException ix)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			LOG.warn("Could not read the compression dictionary '{}'", key, ex.getCause());
+		}
+		return dictionary != null && PageDictionary.getId(dictionary) == id ? dictionary : null;
+	}
+
+	/**
+	 * A dictionary with its id
+	 */
+	private static final class Dictionary
+	{
+		private final int id;
+
+		private final byte[] bytes;
+
+		private Dictionary(int id, byte[] bytes)
+		{
+			this.id = id;
+			this.bytes = bytes;
+		}
+	}
+}
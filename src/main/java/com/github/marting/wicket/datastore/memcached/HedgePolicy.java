@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decides when a read is hedged, i.e. sent to the secondary servers as well
+ * because the primary ones have not answered yet.
+ *
+ * The delay before hedging is the {@value #PERCENTILE}th percentile of the
+ * latency of the primary reads, recomputed every {@value #WINDOW} reads so
+ * it follows the load. The hedges are limited by a token bucket which gains
+ * a fraction of a token per read, so an outage of the primary servers
+ * does not double the load of the secondary ones.
+ */
+final class HedgePolicy
+{
+	/**
+	 * The number of reads the percentile is computed over
+	 */
+	static final int WINDOW = 256;
+
+	private static final double PERCENTILE = 95d;
+
+	/**
+	 * A token of the bucket, in fixed point
+	 */
+	private static final long TOKEN = 1000000L;
+
+	/**
+	 * The most hedges sent in a burst
+	 */
+	private static final long MAX_TOKENS = 10 * TOKEN;
+
+	private final long tokensPerRead;
+
+	private final AtomicLong tokens = new AtomicLong(MAX_TOKENS);
+
+	private final AtomicReference<Histogram> window = new AtomicReference<Histogram>(new Histogram());
+
+	private volatile long delay;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxHedgeRate the maximum ratio of hedged reads
+	 * @param initialDelay the delay before hedging in microseconds,
+	 *                     until the latency of {@value #WINDOW} reads is known
+	 */
+	HedgePolicy(double maxHedgeRate, long initialDelay)
+	{
+		this.tokensPerRead = (long) (maxHedgeRate * TOKEN);
+		this.delay = initialDelay;
+	}
+
+	/**
+	 * @return how long to wait for the primary servers before hedging, in microseconds
+	 */
+	long getDelay()
+	{
+		return delay;
+	}
+
+	/**
+	 * Records the latency of a read from the primary servers
+	 *
+	 * @param latency the latency in microseconds
+	 */
+	void recordLatency(long latency)
+	{
+		Histogram current = window.get();
+		current.record(latency);
+		if (current.getCount() >= WINDOW && window.compareAndSet(current, new Histogram()))
+		{
+			delay = current.getPercentile(PERCENTILE);
+		}
+	}
+
+	/**
+	 * Records a read, which adds to the budget of the hedges
+	 */
+	void recordRead()
+	{
+		long current = tokens.get();
+		while (current < MAX_TOKENS
+				&& !tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + tokensPerRead)))
+		{
+			current = tokens.get();
+		}
+	}
+
+	/**
+	 * Takes a hedge from the budget
+	 *
+	 * @return {@code true} if the read may be hedged
+	 */
+	boolean tryHedge()
+	{
+		long current = tokens.get();
+		while (current >= TOKEN)
+		{
+			if (tokens.compareAndSet(current, current - TOKEN))
+			{
+				return true;
+			}
+			current = tokens.get();
+		}
+		return false;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+
+/**
+ * A read sent to one or more server groups, answered by the first
+ * group which has the value.
+ */
+final class HedgedGet implements GetCompletionListener
+{
+	private final String key;
+
+	private final HedgePolicy policy;
+
+	private final List<GetFuture<byte[]>> futures = new ArrayList<GetFuture<byte[]>>(2);
+
+	private final List<MemcachedClient> clients = new ArrayList<MemcachedClient>(2);
+
+	private long start;
+
+	/**
+	 * Whether the latency of the primary group has been recorded
+	 */
+	private boolean latencyRecorded;
+
+	private int answered;
+
+	private int failed;
+
+	private int winner = -1;
+
+	private byte[] value;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param key    the key to read
+	 * @param policy records the latency of the first group, once it answers,
+	 *               fails or is overtaken by a hedge
+	 */
+	HedgedGet(String key, HedgePolicy policy)
+	{
+		this.key = key;
+		this.policy = policy;
+	}
+
+	/**
+	 * Sends the read to a server group
+	 *
+	 * @param client the connection to the server group
+	 */
+	synchronized void send(MemcachedClient client)
+	{
+		if (futures.isEmpty())
+		{
+			start = System.nanoTime();
+		}
+		GetFuture<byte[]> future = client.asyncGet(key, PageTranscoder.INSTANCE);
+		futures.add(future);
+		clients.add(client);
+		future.addListener(this);
+	}
+
+	/**
+	 * Waits until a group has the value or all groups have answered
+	 *
+	 * @param timeout the maximum time to wait in microseconds
+	 * @return {@code true} if the read is complete
+	 */
+	synchronized boolean await(long timeout)
+	{
+		long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(timeout);
+		long remaining = timeout;
+		while (!isComplete() && remaining > 0)
+		{
+			try
+			{
+				TimeUnit.MICROSECONDS.timedWait(this, remaining);
+			}
+			catch (InterruptedException ix)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = TimeUnit.NANOSECONDS.toMicros(deadline - System.nanoTime());
+		}
+		return isComplete();
+	}
+
+	/**
+	 * Cancels the reads which have not been answered yet
+	 */
+	synchronized void cancel()
+	{
+		// the first group has not answered in time, it is at least that slow
+		recordLatency();
+		for (GetFuture<byte[]> future : futures)
+		{
+			future.cancel(false);
+		}
+	}
+
+	/**
+	 * @return the value, {@code null} if no group has it
+	 */
+	synchronized byte[] getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * @return the connection to the group which had the value, {@code null} if none
+	 */
+	synchronized MemcachedClient getWinner()
+	{
+		return winner >= 0 ? clients.get(winner) : null;
+	}
+
+	/**
+	 * @return {@code true} if the value came from a hedge
+	 */
+	synchronized boolean isHedgeWinner()
+	{
+		return winner > 0;
+	}
+
+	/**
+	 * @return {@code true} if all groups failed to answer
+	 */
+	synchronized boolean isFailed()
+	{
+		return failed == futures.size();
+	}
+
+	@Override
+	public void onComplete(GetFuture<?> future) throws Exception
+	{
+		byte[] result = null;
+		boolean success = true;
+		try
+		{
+			result = (byte[]) future.get();
+		}
+		catch (ExecutionException ex)
+		{
+			success = false;
+		}
+		catch (CancellationException cx)
+		{
+			success = false;
+		}
+
+		synchronized (this)
+		{
+			int index = futures.indexOf(future);
+			answered++;
+			if (!success)
+			{
+				failed++;
+			}
+			else if (result != null && winner < 0)
+			{
+				winner = index;
+				value = result;
+			}
+			if (index == 0 || winner == index)
+			{
+				// the first group answered, or a hedge won and the first group is at least that slow
+				recordLatency();
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Records the time since the read was sent to the first group, the first time only
+	 */
+	private void recordLatency()
+	{
+		if (!latencyRecorded && !futures.isEmpty())
+		{
+			latencyRecorded = true;
+			policy.recordLatency((System.nanoTime() - start) / 1000L);
+		}
+	}
+
+	private boolean isComplete()
+	{
+		return winner >= 0 || answered == futures.size();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with fixed buckets.
+ *
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets, so the
+ * percentiles are accurate to 12.5% for any value without any configuration.
+ */
+public final class Histogram
+{
+	private static final int SUB_BUCKETS = 8;
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value
+	 *
+	 * @param value the value, negative values are recorded as 0
+	 */
+	void record(long value)
+	{
+		long v = Math.max(0L, value);
+		counts.incrementAndGet(getBucket(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+
+		long current = max.get();
+		while (v > current && !max.compareAndSet(current, v))
+		{
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values, 0 if there are none
+	 */
+	public double getMean()
+	{
+		long n = count.get();
+		return n > 0 ? (double) sum.get() / n : 0d;
+	}
+
+	/**
+	 * @return the biggest recorded value
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * @return the median of the recorded values
+	 */
+	public long getMedian()
+	{
+		return getPercentile(50d);
+	}
+
+	/**
+	 * @return the 95th percentile of the recorded values
+	 */
+	public long get95thPercentile()
+	{
+		return getPercentile(95d);
+	}
+
+	/**
+	 * @return the 99th percentile of the recorded values
+	 */
+	public long get99thPercentile()
+	{
+		return getPercentile(99d);
+	}
+
+	/**
+	 * @param percentile the percentile, (0, 100]
+	 * @return the upper bound of the bucket with the percentile, 0 if there are no values
+	 */
+	public long getPercentile(double percentile)
+	{
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+
+		long rank = (long) Math.ceil(n * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+			if (seen > 0 && seen >= rank)
+			{
+				return Math.min(getUpperBound(i), max.get());
+			}
+		}
+		return 0L;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "count: " + getCount() + ", mean: " + getMean() + ", median: " + getMedian()
+				+ ", 95th: " + get95thPercentile() + ", 99th: " + get99thPercentile() + ", max: " + getMax();
+	}
+
+	static int getBucket(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long getUpperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
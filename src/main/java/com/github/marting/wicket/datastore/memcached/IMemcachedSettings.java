@@ -16,6 +16,13 @@
  */
 package com.github.marting.wicket.datastore.memcached;
 
+import java.util.List;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.ops.OperationQueueFactory;
+import org.apache.wicket.pageStore.IDataStore;
+import org.apache.wicket.util.lang.Bytes;
 import org.apache.wicket.util.time.Duration;
 
 /**
@@ -49,6 +56,44 @@ public interface IMemcachedSettings
 	 */
 	IMemcachedSettings setPost(int port);
 
+	/**
+	 * @return the Memcached servers the data is distributed across.
+	 *          If there are no servers then the one at
+	 *          {@link #getHost()}:{@link #getPort()} is used
+	 */
+	List<MemcachedServer> getServers();
+
+	/**
+	 * Sets the Memcached servers the data is distributed across
+	 *
+	 * @param servers the Memcached servers the data is distributed across
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setServers(List<MemcachedServer> servers);
+
+	/**
+	 * Adds a Memcached server to the pool
+	 *
+	 * @param server the Memcached server to add
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings addServer(MemcachedServer server);
+
+	/**
+	 * @return the strategy used to find the server for a key
+	 */
+	ConnectionFactoryBuilder.Locator getLocator();
+
+	/**
+	 * Sets the strategy used to find the server for a key.
+	 * {@link ConnectionFactoryBuilder.Locator#CONSISTENT} uses Ketama
+	 * hashing so adding or removing a server remaps only the keys of that server.
+	 *
+	 * @param locator the strategy used to find the server for a key
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setLocator(ConnectionFactoryBuilder.Locator locator);
+
 	/**
 	 * @return the duration after which the record will be evicted by Memcached
 	 */
@@ -79,4 +124,682 @@ public interface IMemcachedSettings
 	 * @return this instance, for chaining
 	 */
 	IMemcachedSettings setShutdownTimeout(Duration timeout);
+
+	/**
+	 * @return the protocol used to talk to Memcached
+	 */
+	ConnectionFactoryBuilder.Protocol getProtocol();
+
+	/**
+	 * Sets the protocol used to talk to Memcached.
+	 * The binary protocol has less parsing overhead for big values.
+	 *
+	 * @param protocol the protocol used to talk to Memcached
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setProtocol(ConnectionFactoryBuilder.Protocol protocol);
+
+	/**
+	 * @return {@code true} if Nagle's algorithm is disabled (TCP_NODELAY)
+	 */
+	boolean isTcpNoDelay();
+
+	/**
+	 * Sets whether Nagle's algorithm should be disabled (TCP_NODELAY)
+	 *
+	 * @param tcpNoDelay {@code true} to disable Nagle's algorithm
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setTcpNoDelay(boolean tcpNoDelay);
+
+	/**
+	 * @return the size in bytes of the buffer used to read the responses
+	 */
+	int getReadBufferSize();
+
+	/**
+	 * Sets the size in bytes of the buffer used to read the responses.
+	 * Bigger buffers need less reads for big pages.
+	 *
+	 * @param readBufferSize the size in bytes of the buffer used to read the responses
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setReadBufferSize(int readBufferSize);
+
+	/**
+	 * @return the factory for the queue of the operations waiting to be sent,
+	 *          or {@code null} to use a bounded queue with
+	 *          {@link #getOperationQueueCapacity()} capacity
+	 */
+	OperationQueueFactory getOperationQueueFactory();
+
+	/**
+	 * Sets the factory for the queue of the operations waiting to be sent.
+	 *
+	 * @param factory the factory for the queue of the operations waiting to be sent,
+	 *                or {@code null} to use a bounded queue with
+	 *                {@link #getOperationQueueCapacity()} capacity
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setOperationQueueFactory(OperationQueueFactory factory);
+
+	/**
+	 * @return the maximum number of operations waiting to be sent per server
+	 */
+	int getOperationQueueCapacity();
+
+	/**
+	 * Sets the maximum number of operations waiting to be sent per server.
+	 * Not used when there is a custom {@link #getOperationQueueFactory()}.
+	 *
+	 * @param capacity the maximum number of operations waiting to be sent per server
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setOperationQueueCapacity(int capacity);
+
+	/**
+	 * @return the maximum time to wait for a free slot in a full operation queue
+	 */
+	Duration getMaxBlockTime();
+
+	/**
+	 * Sets the maximum time to wait for a free slot in a full operation queue
+	 *
+	 * @param maxBlockTime the maximum time to wait for a free slot in a full operation queue
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setMaxBlockTime(Duration maxBlockTime);
+
+	/**
+	 * @return the time to wait for the result of a synchronous operation
+	 */
+	Duration getOperationTimeout();
+
+	/**
+	 * Sets the time to wait for the result of a synchronous operation
+	 *
+	 * @param timeout the time to wait for the result of a synchronous operation
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setOperationTimeout(Duration timeout);
+
+	/**
+	 * @return what to do with the operations for a server that is down
+	 */
+	FailureMode getFailureMode();
+
+	/**
+	 * Sets what to do with the operations for a server that is down
+	 *
+	 * @param failureMode what to do with the operations for a server that is down
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setFailureMode(FailureMode failureMode);
+
+	/**
+	 * @return the compressor for the pages or {@code null} if the pages
+	 *          are stored uncompressed
+	 */
+	IPageCompressor getPageCompressor();
+
+	/**
+	 * Sets the compressor for the pages.
+	 *
+	 * @param compressor the compressor for the pages or {@code null} to store
+	 *                   the pages uncompressed
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setPageCompressor(IPageCompressor compressor);
+
+	/**
+	 * @return the minimum size of a page to be compressed
+	 */
+	Bytes getCompressionThreshold();
+
+	/**
+	 * Sets the minimum size of a page to be compressed
+	 *
+	 * @param threshold the minimum size of a page to be compressed
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setCompressionThreshold(Bytes threshold);
+
+	/**
+	 * @return the maximum ratio of compressed to uncompressed size
+	 *          for which the compressed page is stored
+	 */
+	double getMaxCompressionRatio();
+
+	/**
+	 * Sets the maximum ratio of compressed to uncompressed size
+	 * for which the compressed page is stored. Pages which do not
+	 * compress better are stored uncompressed.
+	 *
+	 * @param ratio the maximum ratio of compressed to uncompressed size, (0, 1]
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setMaxCompressionRatio(double ratio);
+
+	/**
+	 * @return {@code true} if the compression should be skipped while
+	 *          the recent pages did not compress better than
+	 *          {@link #getMaxCompressionRatio()}
+	 */
+	boolean isAdaptiveCompression();
+
+	/**
+	 * Sets whether the compression should be skipped while the recent pages
+	 * did not compress better than {@link #getMaxCompressionRatio()}
+	 *
+	 * @param adaptive {@code true} to skip the compression of badly compressing pages
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setAdaptiveCompression(boolean adaptive);
+
+	/**
+	 * @return the maximum size of a single Memcached entry. Bigger pages
+	 *          are split into several entries
+	 */
+	Bytes getChunkSize();
+
+	/**
+	 * Sets the maximum size of a single Memcached entry. Bigger pages
+	 * are split into several entries. Must leave some room for the key
+	 * and the item header below the item size limit of the server
+	 * (<em>-I</em>, 1 MB by default)
+	 *
+	 * @param chunkSize the maximum size of a single Memcached entry
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setChunkSize(Bytes chunkSize);
+
+	/**
+	 * @return {@code true} if the index of the pages of a session is stored
+	 *          in Memcached so that any node in the cluster can read and
+	 *          remove the pages of the session
+	 */
+	boolean isSharedPageIndex();
+
+	/**
+	 * Sets whether the index of the pages of a session is stored in Memcached.
+	 * Enable it when the requests of a session may be served by another node
+	 * after a failover. The index in the memory of the node is used then
+	 * only as a cache.
+	 *
+	 * @param shared {@code true} to store the index in Memcached
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setSharedPageIndex(boolean shared);
+
+	/**
+	 * @return how the pages of an invalidated session are removed
+	 */
+	SessionInvalidation getSessionInvalidation();
+
+	/**
+	 * Sets how the pages of an invalidated session are removed.
+	 * {@link SessionInvalidation#GENERATION} replaces the deletes of all pages
+	 * with a single increment, at the price of keeping the stale pages
+	 * in Memcached until they expire.
+	 *
+	 * @param invalidation how the pages of an invalidated session are removed
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setSessionInvalidation(SessionInvalidation invalidation);
+
+	/**
+	 * @return {@code true} if the pages are queued and written in the background
+	 */
+	boolean isWriteBehind();
+
+	/**
+	 * Sets whether the pages are queued and written in the background.
+	 * A page stored again while queued is written only once, with the latest data.
+	 * storeData does not wait for the {@link #getWriteQuorum() write quorum} then.
+	 *
+	 * @param writeBehind {@code true} to write the pages in the background
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setWriteBehind(boolean writeBehind);
+
+	/**
+	 * @return the maximum number of pages written at the same time in write-behind mode
+	 */
+	int getMaxWritesInFlight();
+
+	/**
+	 * Sets the maximum number of pages written at the same time in write-behind mode
+	 *
+	 * @param maxWritesInFlight the maximum number of pages written at the same time
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setMaxWritesInFlight(int maxWritesInFlight);
+
+	/**
+	 * @return the maximum size of the queued and the written pages in write-behind mode
+	 */
+	Bytes getWriteBehindCapacity();
+
+	/**
+	 * Sets the maximum size of the queued and the written pages in write-behind mode.
+	 * Storing a page blocks while the queue is full.
+	 *
+	 * @param capacity the maximum size of the queued and the written pages
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setWriteBehindCapacity(Bytes capacity);
+
+	/**
+	 * @return the number of pages stored before the requested one which are
+	 *          read ahead with it, 0 to disable the prefetching
+	 */
+	int getPrefetchCount();
+
+	/**
+	 * Sets the number of pages stored before the requested one which are
+	 * read ahead with it in a single multi-get. Helps when the user navigates
+	 * back through the pages of the session.
+	 *
+	 * @param count the number of pages to read ahead, 0 to disable the prefetching
+	 * @return this instance, for chaining
+	 * @see MemcachedDataStore#getPrefetchStatistics()
+	 */
+	IMemcachedSettings setPrefetchCount(int count);
+
+	/**
+	 * @return how long the pages read ahead are kept in memory
+	 */
+	Duration getPrefetchTimeToLive();
+
+	/**
+	 * Sets how long the pages read ahead are kept in memory
+	 *
+	 * @param timeToLive how long the pages read ahead are kept in memory
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setPrefetchTimeToLive(Duration timeToLive);
+
+	/**
+	 * @return how long to wait for a page to be read
+	 */
+	Duration getReadTimeout();
+
+	/**
+	 * Sets how long to wait for a page to be read. A page which is not read
+	 * in time is treated as missing instead of failing the request.
+	 * Should be shorter than {@link #getOperationTimeout()}.
+	 *
+	 * @param timeout how long to wait for a page to be read
+	 * @return this instance, for chaining
+	 * @see MemcachedDataStore#getReadTimeouts()
+	 */
+	IMemcachedSettings setReadTimeout(Duration timeout);
+
+	/**
+	 * @return {@code true} if the operations are stopped while too many of them fail
+	 */
+	boolean isCircuitBreaker();
+
+	/**
+	 * Sets whether the operations are stopped while too many of them fail.
+	 * While the circuit breaker is open the pages are stored in and read from
+	 * the {@link #getFallbackDataStore() fallback data store}.
+	 *
+	 * @param circuitBreaker {@code true} to enable the circuit breaker
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setCircuitBreaker(boolean circuitBreaker);
+
+	/**
+	 * @return the number of the last operations considered by the circuit breaker
+	 */
+	int getCircuitBreakerWindow();
+
+	/**
+	 * Sets the number of the last operations considered by the circuit breaker
+	 *
+	 * @param window the number of the last operations
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setCircuitBreakerWindow(int window);
+
+	/**
+	 * @return the share of the failed or timed out operations which opens the circuit breaker
+	 */
+	double getCircuitBreakerFailureRate();
+
+	/**
+	 * Sets the share of the failed or timed out operations which opens the circuit breaker
+	 *
+	 * @param failureRate the share of the failed operations, (0, 1]
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setCircuitBreakerFailureRate(double failureRate);
+
+	/**
+	 * @return how long the circuit breaker stays open before Memcached is probed again
+	 */
+	Duration getCircuitBreakerOpenTime();
+
+	/**
+	 * Sets how long the circuit breaker stays open before Memcached is probed again
+	 *
+	 * @param openTime how long the circuit breaker stays open
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setCircuitBreakerOpenTime(Duration openTime);
+
+	/**
+	 * @return the data store used while the circuit breaker is open, may be {@code null}
+	 */
+	IDataStore getFallbackDataStore();
+
+	/**
+	 * Sets the data store used while the circuit breaker is open,
+	 * e.g. {@link org.apache.wicket.pageStore.DiskDataStore}. Without a fallback
+	 * the pages are not stored while the circuit breaker is open.
+	 *
+	 * @param fallback the data store used while the circuit breaker is open
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setFallbackDataStore(IDataStore fallback);
+
+	/**
+	 * @return {@code true} if the metrics of the data store are registered as an MBean
+	 */
+	boolean isJmxEnabled();
+
+	/**
+	 * Sets whether the metrics of the data store are registered as an MBean
+	 * in the platform MBean server
+	 *
+	 * @param jmxEnabled {@code true} to register the metrics as an MBean
+	 * @return this instance, for chaining
+	 * @see MemcachedDataStore#getMetrics()
+	 */
+	IMemcachedSettings setJmxEnabled(boolean jmxEnabled);
+
+	/**
+	 * @return the format of the keys of the pages
+	 */
+	KeyFormat getKeyFormat();
+
+	/**
+	 * Sets the format of the keys of the pages. All nodes of a cluster
+	 * must use the same format, and the pages stored with the previous one
+	 * are not found after a change.
+	 *
+	 * @param keyFormat the format of the keys of the pages
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setKeyFormat(KeyFormat keyFormat);
+
+	/**
+	 * @return the prefix of the keys in the {@link KeyFormat#COMPACT} format
+	 */
+	String getKeyNamespace();
+
+	/**
+	 * Sets the prefix of the keys in the {@link KeyFormat#COMPACT} format,
+	 * e.g. to tell apart the applications sharing a Memcached cluster.
+	 * Keep it short, it is repeated in every key.
+	 *
+	 * @param namespace the prefix of the keys, without whitespace
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setKeyNamespace(String namespace);
+
+	/**
+	 * @return the maximum number of pages stored per session
+	 */
+	int getMaxPagesPerSession();
+
+	/**
+	 * Sets the maximum number of pages stored per session. When a session
+	 * exceeds it, its least recently stored pages are removed from Memcached.
+	 * Default: unlimited.
+	 *
+	 * @param maxPages the maximum number of pages stored per session
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setMaxPagesPerSession(int maxPages);
+
+	/**
+	 * @return the maximum size of the pages stored per session
+	 */
+	Bytes getMaxSizePerSession();
+
+	/**
+	 * Sets the maximum size of the (compressed) pages stored per session,
+	 * like {@link org.apache.wicket.settings.IStoreSettings#setMaxSizePerSession(Bytes)}
+	 * for the disk store. When a session exceeds it, its least recently stored
+	 * pages are removed from Memcached. The most recently stored page is kept
+	 * even if it is bigger. Default: unlimited.
+	 *
+	 * @param maxSize the maximum size of the pages stored per session
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setMaxSizePerSession(Bytes maxSize);
+
+	/**
+	 * @return {@code true} if the expiration of the pages is extended while their session is active
+	 */
+	boolean isSlidingExpiration();
+
+	/**
+	 * Sets whether the expiration of all pages of a session is extended when
+	 * the session reads or stores a page. The pages of active sessions stay in
+	 * Memcached and the pages of idle sessions expire {@link #getExpirationTime()}
+	 * after their last use, so the expiration time can be much shorter.
+	 * Default: false.
+	 *
+	 * @param slidingExpiration {@code true} to extend the expiration of the pages of active sessions
+	 * @return this instance, for chaining
+	 * @see #setTouchInterval(Duration)
+	 */
+	IMemcachedSettings setSlidingExpiration(boolean slidingExpiration);
+
+	/**
+	 * @return the minimum time between two extensions of the expiration of the pages of a session
+	 */
+	Duration getTouchInterval();
+
+	/**
+	 * Sets the minimum time between two extensions of the expiration of the pages
+	 * of a session with sliding expiration. A session idle for longer than the
+	 * expiration time minus this interval may lose its pages, so keep it well
+	 * below the expiration time.
+	 * Default: 1 minute.
+	 *
+	 * @param interval the minimum time between two extensions of the expiration
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setTouchInterval(Duration interval);
+
+	/**
+	 * @return how often the expired pages are dropped from the index of the pages per session
+	 */
+	Duration getReaperInterval();
+
+	/**
+	 * Sets how often the expired pages and the sessions without pages are
+	 * dropped from the index of the pages per session kept in the heap.
+	 * Otherwise the sessions which are never removed by Wicket, e.g. because
+	 * the node restarted, would stay in the index.
+	 * Default: 10 seconds. {@link Duration#NONE} disables the reaper.
+	 *
+	 * @param interval how often the expired pages are dropped
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setReaperInterval(Duration interval);
+
+	/**
+	 * @return the number of MemcachedClients the sessions are striped over
+	 */
+	int getClientCount();
+
+	/**
+	 * Sets the number of MemcachedClients the sessions are striped over.
+	 * Every client has its own I/O thread and its own connection to each server,
+	 * so more clients help when a single I/O thread cannot keep up with the
+	 * traffic, e.g. with big pages on many cores. The operations of a session
+	 * always go through the same client so they stay in order.
+	 * Default: 1.
+	 *
+	 * @param clientCount the number of MemcachedClients
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setClientCount(int clientCount);
+
+	/**
+	 * @return the Memcached servers the pages are replicated to.
+	 *          If there are no servers then the pages are not replicated
+	 */
+	List<MemcachedServer> getSecondaryServers();
+
+	/**
+	 * Sets the Memcached servers the pages are replicated to. Every page is
+	 * written to both the primary and the secondary servers, and read from
+	 * the secondary servers when it is missing in the primary ones, e.g.
+	 * because a primary server restarted.
+	 *
+	 * @param servers the Memcached servers the pages are replicated to
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setSecondaryServers(List<MemcachedServer> servers);
+
+	/**
+	 * Adds a Memcached server to the secondary pool
+	 *
+	 * @param server the Memcached server to add
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings addSecondaryServer(MemcachedServer server);
+
+	/**
+	 * @return the number of server groups which must confirm a write
+	 *          before {@link MemcachedDataStore#storeData(String, int, byte[])} returns
+	 */
+	int getWriteQuorum();
+
+	/**
+	 * Sets the number of server groups, the primary and the secondary one,
+	 * which must confirm a write before {@link MemcachedDataStore#storeData(String, int, byte[])}
+	 * returns. It waits at most {@link #getOperationTimeout()}.
+	 * A write which is not confirmed by the primary servers in time fails: it is reported
+	 * to the circuit breaker and the page is stored in the fallback data store, or without
+	 * a circuit breaker storeData throws. If only the secondary servers did not confirm it,
+	 * storeData throws and the page is still read from the primary servers. 0 does not wait at all. The quorum does not apply to the writes
+	 * in the background with {@link #isWriteBehind()}, they never wait.
+	 * Default: 0.
+	 *
+	 * @param writeQuorum the number of server groups which must confirm a write, 0 to 2
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setWriteQuorum(int writeQuorum);
+
+	/**
+	 * @return {@code true} if the reads are hedged with the secondary servers
+	 */
+	boolean isHedgedReads();
+
+	/**
+	 * Sets whether the reads which the primary servers do not answer within
+	 * the 95th percentile of their latency are sent to the secondary servers
+	 * as well. The first answer with the page wins. This cuts the latency
+	 * of the reads delayed by a GC pause or a slow server.
+	 * Requires {@link #getSecondaryServers()}. Not used for the reads
+	 * with {@link #getPrefetchCount()}.
+	 * Default: false.
+	 *
+	 * @param hedgedReads {@code true} to hedge the reads
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setHedgedReads(boolean hedgedReads);
+
+	/**
+	 * @return the maximum ratio of the reads which are hedged
+	 */
+	double getMaxHedgeRate();
+
+	/**
+	 * Sets the maximum ratio of the reads which are hedged, so that the
+	 * hedges do not overload the secondary servers while the primary ones are down.
+	 * Default: 0.1.
+	 *
+	 * @param maxHedgeRate the maximum ratio of the reads which are hedged, 0 to 1
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setMaxHedgeRate(double maxHedgeRate);
+
+	/**
+	 * @return {@code true} if the pages are stored as deltas to a keyframe
+	 */
+	boolean isDeltaEncoding();
+
+	/**
+	 * Sets whether the pages are stored as the differences to a keyframe,
+	 * an earlier page of the same session stored in full. The successive
+	 * versions of a page differ little, so their deltas are much smaller.
+	 * A page is read with its keyframe, which the node storing the pages
+	 * keeps in the heap, one per session. The keyframes count in the quota
+	 * of the session and expire after twice {@link #getExpirationTime()}.
+	 * Default: false.
+	 *
+	 * @param deltaEncoding {@code true} to store the pages as deltas
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setDeltaEncoding(boolean deltaEncoding);
+
+	/**
+	 * @return the maximum number of pages stored as deltas to the same keyframe
+	 */
+	int getKeyframeInterval();
+
+	/**
+	 * Sets the maximum number of pages stored as deltas to the same keyframe.
+	 * A new keyframe is stored earlier when the keyframe is older than
+	 * {@link #getExpirationTime()}. A page whose delta is bigger than half
+	 * of the page is stored in full.
+	 * Default: 10.
+	 *
+	 * @param keyframeInterval the maximum number of pages stored as deltas to the same keyframe
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setKeyframeInterval(int keyframeInterval);
+
+	/**
+	 * @return {@code true} if the pages are compressed with a trained dictionary
+	 */
+	boolean isDictionaryCompression();
+
+	/**
+	 * Sets whether the pages are compressed with Deflate and a preset dictionary
+	 * trained from a sample of the stored pages. The dictionary holds the class
+	 * descriptors and strings all pages repeat, so each page compresses much
+	 * better than on its own. The dictionaries are stored in Memcached and
+	 * read by the other nodes, so all nodes must enable it. Takes precedence over
+	 * {@link #getPageCompressor()}, whose id must not be 2 then.
+	 * Default: false.
+	 *
+	 * @param dictionaryCompression {@code true} to compress the pages with a trained dictionary
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setDictionaryCompression(boolean dictionaryCompression);
+
+	/**
+	 * @return the number of compressed pages after which a new dictionary is trained
+	 */
+	int getDictionaryRetrainInterval();
+
+	/**
+	 * Sets the number of compressed pages after which a new dictionary is trained,
+	 * so the dictionary follows the pages after a redeployment.
+	 * The pages compressed with the older dictionaries stay readable.
+	 * Default: 10000.
+	 *
+	 * @param retrainInterval the number of compressed pages after which a new dictionary is trained
+	 * @return this instance, for chaining
+	 */
+	IMemcachedSettings setDictionaryRetrainInterval(int retrainInterval);
 }
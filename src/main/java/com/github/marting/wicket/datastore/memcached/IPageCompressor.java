@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * Compresses the serialized pages before they are sent to Memcached.
+ *
+ * Implementations must be thread safe.
+ */
+public interface IPageCompressor
+{
+	/**
+	 * The id is stored in the header of each compressed page so that
+	 * the right compressor is used to decompress it.
+	 *
+	 * @return a unique id between 1 and 14. 1 is used by the built-in compressor,
+	 *          2 by the dictionary compression if it is enabled.
+	 */
+	int getId();
+
+	/**
+	 * Compresses the serialized page
+	 *
+	 * @param data the serialized page
+	 * @return the compressed page
+	 */
+	byte[] compress(byte[] data);
+
+	/**
+	 * Decompresses a page compressed by {@link #compress(byte[])}
+	 *
+	 * @param data   the array with the compressed page
+	 * @param offset the start of the compressed page in the array
+	 * @param length the length of the compressed page
+	 * @return the serialized page, {@code null} if it cannot be decompressed anymore,
+	 *          e.g. because data it depends on has been evicted from Memcached
+	 */
+	byte[] decompress(byte[] data, int offset, int length);
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * How MemcachedDataStore builds the keys of the pages in Memcached.
+ */
+public enum KeyFormat
+{
+	/**
+	 * The session id, the page id and the "Wicket-Memcached" suffix,
+	 * separated with "|||". Easy to read in the Memcached tools,
+	 * but about 60 bytes per key with a 32 character session id.
+	 */
+	READABLE,
+
+	/**
+	 * The namespace, a 16 character hash of the session id and the page id
+	 * in base 36. About 20 bytes per key, which saves memory in Memcached
+	 * and bytes on the wire for every operation.
+	 *
+	 * @see IMemcachedSettings#setKeyNamespace(String)
+	 */
+	COMPACT
+}
@@ -17,20 +17,39 @@
 package com.github.marting.wicket.datastore.memcached;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
 import net.spy.memcached.ConnectionObserver;
+import net.spy.memcached.DefaultHashAlgorithm;
 import net.spy.memcached.MemcachedClient;
 
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationCompletionListener;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.ops.OperationStatus;
 import org.apache.wicket.pageStore.IDataStore;
 import org.apache.wicket.util.lang.Args;
 import org.apache.wicket.util.lang.Checks;
@@ -46,21 +65,49 @@ public class MemcachedDataStore implements IDataStore
 	private static final Logger LOG = LoggerFactory.getLogger(MemcachedDataStore.class);
 
 	/**
-	 * A prefix for the keysPerSession to avoid duplication of keysPerSession
-	 * and to make it easier to find out who put the data
-	 * at the server
+	 * The shared page index is compacted after this many appends by a node,
+	 * or after twice the number of the pages of the session if more
 	 */
-	private static final String KEY_SUFFIX = "Wicket-Memcached";
+	private static final int MIN_APPENDS_BEFORE_COMPACTION = 16;
 
 	/**
-	 * A separator used for the key construction
+	 * Memcached treats bigger expiration times as absolute Unix time
 	 */
-	private static final String SEPARATOR = "|||";
+	private static final int MAX_RELATIVE_EXPIRATION = 30 * 24 * 60 * 60;
 
 	/**
-	 * The connection to the Memcached server
+	 * The key read to probe whether Memcached is available again
 	 */
-	private final MemcachedClient client;
+	private static final String PROBE_KEY = "Wicket-Memcached|||probe";
+
+	/**
+	 * Returned by the reads which timed out or failed, to tell them
+	 * apart from the pages which are not in Memcached anymore
+	 */
+	private static final byte[] NOT_READ = new byte[0];
+
+	/**
+	 * The domain of the metrics MBeans
+	 */
+	private static final String MBEAN_DOMAIN = "com.github.marting.wicket.datastore.memcached";
+
+	/**
+	 * Makes the names of the metrics MBeans unique
+	 */
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+	/**
+	 * The connections to the Memcached servers. The sessions are striped
+	 * over them by their id, so the operations of a session stay in order.
+	 */
+	private final MemcachedClient[] clients;
+
+	/**
+	 * The connections to the Memcached servers the pages are replicated to,
+	 * striped like {@link #clients}.
+	 * {@code null} if there are no {@link IMemcachedSettings#getSecondaryServers()}.
+	 */
+	private final MemcachedClient[] secondaryClients;
 
 	/**
 	 * The configuration for the client
@@ -68,22 +115,90 @@ public class MemcachedDataStore implements IDataStore
 	private final IMemcachedSettings settings;
 
 	/**
-	 * Tracks the keys for all operations per session.
+	 * Adds the header to the stored pages and (de)compresses them
+	 */
+	private final PageEncoder encoder;
+
+	/**
+	 * Compresses the pages with the trained dictionaries, {@code null} if disabled
+	 */
+	private final DictionaryPageCompressor dictionaryCompressor;
+
+	/**
+	 * Builds the keys in Memcached
+	 */
+	private final PageKeys keys;
+
+	/**
+	 * Tracks the ids of the stored pages per session.
 	 * Used to delete all entries for this session.
 	 */
-	private final ConcurrentMap<String, SortedSet<String>> keysPerSession =
-			new ConcurrentHashMap<String, SortedSet<String>>();
-	
+	private final ConcurrentMap<String, PageIdIndex> keysPerSession =
+			new ConcurrentHashMap<String, PageIdIndex>();
+
+	/**
+	 * The index of the pages per session in Memcached, shared by all nodes,
+	 * per client. {@code null} if {@link IMemcachedSettings#isSharedPageIndex()} is disabled.
+	 */
+	private final SharedPageIndex[] sharedIndexes;
+
+	/**
+	 * The pages waiting to be written to Memcached.
+	 * {@code null} if {@link IMemcachedSettings#isWriteBehind()} is disabled.
+	 */
+	private final WriteBehindQueue writeBehindQueue;
+
+	/**
+	 * Holds the pages read ahead.
+	 * {@code null} if {@link IMemcachedSettings#getPrefetchCount()} is 0.
+	 */
+	private final PagePrefetcher prefetcher;
+
+	/**
+	 * Drops the expired pages and sessions from {@link #keysPerSession}.
+	 * {@code null} if {@link IMemcachedSettings#getReaperInterval()} is {@link Duration#NONE}.
+	 */
+	private final SessionReaper reaper;
+
+	/**
+	 * Decides when the reads are hedged with the secondary servers.
+	 * {@code null} if {@link IMemcachedSettings#isHedgedReads()} is disabled
+	 * or there are no secondary servers.
+	 */
+	private final HedgePolicy hedgePolicy;
+
+	/**
+	 * The counters and histograms of the operations
+	 */
+	private final DataStoreMetrics metrics = new DataStoreMetrics(keysPerSession);
+
+	/**
+	 * The name of the registered MBean, {@code null} if not registered
+	 */
+	private final ObjectName mbeanName;
+
+	/**
+	 * Stops the operations while Memcached is unhealthy.
+	 * {@code null} if {@link IMemcachedSettings#isCircuitBreaker()} is disabled.
+	 */
+	private final CircuitBreaker breaker;
+
+	/**
+	 * Used while the circuit breaker is open, may be {@code null}
+	 */
+	private final IDataStore fallback;
+
 	/**
 	 * Constructor.
 	 *
-	 * Creates a MemcachedClient from the provided settings
+	 * Creates {@link IMemcachedSettings#getClientCount()} MemcachedClients
+	 * from the provided settings
 	 *
 	 * @param settings The configuration for the client
 	 */
 	public MemcachedDataStore(IMemcachedSettings settings)
 	{
-		this(createClient(settings), settings);
+		this(createClients(settings), createSecondaryClients(settings), settings);
 	}
 
 	/**
@@ -94,46 +209,285 @@ public class MemcachedDataStore implements IDataStore
 	 */
 	public MemcachedDataStore(MemcachedClient client, IMemcachedSettings settings)
 	{
-		this.client = Args.notNull(client, "client");
+		this(Collections.singletonList(Args.notNull(client, "client")), settings);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param clients  The connections to Memcached. The sessions are striped over them.
+	 * @param settings The configuration for the client
+	 */
+	public MemcachedDataStore(List<MemcachedClient> clients, IMemcachedSettings settings)
+	{
+		this(clients, Collections.<MemcachedClient>emptyList(), settings);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param clients          The connections to Memcached. The sessions are striped over them.
+	 * @param secondaryClients The connections to the Memcached servers the pages are replicated to.
+	 *                         Either empty or as many as the clients.
+	 * @param settings         The configuration for the client
+	 */
+	public MemcachedDataStore(List<MemcachedClient> clients, List<MemcachedClient> secondaryClients,
+			IMemcachedSettings settings)
+	{
+		Args.notEmpty(clients, "clients");
+		Args.notNull(secondaryClients, "secondaryClients");
+		Args.isTrue(secondaryClients.isEmpty() || secondaryClients.size() == clients.size(),
+				"There must be as many secondary clients as clients: %s != %s",
+				secondaryClients.size(), clients.size());
+		this.clients = clients.toArray(new MemcachedClient[clients.size()]);
+		this.secondaryClients = secondaryClients.isEmpty()
+				? null
+				: secondaryClients.toArray(new MemcachedClient[secondaryClients.size()]);
 		this.settings = Args.notNull(settings, "settings");
+		this.keys = new PageKeys(settings.getKeyFormat(), settings.getKeyNamespace());
+		this.dictionaryCompressor = settings.isDictionaryCompression()
+				? new DictionaryPageCompressor(this.clients[0],
+						this.secondaryClients != null ? this.secondaryClients[0] : null, keys,
+						settings.getDictionaryRetrainInterval(), getOutlivingExpiration(),
+						settings.getReadTimeout().getMilliseconds(), metrics)
+				: null;
+		this.encoder = new PageEncoder(settings, dictionaryCompressor);
+		this.sharedIndexes = settings.isSharedPageIndex() ? createSharedIndexes(this.clients) : null;
+		this.writeBehindQueue = settings.isWriteBehind() ? createWriteBehindQueue(settings) : null;
+		this.prefetcher = settings.getPrefetchCount() > 0
+				? new PagePrefetcher(settings.getPrefetchCount(), settings.getPrefetchTimeToLive().getMilliseconds())
+				: null;
+		this.breaker = settings.isCircuitBreaker()
+				? new CircuitBreaker(settings.getCircuitBreakerWindow(), settings.getCircuitBreakerFailureRate(),
+						settings.getCircuitBreakerOpenTime().getMilliseconds())
+				: null;
+		this.fallback = settings.getFallbackDataStore();
+		this.mbeanName = settings.isJmxEnabled() ? registerMBean() : null;
+		this.reaper = createReaper(settings);
+		// until the latency of the primary servers is known the reads are not hedged
+		this.hedgePolicy = settings.isHedgedReads() && this.secondaryClients != null
+				? new HedgePolicy(settings.getMaxHedgeRate(), settings.getReadTimeout().getMilliseconds() * 1000L)
+				: null;
 
-		client.addObserver(new ConnectionObserver()
+		ConnectionObserver observer = new ConnectionObserver()
 		{
 			@Override
 			public void connectionEstablished(SocketAddress sa, int reconnectCount)
 			{
 				LOG.info("Established connection to: {}, reconnect count: {}", sa, reconnectCount);
+				if (reconnectCount > 0)
+				{
+					metrics.recordReconnect();
+				}
 			}
 
 			@Override
 			public void connectionLost(SocketAddress sa)
 			{
 				LOG.warn("Lost connection to: {}", sa);
+				metrics.recordLostConnection();
+				if (breaker != null)
+				{
+					breaker.recordFailure();
+				}
 			}
-		});
+		};
+		for (MemcachedClient client : this.clients)
+		{
+			client.addObserver(observer);
+		}
+
+		if (this.secondaryClients != null)
+		{
+			// the circuit breaker guards the primary servers only
+			ConnectionObserver secondaryObserver = new ConnectionObserver()
+			{
+				@Override
+				public void connectionEstablished(SocketAddress sa, int reconnectCount)
+				{
+					LOG.info("Established connection to the secondary server: {}, reconnect count: {}",
+							sa, reconnectCount);
+				}
+
+				@Override
+				public void connectionLost(SocketAddress sa)
+				{
+					LOG.warn("Lost connection to the secondary server: {}", sa);
+				}
+			};
+			for (MemcachedClient client : this.secondaryClients)
+			{
+				client.addObserver(secondaryObserver);
+			}
+		}
+	}
+
+	private static SharedPageIndex[] createSharedIndexes(MemcachedClient[] clients)
+	{
+		SharedPageIndex[] sharedIndexes = new SharedPageIndex[clients.length];
+		for (int i = 0; i < clients.length; i++)
+		{
+			sharedIndexes[i] = new SharedPageIndex(clients[i]);
+		}
+		return sharedIndexes;
+	}
+
+	/**
+	 * Registers the metrics of this data store as an MBean
+	 *
+	 * @return the name of the MBean or {@code null} if it could not be registered
+	 */
+	private ObjectName registerMBean()
+	{
+		try
+		{
+			ObjectName name = new ObjectName(MBEAN_DOMAIN, "id", String.valueOf(INSTANCES.incrementAndGet()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			return name;
+		}
+		catch (JMException jmx)
+		{
+			LOG.warn("Could not register the metrics MBean", jmx);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates and starts the reaper of the expired pages and sessions
+	 *
+	 * @param settings The configuration for the client
+	 * @return the reaper or {@code null} if disabled
+	 */
+	private SessionReaper createReaper(IMemcachedSettings settings)
+	{
+		long interval = settings.getReaperInterval().getMilliseconds();
+		if (interval <= 0)
+		{
+			return null;
+		}
+		SessionReaper sessionReaper = new SessionReaper(keysPerSession, interval, System.currentTimeMillis());
+		sessionReaper.start("wicket-memcached-reaper");
+		return sessionReaper;
+	}
+
+	/**
+	 * Creates the queue of the pages written in the background
+	 *
+	 * @param settings The configuration for the client
+	 * @return the write-behind queue
+	 */
+	private WriteBehindQueue createWriteBehindQueue(IMemcachedSettings settings)
+	{
+		WriteBehindQueue.IPageWriter writer = new WriteBehindQueue.IPageWriter()
+		{
+			@Override
+			public void write(String sessionId, int pageId, byte[] data, OperationCompletionListener listener)
+			{
+				writePage(sessionId, pageId, data, listener, null);
+			}
+
+			@Override
+			public void remove(String sessionId, int pageId)
+			{
+				removeWrittenData(sessionId, pageId);
+			}
+		};
+		return new WriteBehindQueue(writer, settings.getMaxWritesInFlight(),
+				settings.getWriteBehindCapacity().bytes());
+	}
 
+	/**
+	 * Creates {@link IMemcachedSettings#getClientCount()} MemcachedClients
+	 * for the servers in the provided settings
+	 *
+	 * @param settings  The configuration for the clients
+	 * @return the MemcachedClients
+	 */
+	static List<MemcachedClient> createClients(IMemcachedSettings settings)
+	{
+		Args.notNull(settings, "settings");
+
+		List<MemcachedClient> clients = new ArrayList<MemcachedClient>(settings.getClientCount());
+		for (int i = 0; i < settings.getClientCount(); i++)
+		{
+			clients.add(createClient(settings));
+		}
+		return clients;
+	}
+
+	/**
+	 * Creates {@link IMemcachedSettings#getClientCount()} MemcachedClients
+	 * for the secondary servers in the provided settings
+	 *
+	 * @param settings  The configuration for the clients
+	 * @return the MemcachedClients, empty if there are no secondary servers
+	 */
+	static List<MemcachedClient> createSecondaryClients(IMemcachedSettings settings)
+	{
+		Args.notNull(settings, "settings");
+
+		List<MemcachedServer> servers = settings.getSecondaryServers();
+		if (servers.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+		List<MemcachedClient> clients = new ArrayList<MemcachedClient>(settings.getClientCount());
+		for (int i = 0; i < settings.getClientCount(); i++)
+		{
+			clients.add(createClient(settings, servers));
+		}
+		return clients;
 	}
 
 	/**
-	 * Creates MemcachedClient with the provided hostname and port
-	 * in the settings
+	 * Creates MemcachedClient for the servers in the provided settings.
+	 * Falls back to the hostname and port in the settings when no servers
+	 * are configured.
 	 *
 	 * @param settings  The configuration for the client
 	 * @return A MemcachedClient
 	 */
-	private static MemcachedClient createClient(IMemcachedSettings settings)
+	static MemcachedClient createClient(IMemcachedSettings settings)
 	{
 		Args.notNull(settings, "settings");
 
-		String host = settings.getHost();
-		Checks.notEmptyShort(host, "host");
+		List<MemcachedServer> servers = settings.getServers();
+		if (servers.isEmpty())
+		{
+			String host = settings.getHost();
+			Checks.notEmptyShort(host, "host");
+
+			int port = settings.getPort();
+			Checks.withinRangeShort(1, 65535, port, "port");
+
+			servers = Collections.singletonList(new MemcachedServer(host, port));
+		}
+		return createClient(settings, servers);
+	}
+
+	/**
+	 * Creates MemcachedClient for the provided servers
+	 *
+	 * @param settings  The configuration for the client
+	 * @param servers   The Memcached servers
+	 * @return A MemcachedClient
+	 */
+	private static MemcachedClient createClient(IMemcachedSettings settings, List<MemcachedServer> servers)
+	{
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(servers.size());
+		Map<InetSocketAddress, Integer> weights = new HashMap<InetSocketAddress, Integer>();
+		for (MemcachedServer server : servers)
+		{
+			InetSocketAddress address = server.toSocketAddress();
+			addresses.add(address);
+			weights.put(address, server.getWeight());
+		}
 
-		int port = settings.getPort();
-		Checks.withinRangeShort(1, 65535, port, "port");
+		ConnectionFactory connectionFactory = createConnectionFactory(settings, weights);
 
 		try
 		{
-			MemcachedClient memcachedClient = new MemcachedClient(new InetSocketAddress(host, port));
+			MemcachedClient memcachedClient = new MemcachedClient(connectionFactory, addresses);
 			return memcachedClient;
 		}
 		catch (IOException iox)
@@ -142,102 +496,1603 @@ public class MemcachedDataStore implements IDataStore
 		}
 	}
 
+	/**
+	 * Creates the ConnectionFactory with the tuning options in the settings
+	 *
+	 * @param settings The configuration for the client
+	 * @param weights  The weight of each server
+	 * @return A ConnectionFactory
+	 */
+	private static ConnectionFactory createConnectionFactory(IMemcachedSettings settings,
+			Map<InetSocketAddress, Integer> weights)
+	{
+		OperationQueueFactory queueFactory = settings.getOperationQueueFactory();
+		if (queueFactory == null)
+		{
+			queueFactory = new ArrayOperationQueueFactory(settings.getOperationQueueCapacity());
+		}
+
+		ConnectionFactoryBuilder.Locator locator = settings.getLocator();
+		ConnectionFactoryBuilder builder = new ConnectionFactoryBuilder()
+				.setLocatorType(locator)
+				.setProtocol(settings.getProtocol())
+				.setUseNagleAlgorithm(!settings.isTcpNoDelay())
+				.setReadBufferSize(settings.getReadBufferSize())
+				.setOpQueueFactory(queueFactory)
+				.setOpQueueMaxBlockTime(settings.getMaxBlockTime().getMilliseconds())
+				.setOpTimeout(settings.getOperationTimeout().getMilliseconds())
+				.setFailureMode(settings.getFailureMode());
+
+		switch (locator)
+		{
+			case CONSISTENT:
+				builder.setHashAlg(DefaultHashAlgorithm.KETAMA_HASH);
+				return new WeightedKetamaConnectionFactory(builder.build(), weights);
+			case ARRAY_MOD:
+				return builder.build();
+			default:
+				throw new IllegalArgumentException("Unsupported locator: " + locator);
+		}
+	}
+
 	@Override
 	public byte[] getData(String sessionId, int pageId)
 	{
+		// all reads of the page, its generation, shared index and keyframe share it
+		long deadline = System.currentTimeMillis() + settings.getReadTimeout().getMilliseconds();
+		if (writeBehindQueue != null)
+		{
+			byte[] queued = writeBehindQueue.get(sessionId, pageId);
+			if (queued != null)
+			{
+				LOG.debug("Got queued data for session '{}' and page id '{}'", sessionId, pageId);
+				metrics.recordGet(true);
+				return queued;
+			}
+		}
+
+		if (!isMemcachedAvailable())
+		{
+			byte[] bytes = fallback != null ? fallback.getData(sessionId, pageId) : null;
+			LOG.debug("Got {} from the fallback for session '{}' and page id '{}'",
+					new Object[] {bytes != null ? "data" : "'null'", sessionId, pageId});
+			metrics.recordGet(bytes != null);
+			return bytes;
+		}
+
 		byte[] bytes = null;
-		String key = getKey(sessionId, pageId);
-		SortedSet<String> keys = keysPerSession.get(sessionId);
-		if (keys != null && keys.contains(key))
+		PageIdIndex index = keysPerSession.get(sessionId);
+		if (index != null && index.removeIfExpired(pageId, System.currentTimeMillis()))
+		{
+			LOG.debug("The data for session '{}' and page id '{}' has expired", sessionId, pageId);
+		}
+		// the copy in Memcached is stale if the page was stored while the circuit breaker was open
+		boolean inFallback = index != null && index.isInFallback(pageId);
+		if (!inFallback && (index == null || !index.contains(pageId)) && sharedIndexes != null)
+		{
+			// the page may have been stored by another node
+			index = loadSharedIndex(sessionId, deadline);
+		}
+		if (!inFallback && index != null && index.contains(pageId))
 		{
-			bytes = (byte[]) client.get(key);
+			boolean generationKnown = isGenerationKnown(sessionId, index, deadline);
+			if (!generationKnown)
+			{
+				// the key of the page is not known, the page may still be there
+				bytes = NOT_READ;
+			}
+			else if (prefetcher != null)
+			{
+				bytes = prefetcher.take(sessionId, pageId);
+				if (bytes == null)
+				{
+					bytes = readPayloadAndPrefetch(sessionId, index, pageId, deadline);
+				}
+			}
+			else if (hedgePolicy != null)
+			{
+				bytes = readPayloadHedged(sessionId, getPageKey(sessionId, index, pageId), deadline);
+			}
+			else
+			{
+				bytes = readPayload(getClient(sessionId), getPageKey(sessionId, index, pageId), deadline);
+			}
+			if ((bytes == null || bytes == NOT_READ) && secondaryClients != null && generationKnown)
+			{
+				bytes = readReplica(sessionId, index, pageId, bytes, deadline);
+			}
 
-			if (bytes == null)
+			if (bytes == NOT_READ)
+			{
+				// the page may still be there, keep it in the index
+				bytes = null;
+			}
+			else if (bytes == null)
 			{
 				// maybe the entry has expired
-				keys.remove(key);
+				index.remove(pageId);
+			}
+			else
+			{
+				bytes = decode(sessionId, index, bytes, deadline);
+				if (bytes != null)
+				{
+					touchSession(sessionId, index);
+				}
 			}
 		}
+		if (bytes == null && fallback != null)
+		{
+			// the page may have been stored while the circuit breaker was open
+			bytes = fallback.getData(sessionId, pageId);
+		}
 		LOG.debug("Got {} for session '{}' and page id '{}'",
 				new Object[] {bytes != null ? "data" : "'null'", sessionId, pageId});
+		metrics.recordGet(bytes != null);
 		return bytes;
 	}
 
 	@Override
-	public void removeData(final String sessionId, final int pageId)
+	public void removeData(String sessionId, int pageId)
 	{
-		final Set<String> keys = keysPerSession.get(sessionId);
-		final String key = getKey(sessionId, pageId);
-
-		if (keys != null && keys.contains(key))
+		if (writeBehindQueue != null)
 		{
-			OperationFuture<Boolean> delete = client.delete(key);
-			delete.addListener(new OperationCompletionListener()
-			{
-				@Override
-				public void onComplete(OperationFuture<?> future) throws Exception
-				{
-					keys.remove(key);
-					LOG.debug("Removed the data for session '{}' and page id '{}'", sessionId, pageId);
-				}
-			});
+			writeBehindQueue.remove(sessionId, pageId);
+		}
+		if (prefetcher != null)
+		{
+			prefetcher.invalidate(sessionId, pageId);
+		}
+		if (fallback != null)
+		{
+			fallback.removeData(sessionId, pageId);
 		}
+		removeWrittenData(sessionId, pageId);
 	}
 
-	@Override
-	public void removeData(String sessionId)
+	/**
+	 * Removes a page from Memcached and from the indexes of its session
+	 *
+	 * @param sessionId The id of the http session
+	 * @param pageId    The id of the page
+	 */
+	private void removeWrittenData(String sessionId, int pageId)
 	{
-		Set<String> keys = keysPerSession.get(sessionId);
-		if (keys != null)
+		if (!isMemcachedAvailable())
 		{
-			for (String key : keys)
-			{
-				client.delete(key);
-			}
-			keysPerSession.remove(sessionId);
-			LOG.debug("Removed the data for session '{}'", sessionId);
+			return;
 		}
-	}
 
-	@Override
-	public void storeData(final String sessionId, final int pageId, byte[] data)
-	{
-		final String key = getKey(sessionId, pageId);
-		SortedSet<String> keys = keysPerSession.get(sessionId);
-		if (keys == null)
+		long deadline = System.currentTimeMillis() + settings.getReadTimeout().getMilliseconds();
+		PageIdIndex index = keysPerSession.get(sessionId);
+		if ((index == null || !index.contains(pageId)) && sharedIndexes != null)
 		{
-			keys = new TreeSet<String>();
-			SortedSet<String> old = keysPerSession.putIfAbsent(sessionId, keys);
-			if (old != null)
+			index = loadSharedIndex(sessionId, deadline);
+		}
+		if (index != null)
+		{
+			String key = isGenerationKnown(sessionId, index, deadline) ? getPageKey(sessionId, index, pageId) : null;
+			int chunkCount = index.getChunkCount(pageId);
+			if (index.remove(pageId))
 			{
-				keys = old;
+				if (key != null)
+				{
+					deletePage(sessionId, pageId, key, chunkCount);
+				}
+				else
+				{
+					LOG.debug("The generation of session '{}' is not known, page id '{}' is left to expire",
+							sessionId, pageId);
+				}
+				if (sharedIndexes != null)
+				{
+					getSharedIndex(sessionId).remove(getIndexKey(sessionId), pageId);
+				}
 			}
 		}
-
-		Duration expirationTime = settings.getExpirationTime();
-
-		// TODO Improve to follow Memcached protocol.
-		// See net.spy.memcached.MemcachedClient.set(java.lang.String, int, java.lang.Object)()
-//		Time timeToExpire = Time.now().add(expirationTime);
-
-		client.set(key, (int) expirationTime.seconds(), data);
-		keys.add(key);
-		LOG.debug("Stored data for session '{}' and page id '{}'", sessionId, pageId);
 	}
 
-	@Override
-	public void destroy()
+	/**
+	 * Deletes a page from the primary and the secondary servers
+	 *
+	 * @param sessionId  The id of the http session
+	 * @param pageId     The id of the page
+	 * @param key        The key of the page
+	 * @param chunkCount The number of chunks of the page
+	 */
+	private void deletePage(final String sessionId, final int pageId, String key, int chunkCount)
 	{
-		if (client != null)
+		MemcachedClient client = getClient(sessionId);
+		deleteChunks(client, key, 0, chunkCount);
+		if (secondaryClients != null)
 		{
-			Duration timeout = settings.getShutdownTimeout();
-			LOG.info("Shutting down gracefully for {}", timeout);
-			client.shutdown(timeout.getMilliseconds(), TimeUnit.MILLISECONDS);
+			MemcachedClient secondaryClient = getSecondaryClient(sessionId);
+			deleteChunks(secondaryClient, key, 0, chunkCount);
+			secondaryClient.delete(key).addListener(metrics.newDeleteListener());
 		}
+		OperationFuture<Boolean> delete = client.delete(key);
+		delete.addListener(metrics.newDeleteListener());
+		delete.addListener(new OperationCompletionListener()
+		{
+			@Override
+			public void onComplete(OperationFuture<?> future) throws Exception
+			{
+				LOG.debug("Removed the data for session '{}' and page id '{}'", sessionId, pageId);
+			}
+		});
 	}
 
 	@Override
-	public boolean isReplicated()
+	public void removeData(String sessionId)
+	{
+		removeData(Collections.singleton(sessionId), Duration.NONE);
+	}
+
+	/**
+	 * Removes the data of several sessions at once, e.g. when many sessions
+	 * expire together. The deletes are sent back to back, so MemcachedClient
+	 * pipelines the ones for the same server.
+	 *
+	 * @param sessionIds The ids of the http sessions
+	 * @param timeout    How long to wait for Memcached to confirm the removal,
+	 *                   {@link Duration#NONE} to not wait at all
+	 * @return the outcome of the operations confirmed within the timeout
+	 */
+	public RemovalResult removeData(Collection<String> sessionIds, Duration timeout)
+	{
+		Args.notNull(sessionIds, "sessionIds");
+		Args.notNull(timeout, "timeout");
+
+		for (String sessionId : sessionIds)
+		{
+			if (writeBehindQueue != null)
+			{
+				writeBehindQueue.remove(sessionId);
+			}
+			if (prefetcher != null)
+			{
+				prefetcher.invalidate(sessionId);
+			}
+			if (fallback != null)
+			{
+				fallback.removeData(sessionId);
+			}
+		}
+		if (!isMemcachedAvailable())
+		{
+			// the pages left in Memcached expire by themselves
+			for (String sessionId : sessionIds)
+			{
+				keysPerSession.remove(sessionId);
+			}
+			return new RemovalResult(0, 0, 0, 0);
+		}
+
+		BatchRemoval removal = new BatchRemoval(metrics);
+		if (settings.getSessionInvalidation() == SessionInvalidation.GENERATION)
+		{
+			for (String sessionId : sessionIds)
+			{
+				PageIdIndex index = keysPerSession.remove(sessionId);
+				if (index != null)
+				{
+					index.invalidate();
+				}
+				// the pages of the previous generation expire by themselves
+				MemcachedClient client = getClient(sessionId);
+				removal.track(client.asyncIncr(getGenerationKey(sessionId), 1));
+				if (sharedIndexes != null)
+				{
+					removal.delete(client, getIndexKey(sessionId));
+				}
+			}
+		}
+		else
+		{
+			if (sharedIndexes != null)
+			{
+				// the sessions may have pages stored by other nodes
+				loadSharedIndexes(sessionIds);
+			}
+			for (String sessionId : sessionIds)
+			{
+				PageIdIndex index = keysPerSession.remove(sessionId);
+				if (index != null)
+				{
+					MemcachedClient client = getClient(sessionId);
+					MemcachedClient secondaryClient = secondaryClients != null ? getSecondaryClient(sessionId) : null;
+					String keyPrefix = getKeyPrefix(sessionId, index);
+					for (int pageId : index.invalidate())
+					{
+						String key = keys.getPageKey(keyPrefix, pageId);
+						for (String chunkKey : PageChunks.getChunkKeys(key, index.getChunkCount(pageId)))
+						{
+							removal.delete(client, chunkKey);
+							if (secondaryClient != null)
+							{
+								removal.delete(secondaryClient, chunkKey);
+							}
+						}
+						removal.delete(client, key);
+						if (secondaryClient != null)
+						{
+							removal.delete(secondaryClient, key);
+						}
+					}
+					if (sharedIndexes != null)
+					{
+						removal.delete(client, getIndexKey(sessionId));
+					}
+					if (settings.isDeltaEncoding())
+					{
+						removal.delete(client, keys.getKeyframeCounterKey(getKeyPrefix(sessionId, index)));
+					}
+				}
+			}
+		}
+
+		RemovalResult result = removal.execute().await(timeout.getMilliseconds());
+		LOG.debug("Removed the data for sessions {}: {}", sessionIds, result);
+		return result;
+	}
+
+	@Override
+	public void storeData(String sessionId, int pageId, byte[] data)
+	{
+		if (prefetcher != null)
+		{
+			prefetcher.invalidate(sessionId, pageId);
+		}
+
+		if (!isMemcachedAvailable())
+		{
+			storeInFallback(sessionId, pageId, data);
+			return;
+		}
+		if (fallback != null)
+		{
+			// drop the version stored while the circuit breaker was open
+			fallback.removeData(sessionId, pageId);
+		}
+
+		if (writeBehindQueue != null)
+		{
+			writeBehindQueue.offer(sessionId, pageId, data);
+			LOG.debug("Queued data for session '{}' and page id '{}'", sessionId, pageId);
+		}
+		else
+		{
+			WriteQuorum quorum = createWriteQuorum();
+			try
+			{
+				writePage(sessionId, pageId, data, null, quorum);
+			}
+			catch (RuntimeException rx)
+			{
+				// e.g. the operation queue is full because the server does not respond
+				storeFailed(sessionId, pageId, data, rx);
+				return;
+			}
+			if (quorum != null && !quorum.await(settings.getOperationTimeout().getMilliseconds()))
+			{
+				metrics.recordQuorumFailure();
+				IllegalStateException ex = new IllegalStateException(String.format(
+						"The write was not confirmed by %d server groups in time", settings.getWriteQuorum()));
+				// the primary servers are the first group
+				if (quorum.isAcknowledged(0))
+				{
+					// only the secondary servers failed, the copy in the primary servers is current
+					throw ex;
+				}
+				storeFailed(sessionId, pageId, data, ex);
+			}
+		}
+	}
+
+	/**
+	 * Reports a failed write to the circuit breaker and stores the page
+	 * in the fallback data store instead
+	 *
+	 * @param sessionId The id of the http session
+	 * @param pageId    The id of the page
+	 * @param data      The page
+	 * @param rx        Why the write failed, rethrown if there is no circuit breaker
+	 */
+	private void storeFailed(String sessionId, int pageId, byte[] data, RuntimeException rx)
+	{
+		LOG.warn("Could not store the data for session '{}' and page id '{}'",
+				new Object[] {sessionId, pageId, rx});
+		if (breaker == null)
+		{
+			throw rx;
+		}
+		breaker.recordFailure();
+		storeInFallback(sessionId, pageId, data);
+	}
+
+	/**
+	 * @return the quorum of the server groups which must confirm a write,
+	 *          {@code null} if storeData should not wait for them
+	 */
+	private WriteQuorum createWriteQuorum()
+	{
+		int quorum = settings.getWriteQuorum();
+		if (quorum == 0)
+		{
+			return null;
+		}
+		int groups = secondaryClients != null ? 2 : 1;
+		return new WriteQuorum(Math.min(quorum, groups));
+	}
+
+	/**
+	 * Stores a page in the fallback data store, if there is one. The copy
+	 * of the page in Memcached is not read anymore, it is stale.
+	 *
+	 * @param sessionId The id of the http session
+	 * @param pageId    The id of the page
+	 * @param data      The page
+	 */
+	private void storeInFallback(String sessionId, int pageId, byte[] data)
+	{
+		getIndex(sessionId).moveToFallback(pageId);
+		if (fallback != null)
+		{
+			fallback.storeData(sessionId, pageId, data);
+			LOG.debug("Stored data in the fallback for session '{}' and page id '{}'", sessionId, pageId);
+		}
+	}
+
+	/**
+	 * Checks the circuit breaker. Once it has been open for long enough,
+	 * the current caller probes Memcached with a read.
+	 *
+	 * @return {@code true} if the operations may be sent to Memcached
+	 */
+	private boolean isMemcachedAvailable()
+	{
+		if (breaker == null || breaker.isClosed())
+		{
+			return true;
+		}
+		if (breaker.tryProbe())
+		{
+			// the read records its outcome in the circuit breaker,
+			// all clients connect to the same servers
+			read(clients[0], PROBE_KEY, System.currentTimeMillis() + settings.getReadTimeout().getMilliseconds());
+			return breaker.isClosed();
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if the circuit breaker is open and the operations
+	 *          go to the fallback data store
+	 */
+	public boolean isCircuitBreakerOpen()
+	{
+		return breaker != null && !breaker.isClosed();
+	}
+
+	/**
+	 * Writes a page and updates the indexes of its session
+	 *
+	 * @param sessionId The id of the http session
+	 * @param pageId    The id of the page
+	 * @param data      The page
+	 * @param listener  Notified when the page is written, may be {@code null}
+	 * @param quorum    Tracks the sets of the page in each server group, may be {@code null}
+	 */
+	private void writePage(String sessionId, int pageId, byte[] data, OperationCompletionListener listener,
+			WriteQuorum quorum)
+	{
+		PageIdIndex index = getIndex(sessionId);
+		final String key = getPageKey(sessionId, index, pageId);
+
+		Duration expirationTime = settings.getExpirationTime();
+
+		// TODO Improve to follow Memcached protocol.
+		// See net.spy.memcached.MemcachedClient.set(java.lang.String, int, java.lang.Object)()
+//		Time timeToExpire = Time.now().add(expirationTime);
+
+		int expiration = (int) expirationTime.seconds();
+		MemcachedClient client = getClient(sessionId);
+		int previousChunkCount = index.getChunkCount(pageId);
+		WriteQuorum.Group group = quorum != null ? quorum.newGroup() : null;
+		WriteQuorum.Group secondaryGroup = quorum != null && secondaryClients != null ? quorum.newGroup() : null;
+		byte[] delta = settings.isDeltaEncoding() ? encodeDelta(sessionId, index, data, group, secondaryGroup) : null;
+		byte[] payload = delta != null ? encoder.encodeDelta(delta) : encoder.encode(data);
+		int keyframeId = delta != null ? PageDelta.getKeyframeId(delta) : 0;
+		metrics.recordPayloadSize(payload.length);
+		int chunkCount = writePayload(client, key, expiration, payload, listener, group);
+		// delete the chunks of the previous version which are not overwritten
+		deleteChunks(client, key, chunkCount, previousChunkCount);
+		if (secondaryClients != null)
+		{
+			replicate(sessionId, key, expiration, payload, previousChunkCount, secondaryGroup);
+		}
+		if (group != null)
+		{
+			group.close();
+		}
+		if (secondaryGroup != null)
+		{
+			secondaryGroup.close();
+		}
+
+		while (!index.add(pageId, chunkCount, payload.length, getDeadline(expiration), keyframeId))
+		{
+			// the session has been removed meanwhile
+			keysPerSession.remove(sessionId, index);
+			index = getIndex(sessionId);
+		}
+
+		PageIdIndex evicted = index.evict(settings.getMaxPagesPerSession(), settings.getMaxSizePerSession().bytes());
+		if (evicted != null)
+		{
+			removePages(sessionId, index, evicted);
+		}
+		touchSession(sessionId, index);
+
+		if (settings.getSessionInvalidation() == SessionInvalidation.GENERATION
+				&& index.refreshGeneration(System.currentTimeMillis(), expirationTime.getMilliseconds()))
+		{
+			// the generation must outlive the pages stored with it
+			client.touch(getGenerationKey(sessionId), getOutlivingExpiration());
+		}
+
+		if (sharedIndexes != null)
+		{
+			String indexKey = getIndexKey(sessionId);
+			SharedPageIndex sharedIndex = getSharedIndex(sessionId);
+			sharedIndex.add(indexKey, pageId, chunkCount, expiration);
+			if (index.incrementSharedIndexAppends() > Math.max(MIN_APPENDS_BEFORE_COMPACTION, 2 * index.size())
+					&& index.startCompaction())
+			{
+				sharedIndex.compact(indexKey, expiration, index);
+			}
+		}
+		LOG.debug("Stored data for session '{}' and page id '{}'", sessionId, pageId);
+	}
+
+	/**
+	 * Encodes a page as the delta to the current keyframe of its session,
+	 * storing a new keyframe when needed
+	 *
+	 * @param sessionId      The id of the http session
+	 * @param index          The index of the pages of the session
+	 * @param page           The page
+	 * @param group          Tracks the sets in the primary servers, may be {@code null}
+	 * @param secondaryGroup Tracks the sets in the secondary servers, may be {@code null}
+	 * @return the delta of the page, {@code null} if the page should be stored whole
+	 */
+	private byte[] encodeDelta(String sessionId, PageIdIndex index, byte[] page, WriteQuorum.Group group,
+			WriteQuorum.Group secondaryGroup)
+	{
+		DeltaChain chain = index.getDeltaChain();
+		synchronized (chain)
+		{
+			long now = System.currentTimeMillis();
+			long maxAge = (getOutlivingExpiration() - (long) settings.getExpirationTime().seconds()) * 1000L;
+			byte[] delta;
+			int storedSize;
+			if (chain.needsKeyframe(now, settings.getKeyframeInterval(), maxAge))
+			{
+				int keyframeId = nextKeyframeId(sessionId, index);
+				if (keyframeId == 0)
+				{
+					// Memcached is not available, try again with the next page
+					metrics.recordDelta(page.length, page.length);
+					return null;
+				}
+				PageDelta.Keyframe keyframe = chain.newKeyframe(keyframeId, page, now);
+				writeKeyframe(sessionId, index, keyframeId, page, group, secondaryGroup);
+				delta = PageDelta.create(keyframeId, keyframe, page);
+				storedSize = page.length + delta.length;
+			}
+			else
+			{
+				delta = PageDelta.create(chain.getKeyframeId(), chain.getCurrentKeyframe(), page);
+				storedSize = delta.length;
+			}
+			chain.addPage();
+
+			if (delta.length > page.length / 2)
+			{
+				// e.g. a page of another class, the keyframe is used by the next pages
+				metrics.recordDelta(page.length, page.length);
+				return null;
+			}
+			metrics.recordDelta(page.length, storedSize);
+			return delta;
+		}
+	}
+
+	/**
+	 * Takes the id of a new keyframe from the counter of the session in Memcached,
+	 * creating the counter if missing
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @return the negative id of the keyframe, 0 if the counter could not be read in time
+	 */
+	private int nextKeyframeId(String sessionId, PageIdIndex index)
+	{
+		MemcachedClient client = getClient(sessionId);
+		String key = keys.getKeyframeCounterKey(getKeyPrefix(sessionId, index));
+		long deadline = System.currentTimeMillis() + settings.getReadTimeout().getMilliseconds();
+		Long value = await(client.asyncIncr(key, 1), key, deadline);
+		if (value != null && value < 0)
+		{
+			// there is no counter yet, unless another node creates it meanwhile
+			Boolean added = await(client.add(key, getOutlivingExpiration(), "1"), key, deadline);
+			value = Boolean.TRUE.equals(added) ? Long.valueOf(1L) : await(client.asyncIncr(key, 1), key, deadline);
+		}
+		if (value == null || value < 1)
+		{
+			return 0;
+		}
+		// the counter must outlive the keyframes
+		client.touch(key, getOutlivingExpiration());
+		return (int) -(1 + (value - 1) % Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Writes a keyframe under its own id, like a page
+	 *
+	 * @param sessionId      The id of the http session
+	 * @param index          The index of the pages of the session
+	 * @param keyframeId     The id of the keyframe
+	 * @param page           The page which becomes the keyframe
+	 * @param group          Tracks the sets in the primary servers, may be {@code null}
+	 * @param secondaryGroup Tracks the sets in the secondary servers, may be {@code null}
+	 */
+	private void writeKeyframe(String sessionId, PageIdIndex index, int keyframeId, byte[] page,
+			WriteQuorum.Group group, WriteQuorum.Group secondaryGroup)
+	{
+		String key = getPageKey(sessionId, index, keyframeId);
+		int expiration = getOutlivingExpiration();
+		byte[] payload = encoder.encode(page);
+		metrics.recordPayloadSize(payload.length);
+		int chunkCount = writePayload(getClient(sessionId), key, expiration, payload, null, group);
+		if (secondaryClients != null)
+		{
+			replicate(sessionId, key, expiration, payload, 0, secondaryGroup);
+		}
+		// false if the session has been removed meanwhile, then the keyframe expires by itself
+		index.add(keyframeId, chunkCount, payload.length, getDeadline(expiration));
+		metrics.recordKeyframe();
+		LOG.debug("Stored the keyframe {} of session '{}'", keyframeId, sessionId);
+	}
+
+	/**
+	 * Writes a page to the secondary servers as well. A failure there
+	 * does not fail the write, the page is still in the primary servers.
+	 *
+	 * @param sessionId          The id of the http session
+	 * @param key                The key of the page
+	 * @param expiration         The expiration of the entries in seconds
+	 * @param payload            The encoded page
+	 * @param previousChunkCount The number of chunks of the previous version of the page
+	 * @param group              Tracks the sets for the write quorum, may be {@code null}
+	 */
+	private void replicate(String sessionId, String key, int expiration, byte[] payload, int previousChunkCount,
+			WriteQuorum.Group group)
+	{
+		MemcachedClient secondaryClient = getSecondaryClient(sessionId);
+		try
+		{
+			int chunkCount = writePayload(secondaryClient, key, expiration, payload, null, group);
+			deleteChunks(secondaryClient, key, chunkCount, previousChunkCount);
+		}
+		catch (RuntimeException rx)
+		{
+			LOG.warn("Could not replicate the data with key '{}'", key, rx);
+			if (group != null)
+			{
+				group.fail();
+			}
+		}
+	}
+
+	/**
+	 * Removes the pages evicted from a session which exceeded its quota,
+	 * with pipelined deletes
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param evicted   The evicted pages
+	 */
+	private void removePages(String sessionId, PageIdIndex index, PageIdIndex evicted)
+	{
+		MemcachedClient client = getClient(sessionId);
+		MemcachedClient secondaryClient = secondaryClients != null ? getSecondaryClient(sessionId) : null;
+		BatchRemoval removal = new BatchRemoval(metrics);
+		String indexKey = sharedIndexes != null ? getIndexKey(sessionId) : null;
+		DeltaChain chain = index.peekDeltaChain();
+		for (int pageId : evicted.getPageIds())
+		{
+			if (pageId < 0 && chain != null)
+			{
+				// the next page starts a new keyframe
+				chain.invalidate(pageId);
+			}
+			String key = getPageKey(sessionId, index, pageId);
+			for (String chunkKey : PageChunks.getChunkKeys(key, evicted.getChunkCount(pageId)))
+			{
+				removal.delete(client, chunkKey);
+				if (secondaryClient != null)
+				{
+					removal.delete(secondaryClient, chunkKey);
+				}
+			}
+			removal.delete(client, key);
+			if (secondaryClient != null)
+			{
+				removal.delete(secondaryClient, key);
+			}
+			if (prefetcher != null)
+			{
+				prefetcher.invalidate(sessionId, pageId);
+			}
+			if (sharedIndexes != null)
+			{
+				getSharedIndex(sessionId).remove(indexKey, pageId);
+			}
+		}
+		removal.execute();
+		metrics.recordQuotaEvictions(evicted.size());
+		LOG.debug("Evicted {} pages of session '{}' which exceeded its quota", evicted.size(), sessionId);
+	}
+
+	/**
+	 * Extends the expiration of all pages of an active session when the sliding
+	 * expiration is enabled, at most once per touch interval. The touches are
+	 * not awaited so they are pipelined by MemcachedClient.
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 */
+	private void touchSession(String sessionId, PageIdIndex index)
+	{
+		if (!settings.isSlidingExpiration()
+				|| !index.touch(System.currentTimeMillis(), settings.getTouchInterval().getMilliseconds()))
+		{
+			return;
+		}
+
+		MemcachedClient client = getClient(sessionId);
+		MemcachedClient secondaryClient = secondaryClients != null ? getSecondaryClient(sessionId) : null;
+		int expiration = (int) settings.getExpirationTime().seconds();
+		int touches = 0;
+		for (int pageId : index.getPageIds())
+		{
+			String key = getPageKey(sessionId, index, pageId);
+			List<String> chunkKeys = PageChunks.getChunkKeys(key, index.getChunkCount(pageId));
+			// the keyframes outlive the pages encoded against them
+			int keyExpiration = pageId < 0 ? getOutlivingExpiration() : expiration;
+			client.touch(key, keyExpiration);
+			touches++;
+			for (String chunkKey : chunkKeys)
+			{
+				client.touch(chunkKey, keyExpiration);
+				touches++;
+			}
+			if (secondaryClient != null)
+			{
+				secondaryClient.touch(key, keyExpiration);
+				touches++;
+				for (String chunkKey : chunkKeys)
+				{
+					secondaryClient.touch(chunkKey, keyExpiration);
+					touches++;
+				}
+			}
+		}
+		if (settings.getSessionInvalidation() == SessionInvalidation.GENERATION)
+		{
+			client.touch(getGenerationKey(sessionId), getOutlivingExpiration());
+			touches++;
+		}
+		if (sharedIndexes != null)
+		{
+			client.touch(getIndexKey(sessionId), expiration);
+			touches++;
+		}
+		index.extendDeadlines(getDeadline(expiration));
+		metrics.recordTouches(touches);
+		LOG.debug("Extended the expiration of {} keys of session '{}'", touches, sessionId);
+	}
+
+	/**
+	 * @param sessionId The id of the http session
+	 * @return the index of the pages of the session, created if missing
+	 */
+	private PageIdIndex getIndex(String sessionId)
+	{
+		PageIdIndex index = keysPerSession.get(sessionId);
+		if (index == null)
+		{
+			index = new PageIdIndex();
+			PageIdIndex old = keysPerSession.putIfAbsent(sessionId, index);
+			if (old != null)
+			{
+				index = old;
+			}
+			else if (reaper != null)
+			{
+				reaper.schedule(sessionId, index);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Creates the key of a page, with the generation of the session
+	 * if the pages are invalidated by generation
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param pageId    The id of the page
+	 * @return A key that is used for the lookup in Memcached
+	 * @throws IllegalStateException if the generation of the session could not be read
+	 */
+	private String getPageKey(String sessionId, PageIdIndex index, int pageId)
+	{
+		String keyPrefix = getKeyPrefix(sessionId, index);
+		if (settings.getSessionInvalidation() == SessionInvalidation.GENERATION)
+		{
+			long generation = getGeneration(sessionId, index,
+					System.currentTimeMillis() + settings.getReadTimeout().getMilliseconds());
+			if (generation < 0)
+			{
+				throw new IllegalStateException(String.format(
+						"The generation of session '%s' could not be read in time", sessionId));
+			}
+			return keys.getPageKey(keyPrefix, generation, pageId);
+		}
+		return keys.getPageKey(keyPrefix, pageId);
+	}
+
+	/**
+	 * The prefix of the keys is created once per session and cached in its index
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session, may be {@code null}
+	 * @return the prefix of the keys of the session
+	 */
+	private String getKeyPrefix(String sessionId, PageIdIndex index)
+	{
+		if (index == null)
+		{
+			return keys.getSessionPrefix(sessionId);
+		}
+		String keyPrefix = index.getKeyPrefix();
+		if (keyPrefix == null)
+		{
+			keyPrefix = keys.getSessionPrefix(sessionId);
+			index.setKeyPrefix(keyPrefix);
+		}
+		return keyPrefix;
+	}
+
+	/**
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param deadline  When to give up reading the generation, in milliseconds
+	 * @return {@code true} unless the pages are invalidated by generation
+	 *          and the generation of the session could not be read
+	 */
+	private boolean isGenerationKnown(String sessionId, PageIdIndex index, long deadline)
+	{
+		return settings.getSessionInvalidation() != SessionInvalidation.GENERATION
+				|| getGeneration(sessionId, index, deadline) >= 0;
+	}
+
+	/**
+	 * Reads the generation of a session from Memcached, creating it if missing.
+	 * The generation is cached in the index of the session.
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param deadline  When to give up reading, in milliseconds
+	 * @return the generation of the session, -1 if it could not be read. The
+	 *          generation is never guessed, the pages of the session might be
+	 *          read or written under a generation which has been invalidated.
+	 */
+	private long getGeneration(String sessionId, PageIdIndex index, long deadline)
+	{
+		long generation = index.getGeneration();
+		if (generation < 0)
+		{
+			MemcachedClient client = getClient(sessionId);
+			String key = getGenerationKey(sessionId);
+			Long value = await(client.asyncIncr(key, 0), key, deadline);
+			if (value != null && value < 0)
+			{
+				// there is no generation yet, unless another node creates it meanwhile
+				Boolean added = await(client.add(key, getOutlivingExpiration(), "0"), key, deadline);
+				value = Boolean.TRUE.equals(added) ? Long.valueOf(0L) : await(client.asyncIncr(key, 0), key, deadline);
+			}
+			if (value == null || value < 0)
+			{
+				// Memcached is not available, do not cache it
+				return -1;
+			}
+			generation = value;
+			index.setGeneration(generation);
+		}
+		return generation;
+	}
+
+	/**
+	 * The generation and the keyframes of a session and the compression dictionaries
+	 * must outlive the pages stored with them. Their expiration is extended, or a new
+	 * keyframe is started, at least once per expiration time of the pages, so they are
+	 * kept for twice as long as the pages.
+	 *
+	 * @return the expiration of the data which must outlive the pages, in seconds
+	 */
+	private int getOutlivingExpiration()
+	{
+		long expiration = 2 * (long) settings.getExpirationTime().seconds();
+		return (int) Math.min(expiration, MAX_RELATIVE_EXPIRATION);
+	}
+
+	/**
+	 * Merges the shared index of the pages of a session into the local one
+	 *
+	 * @param sessionId The id of the http session
+	 * @param deadline  When to give up reading, in milliseconds
+	 * @return the local index of the pages of the session, or {@code null}
+	 *          if there is neither a local nor a shared index
+	 */
+	private PageIdIndex loadSharedIndex(String sessionId, long deadline)
+	{
+		String indexKey = getIndexKey(sessionId);
+		byte[] entries = await(getSharedIndex(sessionId).load(indexKey), indexKey, deadline);
+		return entries != null
+				? mergeSharedIndex(sessionId, SharedPageIndex.replay(entries))
+				: keysPerSession.get(sessionId);
+	}
+
+	/**
+	 * Merges the shared indexes of the pages of several sessions into the local ones,
+	 * reading them with a single multi-get per client
+	 *
+	 * @param sessionIds The ids of the http sessions
+	 */
+	private void loadSharedIndexes(Collection<String> sessionIds)
+	{
+		Map<String, String> indexKeys = new HashMap<String, String>();
+		for (String sessionId : sessionIds)
+		{
+			indexKeys.put(getIndexKey(sessionId), sessionId);
+		}
+		for (int stripe = 0; stripe < clients.length; stripe++)
+		{
+			List<String> stripeKeys = new ArrayList<String>();
+			for (Map.Entry<String, String> indexKey : indexKeys.entrySet())
+			{
+				if (getStripe(indexKey.getValue()) == stripe)
+				{
+					stripeKeys.add(indexKey.getKey());
+				}
+			}
+			if (stripeKeys.isEmpty())
+			{
+				continue;
+			}
+			long deadline = System.currentTimeMillis() + settings.getReadTimeout().getMilliseconds();
+			Map<String, byte[]> shared = await(sharedIndexes[stripe].loadAll(stripeKeys), "shared indexes", deadline);
+			if (shared == null)
+			{
+				continue;
+			}
+			for (Map.Entry<String, byte[]> entries : shared.entrySet())
+			{
+				mergeSharedIndex(indexKeys.get(entries.getKey()), SharedPageIndex.replay(entries.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * @param sessionId The id of the http session
+	 * @param shared    The pages in the shared index of the session
+	 * @return the local index of the pages of the session, with the shared pages added
+	 */
+	private PageIdIndex mergeSharedIndex(String sessionId, PageIdIndex shared)
+	{
+		PageIdIndex index = getIndex(sessionId);
+		// the shared index does not know when the pages were stored, they expire before this deadline
+		long deadline = getDeadline((int) settings.getExpirationTime().seconds());
+		for (int pageId : shared.getPageIds())
+		{
+			if (!index.contains(pageId) && !index.isInFallback(pageId))
+			{
+				index.add(pageId, shared.getChunkCount(pageId), 0, deadline);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @param expiration the expiration of a value in seconds, 0 if it does not expire
+	 * @return when the value stored now expires, in milliseconds
+	 */
+	private static long getDeadline(int expiration)
+	{
+		return expiration > 0 ? System.currentTimeMillis() + expiration * 1000L : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Reads the payload for the key, joining its chunks if it has been split
+	 *
+	 * @param client   the connection of the session
+	 * @param key      the key of the page
+	 * @param deadline when to give up reading, in milliseconds
+	 * @return the payload or {@code null} if it or any of its chunks is missing,
+	 *          {@link #NOT_READ} if it could not be read in time
+	 */
+	private byte[] readPayload(MemcachedClient client, String key, long deadline)
+	{
+		byte[] payload = read(client, key, deadline);
+		if (payload != NOT_READ && payload != null && PageChunks.isManifest(payload))
+		{
+			payload = readChunks(client, key, payload, deadline);
+		}
+		return payload;
+	}
+
+	/**
+	 * Reads the payload for the key from the primary servers and, if they do not
+	 * answer within {@link HedgePolicy#getDelay()}, from the secondary servers as well.
+	 * The first answer with the payload wins.
+	 *
+	 * @param sessionId The id of the http session
+	 * @param key       The key of the page
+	 * @param deadline  When to give up reading, in milliseconds
+	 * @return the payload or {@code null} if it or any of its chunks is missing,
+	 *          {@link #NOT_READ} if it could not be read in time
+	 */
+	private byte[] readPayloadHedged(String sessionId, String key, long deadline)
+	{
+		long start = System.nanoTime();
+		HedgedGet get = new HedgedGet(key, hedgePolicy);
+		try
+		{
+			get.send(getClient(sessionId));
+			hedgePolicy.recordRead();
+			long timeout = TimeUnit.MILLISECONDS.toMicros(getRemainingTime(deadline));
+			if (!get.await(Math.min(hedgePolicy.getDelay(), timeout)) && hedgePolicy.tryHedge())
+			{
+				get.send(getSecondaryClient(sessionId));
+				metrics.recordHedgedRead();
+				LOG.debug("Hedged the read of the data with key '{}'", key);
+			}
+			if (!get.await(TimeUnit.MILLISECONDS.toMicros(getRemainingTime(deadline))))
+			{
+				get.cancel();
+				metrics.recordReadTimeout();
+				recordFailure();
+				LOG.debug("Timed out reading the data with key '{}'", key);
+				return NOT_READ;
+			}
+		}
+		finally
+		{
+			metrics.recordGetLatency(start);
+		}
+
+		if (get.isFailed())
+		{
+			recordFailure();
+			LOG.warn("Could not read the data with key '{}'", key);
+			return NOT_READ;
+		}
+		recordSuccess();
+		byte[] payload = get.getValue();
+		if (get.isHedgeWinner())
+		{
+			metrics.recordHedgeWin();
+		}
+		if (payload != null && PageChunks.isManifest(payload))
+		{
+			payload = readChunks(get.getWinner(), key, payload, deadline);
+		}
+		return payload;
+	}
+
+	/**
+	 * Decodes a payload, rebuilding the page from its keyframe if it is a delta
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param payload   The payload read from Memcached
+	 * @param deadline  When to give up reading the keyframe, in milliseconds
+	 * @return the page or {@code null} if its keyframe could not be read or does not match
+	 */
+	private byte[] decode(String sessionId, PageIdIndex index, byte[] payload, long deadline)
+	{
+		byte[] data = encoder.decode(payload);
+		if (data == null || !PageEncoder.isDelta(payload))
+		{
+			return data;
+		}
+
+		int keyframeId = PageDelta.getKeyframeId(data);
+		DeltaChain chain = index.peekDeltaChain();
+		byte[] keyframe = chain != null ? chain.getKeyframe(keyframeId) : null;
+		if (keyframe == null)
+		{
+			// e.g. the page has been stored by another node
+			keyframe = readPayload(getClient(sessionId), getPageKey(sessionId, index, keyframeId), deadline);
+			if ((keyframe == null || keyframe == NOT_READ) && secondaryClients != null)
+			{
+				keyframe = readReplica(sessionId, index, keyframeId, keyframe, deadline);
+			}
+			if (keyframe == null || keyframe == NOT_READ)
+			{
+				LOG.debug("Could not read the keyframe {} of session '{}'", keyframeId, sessionId);
+				return null;
+			}
+			keyframe = encoder.decode(keyframe);
+			if (keyframe == null)
+			{
+				return null;
+			}
+		}
+		byte[] page = PageDelta.apply(data, keyframe);
+		if (page == null)
+		{
+			LOG.warn("The keyframe {} of session '{}' is not the one the page has been encoded against",
+					keyframeId, sessionId);
+		}
+		return page;
+	}
+
+	/**
+	 * Reads the payload of a page from the secondary servers, e.g. because
+	 * the primary server which had it has restarted
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param pageId    The id of the requested page
+	 * @param primary   The outcome of the read from the primary servers
+	 * @param deadline  When to give up reading, in milliseconds
+	 * @return the payload from the secondary servers if they have it, otherwise {@code primary}
+	 */
+	private byte[] readReplica(String sessionId, PageIdIndex index, int pageId, byte[] primary, long deadline)
+	{
+		if (getRemainingTime(deadline) == 0)
+		{
+			// the primary servers took all the time
+			return primary;
+		}
+		byte[] payload = readPayload(getSecondaryClient(sessionId), getPageKey(sessionId, index, pageId), deadline);
+		if (payload == null || payload == NOT_READ)
+		{
+			return primary;
+		}
+		metrics.recordReplicaHit();
+		LOG.debug("Read the data for session '{}' and page id '{}' from the secondary servers", sessionId, pageId);
+		return payload;
+	}
+
+	/**
+	 * Reads the payload of a page together with the pages stored right before it
+	 * in a single multi-get. The pages read ahead are kept by the prefetcher.
+	 *
+	 * @param sessionId The id of the http session
+	 * @param index     The index of the pages of the session
+	 * @param pageId    The id of the requested page
+	 * @param deadline  When to give up reading, in milliseconds
+	 * @return the payload of the requested page or {@code null} if it is missing,
+	 *          {@link #NOT_READ} if it could not be read in time
+	 */
+	private byte[] readPayloadAndPrefetch(String sessionId, PageIdIndex index, int pageId, long deadline)
+	{
+		MemcachedClient client = getClient(sessionId);
+		String key = getPageKey(sessionId, index, pageId);
+		int[] neighbours = prefetcher.getNeighbours(index.getPageIds(), pageId);
+		if (neighbours.length == 0)
+		{
+			return readPayload(client, key, deadline);
+		}
+
+		List<String> keys = new ArrayList<String>(neighbours.length + 1);
+		keys.add(key);
+		for (int neighbour : neighbours)
+		{
+			keys.add(getPageKey(sessionId, index, neighbour));
+		}
+		Map<String, byte[]> values = readBulk(client, keys, deadline);
+		if (values == null)
+		{
+			return NOT_READ;
+		}
+
+		byte[][] payloads = new byte[neighbours.length][];
+		for (int i = 0; i < neighbours.length; i++)
+		{
+			byte[] payload = values.get(keys.get(i + 1));
+			// the chunks of big pages are not read ahead
+			if (payload != null && !PageChunks.isManifest(payload))
+			{
+				payloads[i] = payload;
+			}
+		}
+		prefetcher.put(sessionId, neighbours, payloads);
+
+		byte[] payload = values.get(key);
+		if (payload != null && PageChunks.isManifest(payload))
+		{
+			payload = readChunks(client, key, payload, deadline);
+		}
+		return payload;
+	}
+
+	/**
+	 * Reads and joins the chunks of a page
+	 *
+	 * @param client   the connection of the session
+	 * @param key      the key of the page
+	 * @param manifest the manifest of the page
+	 * @param deadline when to give up reading, in milliseconds
+	 * @return the payload or {@code null} if any of the chunks is missing,
+	 *          {@link #NOT_READ} if they could not be read in time
+	 */
+	private byte[] readChunks(MemcachedClient client, String key, byte[] manifest, long deadline)
+	{
+		List<String> chunkKeys = PageChunks.getChunkKeys(key, PageChunks.getChunkCount(manifest));
+		Map<String, byte[]> chunks = readBulk(client, chunkKeys, deadline);
+		return chunks != null ? PageChunks.join(key, manifest, chunks) : NOT_READ;
+	}
+
+	/**
+	 * Reads a value, giving up at the deadline
+	 *
+	 * @param client   the connection of the session
+	 * @param key      the key of the value
+	 * @param deadline when to give up reading, in milliseconds
+	 * @return the value or {@code null} if it is missing,
+	 *          {@link #NOT_READ} if it could not be read in time
+	 */
+	private byte[] read(MemcachedClient client, String key, long deadline)
+	{
+		long start = System.nanoTime();
+		GetFuture<byte[]> future = client.asyncGet(key, PageTranscoder.INSTANCE);
+		try
+		{
+			byte[] value = future.get(getRemainingTime(deadline), TimeUnit.MILLISECONDS);
+			recordSuccess();
+			return value;
+		}
+		catch (TimeoutException tx)
+		{
+			future.cancel(false);
+			metrics.recordReadTimeout();
+			recordFailure();
+			LOG.debug("Timed out reading the data with key '{}'", key);
+		}
+		catch (InterruptedException ix)
+		{
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			recordFailure();
+			LOG.warn("Could not read the data with key '{}'", key, ex.getCause());
+		}
+		finally
+		{
+			metrics.recordGetLatency(start);
+		}
+		return NOT_READ;
+	}
+
+	/**
+	 * Reads several values with a single multi-get, giving up at the deadline
+	 *
+	 * @param client   the connection of the session
+	 * @param keys     the keys of the values
+	 * @param deadline when to give up reading, in milliseconds
+	 * @return the values by their keys, or {@code null} if they could not be read in time
+	 */
+	private Map<String, byte[]> readBulk(MemcachedClient client, Collection<String> keys, long deadline)
+	{
+		long start = System.nanoTime();
+		BulkFuture<Map<String, byte[]>> future = client.asyncGetBulk(keys, PageTranscoder.INSTANCE);
+		try
+		{
+			Map<String, byte[]> values = future.getSome(getRemainingTime(deadline), TimeUnit.MILLISECONDS);
+			if (future.isTimeout())
+			{
+				future.cancel(false);
+				metrics.recordReadTimeout();
+				recordFailure();
+				LOG.debug("Timed out reading the data with keys {}", keys);
+				return null;
+			}
+			recordSuccess();
+			return values;
+		}
+		catch (InterruptedException ix)
+		{
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			recordFailure();
+			LOG.warn("Could not read the data with keys {}", keys, ex.getCause());
+		}
+		finally
+		{
+			metrics.recordGetLatency(start);
+		}
+		return null;
+	}
+
+	/**
+	 * Waits for an operation other than reading a page until the deadline,
+	 * counting the outcome in the circuit breaker
+	 *
+	 * @param future   the future of the operation
+	 * @param key      the key of the operation, for the logs
+	 * @param deadline when to give up waiting, in milliseconds
+	 * @return the result of the operation or {@code null} if it failed or did not complete in time
+	 */
+	private <T> T await(Future<T> future, String key, long deadline)
+	{
+		try
+		{
+			T value = future.get(getRemainingTime(deadline), TimeUnit.MILLISECONDS);
+			recordSuccess();
+			return value;
+		}
+		catch (TimeoutException tx)
+		{
+			future.cancel(false);
+			metrics.recordReadTimeout();
+			recordFailure();
+			LOG.debug("Timed out waiting for '{}'", key);
+		}
+		catch (InterruptedException ix)
+		{
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			recordFailure();
+			LOG.warn("Could not complete the operation on '{}'", key, ex.getCause());
+		}
+		return null;
+	}
+
+	private void recordSuccess()
+	{
+		if (breaker != null)
+		{
+			breaker.recordSuccess();
+		}
+	}
+
+	private void recordFailure()
+	{
+		if (breaker != null)
+		{
+			breaker.recordFailure();
+		}
+	}
+
+	/**
+	 * @param client a connection to the servers
+	 * @return {@code true} if the client connects to the secondary servers
+	 */
+	private boolean isSecondary(MemcachedClient client)
+	{
+		if (secondaryClients != null)
+		{
+			for (MemcachedClient secondaryClient : secondaryClients)
+			{
+				if (secondaryClient == client)
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static long getRemainingTime(long deadline)
+	{
+		return Math.max(0L, deadline - System.currentTimeMillis());
+	}
+
+	/**
+	 * Writes the payload for the key. Payloads bigger than the chunk size
+	 * are split into chunks and the key gets their manifest.
+	 *
+	 * @param client     the connection of the session
+	 * @param key        the key of the page
+	 * @param expiration the expiration of the entries in seconds
+	 * @param payload    the encoded page
+	 * @param listener   notified when the payload is written, may be {@code null}
+	 * @param group      tracks the sets for the write quorum, may be {@code null}
+	 * @return the number of chunks, 0 if the payload is not split
+	 */
+	private int writePayload(MemcachedClient client, String key, int expiration, byte[] payload,
+			OperationCompletionListener listener, WriteQuorum.Group group)
+	{
+		int chunkSize = (int) settings.getChunkSize().bytes();
+		int chunkCount = 0;
+		boolean primary = !isSecondary(client);
+		if (payload.length > chunkSize)
+		{
+			chunkCount = PageChunks.getChunkCount(payload.length, chunkSize);
+			for (int i = 0; i < chunkCount; i++)
+			{
+				String chunkKey = PageChunks.getChunkKey(key, i);
+				OperationFuture<Boolean> future = client.set(chunkKey, expiration,
+						PageChunks.getChunk(payload, i, chunkSize), PageTranscoder.INSTANCE);
+				future.addListener(metrics.newSetListener());
+				future.addListener(new StoreListener(chunkKey, primary));
+				if (group != null)
+				{
+					group.track(future);
+				}
+			}
+			payload = PageChunks.createManifest(chunkCount, payload.length);
+		}
+
+		OperationFuture<Boolean> future = client.set(key, expiration, payload, PageTranscoder.INSTANCE);
+		future.addListener(metrics.newSetListener());
+		future.addListener(new StoreListener(key, primary));
+		if (listener != null)
+		{
+			future.addListener(listener);
+		}
+		if (group != null)
+		{
+			group.track(future);
+		}
+		return chunkCount;
+	}
+
+	/**
+	 * Deletes the chunks of a page
+	 *
+	 * @param client the connection of the session
+	 * @param key    the key of the page
+	 * @param from   the index of the first chunk to delete
+	 * @param to     the index after the last chunk to delete
+	 */
+	private void deleteChunks(MemcachedClient client, String key, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			client.delete(PageChunks.getChunkKey(key, i)).addListener(metrics.newDeleteListener());
+		}
+	}
+
+	/**
+	 * @return the number of reads which did not complete within
+	 *          {@link IMemcachedSettings#getReadTimeout()} and were treated as misses
+	 */
+	public long getReadTimeouts()
+	{
+		return metrics.getReadTimeouts();
+	}
+
+	/**
+	 * @return the metrics of this data store. They are also registered as an MBean
+	 *          if {@link IMemcachedSettings#isJmxEnabled()}
+	 */
+	public DataStoreMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * @return the statistics of the pages read ahead, or {@code null}
+	 *          if the prefetching is disabled
+	 * @see IMemcachedSettings#setPrefetchCount(int)
+	 */
+	public PrefetchStatistics getPrefetchStatistics()
+	{
+		return prefetcher != null ? prefetcher.getStatistics() : null;
+	}
+
+	@Override
+	public void destroy()
+	{
+		if (reaper != null)
+		{
+			reaper.stop();
+		}
+
+		if (dictionaryCompressor != null)
+		{
+			dictionaryCompressor.stop();
+		}
+
+		if (writeBehindQueue != null)
+		{
+			writeBehindQueue.flush();
+		}
+
+		shutdownClients();
+
+		if (fallback != null)
+		{
+			fallback.destroy();
+		}
+
+		if (mbeanName != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			}
+			catch (JMException jmx)
+			{
+				LOG.warn("Could not unregister the metrics MBean", jmx);
+			}
+		}
+	}
+
+	/**
+	 * Shuts the clients down in parallel, so they all drain their queues
+	 * within {@link IMemcachedSettings#getShutdownTimeout()}
+	 */
+	private void shutdownClients()
+	{
+		final Duration timeout = settings.getShutdownTimeout();
+		LOG.info("Shutting down gracefully for {}", timeout);
+		List<MemcachedClient> allClients = new ArrayList<MemcachedClient>(Arrays.asList(clients));
+		if (secondaryClients != null)
+		{
+			allClients.addAll(Arrays.asList(secondaryClients));
+		}
+		if (allClients.size() == 1)
+		{
+			clients[0].shutdown(timeout.getMilliseconds(), TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		List<Thread> threads = new ArrayList<Thread>(allClients.size());
+		for (final MemcachedClient client : allClients)
+		{
+			Thread thread = new Thread("wicket-memcached-shutdown")
+			{
+				@Override
+				public void run()
+				{
+					client.shutdown(timeout.getMilliseconds(), TimeUnit.MILLISECONDS);
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads)
+		{
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException ix)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public boolean isReplicated()
 	{
 		return true;
 	}
@@ -247,26 +2102,107 @@ public class MemcachedDataStore implements IDataStore
 	{
 		// no need to be asynchronous
 		// MemcachedClient is asynchronous itself
+		// and IMemcachedSettings#isWriteBehind() coalesces the writes of a page
 		return false;
 	}
 
 	/**
-	 * Creates a key that is used for the lookup in Memcached.
-	 * The key starts with sessionId and the pageId so
-	 * {@linkplain #keysPerSession} can be sorted faster.
+	 * @param sessionId The id of the http session
+	 * @return the index of the client of the session
+	 */
+	private int getStripe(String sessionId)
+	{
+		return clients.length == 1 ? 0 : (sessionId.hashCode() & Integer.MAX_VALUE) % clients.length;
+	}
+
+	/**
+	 * @param sessionId The id of the http session
+	 * @return the connection used for the operations of the session
+	 */
+	private MemcachedClient getClient(String sessionId)
+	{
+		return clients[getStripe(sessionId)];
+	}
+
+	/**
+	 * @param sessionId The id of the http session
+	 * @return the connection to the secondary servers used for the operations of the session
+	 */
+	private MemcachedClient getSecondaryClient(String sessionId)
+	{
+		return secondaryClients[getStripe(sessionId)];
+	}
+
+	/**
+	 * @param sessionId The id of the http session
+	 * @return the shared index of the pages of the session
+	 */
+	private SharedPageIndex getSharedIndex(String sessionId)
+	{
+		return sharedIndexes[getStripe(sessionId)];
+	}
+
+	/**
+	 * Creates the key of the generation of a session
+	 *
+	 * @param sessionId The id of the http session.
+	 * @return A key that is used for the lookup in Memcached
+	 */
+	private String getGenerationKey(String sessionId)
+	{
+		return keys.getGenerationKey(getKeyPrefix(sessionId, keysPerSession.get(sessionId)));
+	}
+
+	/**
+	 * Creates the key of the shared index of the pages of a session
 	 *
 	 * @param sessionId The id of the http session.
-	 * @param pageId    The id of the stored page
 	 * @return A key that is used for the lookup in Memcached
 	 */
-	private String getKey(String sessionId, int pageId)
+	private String getIndexKey(String sessionId)
+	{
+		return keys.getIndexKey(getKeyPrefix(sessionId, keysPerSession.get(sessionId)));
+	}
+
+	/**
+	 * Logs the store operations rejected by Memcached
+	 * and records the cancelled ones in the circuit breaker
+	 */
+	private class StoreListener implements OperationCompletionListener
 	{
-		return new StringBuilder()
-			.append(sessionId)
-			.append(SEPARATOR)
-			.append(pageId)
-			.append(SEPARATOR)
-			.append(KEY_SUFFIX)
-			.toString();
+		private final String key;
+
+		/**
+		 * Whether the store goes to the primary servers, which the circuit breaker guards
+		 */
+		private final boolean primary;
+
+		private StoreListener(String key, boolean primary)
+		{
+			this.key = key;
+			this.primary = primary;
+		}
+
+		@Override
+		public void onComplete(OperationFuture<?> future) throws Exception
+		{
+			OperationStatus status = future.getStatus();
+			// the circuit breaker guards the primary servers only
+			if (primary)
+			{
+				if (future.isCancelled())
+				{
+					recordFailure();
+				}
+				else
+				{
+					recordSuccess();
+				}
+			}
+			if (!status.isSuccess())
+			{
+				LOG.warn("Could not store the data with key '{}': {}", key, status.getMessage());
+			}
+		}
 	}
 }
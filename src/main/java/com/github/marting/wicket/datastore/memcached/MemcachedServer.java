@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.net.InetSocketAddress;
+
+import org.apache.wicket.util.lang.Args;
+import org.apache.wicket.util.lang.Checks;
+
+/**
+ * The address and the weight of a Memcached server in the pool
+ * used by MemcachedDataStore.
+ *
+ * The weight is relevant only for the consistent (Ketama) locator.
+ * A server with weight 2 receives roughly twice as many keys
+ * as a server with weight 1.
+ */
+public final class MemcachedServer
+{
+	private final String host;
+
+	private final int port;
+
+	private final int weight;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param host the name of the host where Memcached runs
+	 * @param port the port where Memcached listens to
+	 */
+	public MemcachedServer(String host, int port)
+	{
+		this(host, port, 1);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param host   the name of the host where Memcached runs
+	 * @param port   the port where Memcached listens to
+	 * @param weight the relative share of the keys for this server
+	 */
+	public MemcachedServer(String host, int port, int weight)
+	{
+		this.host = Args.notEmpty(host, "host");
+		Checks.withinRangeShort(1, 65535, port, "port");
+		this.port = port;
+		Checks.withinRangeShort(1, 100, weight, "weight");
+		this.weight = weight;
+	}
+
+	/**
+	 * @return the name of the host where Memcached runs
+	 */
+	public String getHost()
+	{
+		return host;
+	}
+
+	/**
+	 * @return the port where Memcached listens to
+	 */
+	public int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * @return the relative share of the keys for this server
+	 */
+	public int getWeight()
+	{
+		return weight;
+	}
+
+	/**
+	 * @return a resolved socket address for this server
+	 */
+	public InetSocketAddress toSocketAddress()
+	{
+		return new InetSocketAddress(host, port);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (!(o instanceof MemcachedServer))
+		{
+			return false;
+		}
+		MemcachedServer that = (MemcachedServer) o;
+		return port == that.port && weight == that.weight && host.equals(that.host);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int result = host.hashCode();
+		result = 31 * result + port;
+		result = 31 * result + weight;
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return host + ':' + port + " (weight: " + weight + ')';
+	}
+}
@@ -16,7 +16,16 @@
  */
 package com.github.marting.wicket.datastore.memcached;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.DefaultConnectionFactory;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.ops.OperationQueueFactory;
+import org.apache.wicket.pageStore.IDataStore;
 import org.apache.wicket.util.lang.Args;
+import org.apache.wicket.util.lang.Bytes;
 import org.apache.wicket.util.time.Duration;
 
 public class MemcachedSettings implements IMemcachedSettings
@@ -25,10 +34,100 @@ public class MemcachedSettings implements IMemcachedSettings
 
 	private int port = 11211;
 
+	private final List<MemcachedServer> servers = new ArrayList<MemcachedServer>();
+
+	private ConnectionFactoryBuilder.Locator locator = ConnectionFactoryBuilder.Locator.CONSISTENT;
+
 	private Duration expirationTime = Duration.minutes(30);
 
 	private Duration shutdownTimeout = Duration.seconds(10);
 
+	private ConnectionFactoryBuilder.Protocol protocol = ConnectionFactoryBuilder.Protocol.TEXT;
+
+	private boolean tcpNoDelay = true;
+
+	private int readBufferSize = DefaultConnectionFactory.DEFAULT_READ_BUFFER_SIZE;
+
+	private OperationQueueFactory operationQueueFactory;
+
+	private int operationQueueCapacity = DefaultConnectionFactory.DEFAULT_OP_QUEUE_LEN;
+
+	private Duration maxBlockTime = Duration.milliseconds(DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME);
+
+	private Duration operationTimeout = Duration.milliseconds(DefaultConnectionFactory.DEFAULT_OPERATION_TIMEOUT);
+
+	private FailureMode failureMode = DefaultConnectionFactory.DEFAULT_FAILURE_MODE;
+
+	private IPageCompressor pageCompressor;
+
+	private Bytes compressionThreshold = Bytes.kilobytes(4);
+
+	private double maxCompressionRatio = 0.9d;
+
+	private boolean adaptiveCompression = true;
+
+	private Bytes chunkSize = Bytes.kilobytes(1000);
+
+	private boolean sharedPageIndex = false;
+
+	private SessionInvalidation sessionInvalidation = SessionInvalidation.DELETE;
+
+	private boolean writeBehind = false;
+
+	private int maxWritesInFlight = 16;
+
+	private Bytes writeBehindCapacity = Bytes.megabytes(16);
+
+	private int prefetchCount = 0;
+
+	private Duration prefetchTimeToLive = Duration.seconds(5);
+
+	private Duration readTimeout = Duration.seconds(1);
+
+	private boolean circuitBreaker = false;
+
+	private int circuitBreakerWindow = 20;
+
+	private double circuitBreakerFailureRate = 0.5d;
+
+	private Duration circuitBreakerOpenTime = Duration.seconds(10);
+
+	private IDataStore fallbackDataStore;
+
+	private boolean jmxEnabled = true;
+
+	private KeyFormat keyFormat = KeyFormat.READABLE;
+
+	private String keyNamespace = "wm:";
+
+	private int maxPagesPerSession = Integer.MAX_VALUE;
+
+	private Bytes maxSizePerSession = Bytes.MAX;
+
+	private boolean slidingExpiration = false;
+
+	private Duration touchInterval = Duration.minutes(1);
+
+	private Duration reaperInterval = Duration.seconds(10);
+
+	private int clientCount = 1;
+
+	private final List<MemcachedServer> secondaryServers = new ArrayList<MemcachedServer>();
+
+	private int writeQuorum = 0;
+
+	private boolean hedgedReads = false;
+
+	private double maxHedgeRate = 0.1d;
+
+	private boolean deltaEncoding = false;
+
+	private int keyframeInterval = 10;
+
+	private boolean dictionaryCompression = false;
+
+	private int dictionaryRetrainInterval = 10000;
+
 	@Override
 	public String getHost()
 	{
@@ -55,6 +154,41 @@ public class MemcachedSettings implements IMemcachedSettings
 		return this;
 	}
 
+	@Override
+	public List<MemcachedServer> getServers()
+	{
+		return servers;
+	}
+
+	@Override
+	public IMemcachedSettings setServers(List<MemcachedServer> servers)
+	{
+		Args.notNull(servers, "servers");
+		this.servers.clear();
+		this.servers.addAll(servers);
+		return this;
+	}
+
+	@Override
+	public IMemcachedSettings addServer(MemcachedServer server)
+	{
+		servers.add(Args.notNull(server, "server"));
+		return this;
+	}
+
+	@Override
+	public ConnectionFactoryBuilder.Locator getLocator()
+	{
+		return locator;
+	}
+
+	@Override
+	public IMemcachedSettings setLocator(ConnectionFactoryBuilder.Locator locator)
+	{
+		this.locator = Args.notNull(locator, "locator");
+		return this;
+	}
+
 	@Override
 	public Duration getExpirationTime()
 	{
@@ -80,4 +214,578 @@ public class MemcachedSettings implements IMemcachedSettings
 		this.shutdownTimeout = Args.notNull(timeout, "timeout");
 		return this;
 	}
+
+	@Override
+	public ConnectionFactoryBuilder.Protocol getProtocol()
+	{
+		return protocol;
+	}
+
+	@Override
+	public IMemcachedSettings setProtocol(ConnectionFactoryBuilder.Protocol protocol)
+	{
+		this.protocol = Args.notNull(protocol, "protocol");
+		return this;
+	}
+
+	@Override
+	public boolean isTcpNoDelay()
+	{
+		return tcpNoDelay;
+	}
+
+	@Override
+	public IMemcachedSettings setTcpNoDelay(boolean tcpNoDelay)
+	{
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+
+	@Override
+	public int getReadBufferSize()
+	{
+		return readBufferSize;
+	}
+
+	@Override
+	public IMemcachedSettings setReadBufferSize(int readBufferSize)
+	{
+		this.readBufferSize = Args.withinRange(1, Integer.MAX_VALUE, readBufferSize, "readBufferSize");
+		return this;
+	}
+
+	@Override
+	public OperationQueueFactory getOperationQueueFactory()
+	{
+		return operationQueueFactory;
+	}
+
+	@Override
+	public IMemcachedSettings setOperationQueueFactory(OperationQueueFactory factory)
+	{
+		this.operationQueueFactory = factory;
+		return this;
+	}
+
+	@Override
+	public int getOperationQueueCapacity()
+	{
+		return operationQueueCapacity;
+	}
+
+	@Override
+	public IMemcachedSettings setOperationQueueCapacity(int capacity)
+	{
+		this.operationQueueCapacity = Args.withinRange(1, Integer.MAX_VALUE, capacity, "capacity");
+		return this;
+	}
+
+	@Override
+	public Duration getMaxBlockTime()
+	{
+		return maxBlockTime;
+	}
+
+	@Override
+	public IMemcachedSettings setMaxBlockTime(Duration maxBlockTime)
+	{
+		this.maxBlockTime = Args.notNull(maxBlockTime, "maxBlockTime");
+		return this;
+	}
+
+	@Override
+	public Duration getOperationTimeout()
+	{
+		return operationTimeout;
+	}
+
+	@Override
+	public IMemcachedSettings setOperationTimeout(Duration timeout)
+	{
+		this.operationTimeout = Args.notNull(timeout, "timeout");
+		return this;
+	}
+
+	@Override
+	public FailureMode getFailureMode()
+	{
+		return failureMode;
+	}
+
+	@Override
+	public IMemcachedSettings setFailureMode(FailureMode failureMode)
+	{
+		this.failureMode = Args.notNull(failureMode, "failureMode");
+		return this;
+	}
+
+	@Override
+	public IPageCompressor getPageCompressor()
+	{
+		return pageCompressor;
+	}
+
+	@Override
+	public IMemcachedSettings setPageCompressor(IPageCompressor compressor)
+	{
+		this.pageCompressor = compressor;
+		return this;
+	}
+
+	@Override
+	public Bytes getCompressionThreshold()
+	{
+		return compressionThreshold;
+	}
+
+	@Override
+	public IMemcachedSettings setCompressionThreshold(Bytes threshold)
+	{
+		this.compressionThreshold = Args.notNull(threshold, "threshold");
+		return this;
+	}
+
+	@Override
+	public double getMaxCompressionRatio()
+	{
+		return maxCompressionRatio;
+	}
+
+	@Override
+	public IMemcachedSettings setMaxCompressionRatio(double ratio)
+	{
+		this.maxCompressionRatio = Args.withinRange(Double.MIN_VALUE, 1d, ratio, "ratio");
+		return this;
+	}
+
+	@Override
+	public boolean isAdaptiveCompression()
+	{
+		return adaptiveCompression;
+	}
+
+	@Override
+	public IMemcachedSettings setAdaptiveCompression(boolean adaptive)
+	{
+		this.adaptiveCompression = adaptive;
+		return this;
+	}
+
+	@Override
+	public Bytes getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	@Override
+	public IMemcachedSettings setChunkSize(Bytes chunkSize)
+	{
+		Args.notNull(chunkSize, "chunkSize");
+		Args.withinRange(1L, (long) Integer.MAX_VALUE, chunkSize.bytes(), "chunkSize");
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	@Override
+	public boolean isSharedPageIndex()
+	{
+		return sharedPageIndex;
+	}
+
+	@Override
+	public IMemcachedSettings setSharedPageIndex(boolean shared)
+	{
+		this.sharedPageIndex = shared;
+		return this;
+	}
+
+	@Override
+	public SessionInvalidation getSessionInvalidation()
+	{
+		return sessionInvalidation;
+	}
+
+	@Override
+	public IMemcachedSettings setSessionInvalidation(SessionInvalidation invalidation)
+	{
+		this.sessionInvalidation = Args.notNull(invalidation, "invalidation");
+		return this;
+	}
+
+	@Override
+	public boolean isWriteBehind()
+	{
+		return writeBehind;
+	}
+
+	@Override
+	public IMemcachedSettings setWriteBehind(boolean writeBehind)
+	{
+		this.writeBehind = writeBehind;
+		return this;
+	}
+
+	@Override
+	public int getMaxWritesInFlight()
+	{
+		return maxWritesInFlight;
+	}
+
+	@Override
+	public IMemcachedSettings setMaxWritesInFlight(int maxWritesInFlight)
+	{
+		this.maxWritesInFlight = Args.withinRange(1, Integer.MAX_VALUE, maxWritesInFlight, "maxWritesInFlight");
+		return this;
+	}
+
+	@Override
+	public Bytes getWriteBehindCapacity()
+	{
+		return writeBehindCapacity;
+	}
+
+	@Override
+	public IMemcachedSettings setWriteBehindCapacity(Bytes capacity)
+	{
+		this.writeBehindCapacity = Args.notNull(capacity, "capacity");
+		return this;
+	}
+
+	@Override
+	public int getPrefetchCount()
+	{
+		return prefetchCount;
+	}
+
+	@Override
+	public IMemcachedSettings setPrefetchCount(int count)
+	{
+		this.prefetchCount = Args.withinRange(0, Integer.MAX_VALUE, count, "count");
+		return this;
+	}
+
+	@Override
+	public Duration getPrefetchTimeToLive()
+	{
+		return prefetchTimeToLive;
+	}
+
+	@Override
+	public IMemcachedSettings setPrefetchTimeToLive(Duration timeToLive)
+	{
+		this.prefetchTimeToLive = Args.notNull(timeToLive, "timeToLive");
+		return this;
+	}
+
+	@Override
+	public Duration getReadTimeout()
+	{
+		return readTimeout;
+	}
+
+	@Override
+	public IMemcachedSettings setReadTimeout(Duration timeout)
+	{
+		this.readTimeout = Args.notNull(timeout, "timeout");
+		return this;
+	}
+
+	@Override
+	public boolean isCircuitBreaker()
+	{
+		return circuitBreaker;
+	}
+
+	@Override
+	public IMemcachedSettings setCircuitBreaker(boolean circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+		return this;
+	}
+
+	@Override
+	public int getCircuitBreakerWindow()
+	{
+		return circuitBreakerWindow;
+	}
+
+	@Override
+	public IMemcachedSettings setCircuitBreakerWindow(int window)
+	{
+		this.circuitBreakerWindow = Args.withinRange(1, Integer.MAX_VALUE, window, "window");
+		return this;
+	}
+
+	@Override
+	public double getCircuitBreakerFailureRate()
+	{
+		return circuitBreakerFailureRate;
+	}
+
+	@Override
+	public IMemcachedSettings setCircuitBreakerFailureRate(double failureRate)
+	{
+		this.circuitBreakerFailureRate = Args.withinRange(Double.MIN_VALUE, 1d, failureRate, "failureRate");
+		return this;
+	}
+
+	@Override
+	public Duration getCircuitBreakerOpenTime()
+	{
+		return circuitBreakerOpenTime;
+	}
+
+	@Override
+	public IMemcachedSettings setCircuitBreakerOpenTime(Duration openTime)
+	{
+		this.circuitBreakerOpenTime = Args.notNull(openTime, "openTime");
+		return this;
+	}
+
+	@Override
+	public IDataStore getFallbackDataStore()
+	{
+		return fallbackDataStore;
+	}
+
+	@Override
+	public IMemcachedSettings setFallbackDataStore(IDataStore fallback)
+	{
+		this.fallbackDataStore = fallback;
+		return this;
+	}
+
+	@Override
+	public boolean isJmxEnabled()
+	{
+		return jmxEnabled;
+	}
+
+	@Override
+	public IMemcachedSettings setJmxEnabled(boolean jmxEnabled)
+	{
+		this.jmxEnabled = jmxEnabled;
+		return this;
+	}
+
+	@Override
+	public KeyFormat getKeyFormat()
+	{
+		return keyFormat;
+	}
+
+	@Override
+	public IMemcachedSettings setKeyFormat(KeyFormat keyFormat)
+	{
+		this.keyFormat = Args.notNull(keyFormat, "keyFormat");
+		return this;
+	}
+
+	@Override
+	public String getKeyNamespace()
+	{
+		return keyNamespace;
+	}
+
+	@Override
+	public IMemcachedSettings setKeyNamespace(String namespace)
+	{
+		Args.notNull(namespace, "namespace");
+		// Memcached keys must not contain whitespace nor control characters
+		Args.isTrue(namespace.matches("[\\x21-\\x7e]*"), "Invalid key namespace: '%s'", namespace);
+		this.keyNamespace = namespace;
+		return this;
+	}
+
+	@Override
+	public int getMaxPagesPerSession()
+	{
+		return maxPagesPerSession;
+	}
+
+	@Override
+	public IMemcachedSettings setMaxPagesPerSession(int maxPages)
+	{
+		this.maxPagesPerSession = Args.withinRange(1, Integer.MAX_VALUE, maxPages, "maxPages");
+		return this;
+	}
+
+	@Override
+	public Bytes getMaxSizePerSession()
+	{
+		return maxSizePerSession;
+	}
+
+	@Override
+	public IMemcachedSettings setMaxSizePerSession(Bytes maxSize)
+	{
+		this.maxSizePerSession = Args.notNull(maxSize, "maxSize");
+		return this;
+	}
+
+	@Override
+	public boolean isSlidingExpiration()
+	{
+		return slidingExpiration;
+	}
+
+	@Override
+	public IMemcachedSettings setSlidingExpiration(boolean slidingExpiration)
+	{
+		this.slidingExpiration = slidingExpiration;
+		return this;
+	}
+
+	@Override
+	public Duration getTouchInterval()
+	{
+		return touchInterval;
+	}
+
+	@Override
+	public IMemcachedSettings setTouchInterval(Duration interval)
+	{
+		this.touchInterval = Args.notNull(interval, "interval");
+		return this;
+	}
+
+	@Override
+	public Duration getReaperInterval()
+	{
+		return reaperInterval;
+	}
+
+	@Override
+	public IMemcachedSettings setReaperInterval(Duration interval)
+	{
+		this.reaperInterval = Args.notNull(interval, "interval");
+		return this;
+	}
+
+	@Override
+	public int getClientCount()
+	{
+		return clientCount;
+	}
+
+	@Override
+	public IMemcachedSettings setClientCount(int clientCount)
+	{
+		this.clientCount = Args.withinRange(1, 64, clientCount, "clientCount");
+		return this;
+	}
+
+	@Override
+	public List<MemcachedServer> getSecondaryServers()
+	{
+		return secondaryServers;
+	}
+
+	@Override
+	public IMemcachedSettings setSecondaryServers(List<MemcachedServer> servers)
+	{
+		Args.notNull(servers, "servers");
+		this.secondaryServers.clear();
+		this.secondaryServers.addAll(servers);
+		return this;
+	}
+
+	@Override
+	public IMemcachedSettings addSecondaryServer(MemcachedServer server)
+	{
+		secondaryServers.add(Args.notNull(server, "server"));
+		return this;
+	}
+
+	@Override
+	public int getWriteQuorum()
+	{
+		return writeQuorum;
+	}
+
+	@Override
+	public IMemcachedSettings setWriteQuorum(int writeQuorum)
+	{
+		this.writeQuorum = Args.withinRange(0, 2, writeQuorum, "writeQuorum");
+		return this;
+	}
+
+	@Override
+	public boolean isHedgedReads()
+	{
+		return hedgedReads;
+	}
+
+	@Override
+	public IMemcachedSettings setHedgedReads(boolean hedgedReads)
+	{
+		this.hedgedReads = hedgedReads;
+		return this;
+	}
+
+	@Override
+	public double getMaxHedgeRate()
+	{
+		return maxHedgeRate;
+	}
+
+	@Override
+	public IMemcachedSettings setMaxHedgeRate(double maxHedgeRate)
+	{
+		this.maxHedgeRate = Args.withinRange(0d, 1d, maxHedgeRate, "maxHedgeRate");
+		return this;
+	}
+
+	@Override
+	public boolean isDeltaEncoding()
+	{
+		return deltaEncoding;
+	}
+
+	@Override
+	public IMemcachedSettings setDeltaEncoding(boolean deltaEncoding)
+	{
+		this.deltaEncoding = deltaEncoding;
+		return this;
+	}
+
+	@Override
+	public int getKeyframeInterval()
+	{
+		return keyframeInterval;
+	}
+
+	@Override
+	public IMemcachedSettings setKeyframeInterval(int keyframeInterval)
+	{
+		this.keyframeInterval = Args.withinRange(1, Integer.MAX_VALUE, keyframeInterval, "keyframeInterval");
+		return this;
+	}
+
+	@Override
+	public boolean isDictionaryCompression()
+	{
+		return dictionaryCompression;
+	}
+
+	@Override
+	public IMemcachedSettings setDictionaryCompression(boolean dictionaryCompression)
+	{
+		this.dictionaryCompression = dictionaryCompression;
+		return this;
+	}
+
+	@Override
+	public int getDictionaryRetrainInterval()
+	{
+		return dictionaryRetrainInterval;
+	}
+
+	@Override
+	public IMemcachedSettings setDictionaryRetrainInterval(int retrainInterval)
+	{
+		this.dictionaryRetrainInterval = Args.withinRange(DictionaryPageCompressor.SAMPLE_COUNT, Integer.MAX_VALUE,
+				retrainInterval, "retrainInterval");
+		return this;
+	}
 }
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the payloads bigger than the Memcached item size limit into chunks.
+ *
+ * The chunks are stored under the page key with a {@value #CHUNK_SEPARATOR}
+ * and the chunk index appended. The page key itself holds a manifest:
+ * the {@value #MANIFEST_HEADER} header byte, the number of chunks and the
+ * total length of the payload.
+ */
+final class PageChunks
+{
+	/**
+	 * The header of a manifest payload
+	 */
+	static final int MANIFEST_HEADER = 0xE0;
+
+	/**
+	 * Separates the page key and the chunk index
+	 */
+	static final char CHUNK_SEPARATOR = '#';
+
+	private static final int MANIFEST_LENGTH = 9;
+
+	private PageChunks()
+	{
+	}
+
+	/**
+	 * @param payloadLength the length of the payload
+	 * @param chunkSize     the maximum size of a chunk
+	 * @return the number of chunks needed for the payload
+	 */
+	static int getChunkCount(int payloadLength, int chunkSize)
+	{
+		return (payloadLength + chunkSize - 1) / chunkSize;
+	}
+
+	/**
+	 * @param payload   the payload to split
+	 * @param index     the index of the chunk
+	 * @param chunkSize the maximum size of a chunk
+	 * @return the chunk with the given index
+	 */
+	static byte[] getChunk(byte[] payload, int index, int chunkSize)
+	{
+		int offset = index * chunkSize;
+		int length = Math.min(chunkSize, payload.length - offset);
+		byte[] chunk = new byte[length];
+		System.arraycopy(payload, offset, chunk, 0, length);
+		return chunk;
+	}
+
+	/**
+	 * @param key   the key of the page
+	 * @param index the index of the chunk
+	 * @return the key of the chunk
+	 */
+	static String getChunkKey(String key, int index)
+	{
+		return key + CHUNK_SEPARATOR + index;
+	}
+
+	/**
+	 * @param key        the key of the page
+	 * @param chunkCount the number of chunks
+	 * @return the keys of all chunks of the page
+	 */
+	static List<String> getChunkKeys(String key, int chunkCount)
+	{
+		List<String> keys = new ArrayList<String>(chunkCount);
+		for (int i = 0; i < chunkCount; i++)
+		{
+			keys.add(getChunkKey(key, i));
+		}
+		return keys;
+	}
+
+	/**
+	 * @param chunkCount    the number of chunks
+	 * @param payloadLength the length of the whole payload
+	 * @return the manifest to store under the page key
+	 */
+	static byte[] createManifest(int chunkCount, int payloadLength)
+	{
+		byte[] manifest = new byte[MANIFEST_LENGTH];
+		manifest[0] = (byte) MANIFEST_HEADER;
+		DeflatePageCompressor.writeInt(manifest, 1, chunkCount);
+		DeflatePageCompressor.writeInt(manifest, 5, payloadLength);
+		return manifest;
+	}
+
+	/**
+	 * @param payload a payload read from Memcached
+	 * @return {@code true} if the payload is a manifest of a chunked page
+	 */
+	static boolean isManifest(byte[] payload)
+	{
+		return payload.length == MANIFEST_LENGTH && (payload[0] & 0xFF) == MANIFEST_HEADER;
+	}
+
+	/**
+	 * @param manifest the manifest of a chunked page
+	 * @return the number of chunks
+	 */
+	static int getChunkCount(byte[] manifest)
+	{
+		return DeflatePageCompressor.readInt(manifest, 1);
+	}
+
+	/**
+	 * Joins the chunks of a page
+	 *
+	 * @param key      the key of the page
+	 * @param manifest the manifest of the page
+	 * @param chunks   the chunks by their keys
+	 * @return the payload or {@code null} if any chunk is missing
+	 */
+	static byte[] join(String key, byte[] manifest, Map<String, byte[]> chunks)
+	{
+		int chunkCount = getChunkCount(manifest);
+		int payloadLength = DeflatePageCompressor.readInt(manifest, 5);
+		byte[] payload = new byte[payloadLength];
+		int offset = 0;
+		for (int i = 0; i < chunkCount; i++)
+		{
+			byte[] chunk = chunks.get(getChunkKey(key, i));
+			if (chunk == null || offset + chunk.length > payloadLength)
+			{
+				return null;
+			}
+			System.arraycopy(chunk, 0, payload, offset, chunk.length);
+			offset += chunk.length;
+		}
+		return offset == payloadLength ? payload : null;
+	}
+}
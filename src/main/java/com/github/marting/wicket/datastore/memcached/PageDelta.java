@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+import org.apache.wicket.WicketRuntimeException;
+
+/**
+ * Encodes a page as the differences to a keyframe, an earlier version
+ * of a page of the same session.
+ *
+ * A delta starts with the id of the keyframe, the Adler-32 checksum of the
+ * keyframe and the length of the page, followed by instructions: the length
+ * of a literal, the literal bytes, and the length and the offset of a range
+ * to copy from the keyframe. The last instruction is a literal only. All numbers
+ * but the keyframe id and the checksum are variable length.
+ *
+ * The matching ranges are found by hashing the {@value #MIN_MATCH} bytes
+ * at every offset of the keyframe, like LZ77 with the keyframe as dictionary.
+ * The hash table is built once per {@link Keyframe}.
+ */
+final class PageDelta
+{
+	/**
+	 * The shortest range copied from the keyframe
+	 */
+	private static final int MIN_MATCH = 8;
+
+	private static final int MAX_HASH_BITS = 20;
+
+	private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The length of the keyframe id and the checksum of the keyframe
+	 */
+	private static final int HEADER_LENGTH = 8;
+
+	private byte[] buffer;
+
+	private int length;
+
+	private PageDelta(int capacity)
+	{
+		buffer = new byte[capacity];
+	}
+
+	/**
+	 * @param keyframeId the id of the keyframe
+	 * @param indexed    the keyframe
+	 * @param page       the page to encode
+	 * @return the delta of the page
+	 */
+	static byte[] create(int keyframeId, Keyframe indexed, byte[] page)
+	{
+		byte[] keyframe = indexed.data;
+		PageDelta delta = new PageDelta(64);
+		delta.ensureCapacity(HEADER_LENGTH);
+		DeflatePageCompressor.writeInt(delta.buffer, 0, keyframeId);
+		DeflatePageCompressor.writeInt(delta.buffer, 4, indexed.checksum);
+		delta.length = HEADER_LENGTH;
+		delta.writeVarInt(page.length);
+
+		if (page == keyframe)
+		{
+			delta.writeVarInt(0);
+			delta.writeVarInt(page.length);
+			delta.writeVarInt(0);
+			delta.writeVarInt(0);
+			return delta.toByteArray();
+		}
+
+		int[] table = indexed.table;
+		int literalStart = 0;
+		int offset = 0;
+		while (table != null && offset <= page.length - MIN_MATCH)
+		{
+			int candidate = table[hash(page, offset, table.length - 1)] - 1;
+			if (candidate < 0 || !matches(keyframe, candidate, page, offset))
+			{
+				offset++;
+				continue;
+			}
+
+			int start = offset;
+			int from = candidate;
+			while (start > literalStart && from > 0 && page[start - 1] == keyframe[from - 1])
+			{
+				start--;
+				from--;
+			}
+			int end = offset + MIN_MATCH;
+			int to = candidate + MIN_MATCH;
+			while (end < page.length && to < keyframe.length && page[end] == keyframe[to])
+			{
+				end++;
+				to++;
+			}
+
+			delta.writeLiteral(page, literalStart, start - literalStart);
+			delta.writeVarInt(end - start);
+			delta.writeVarInt(from);
+			offset = end;
+			literalStart = end;
+		}
+		delta.writeLiteral(page, literalStart, page.length - literalStart);
+		return delta.toByteArray();
+	}
+
+	/**
+	 * @param delta the delta of a page
+	 * @return the id of the keyframe of the page
+	 */
+	static int getKeyframeId(byte[] delta)
+	{
+		return DeflatePageCompressor.readInt(delta, 0);
+	}
+
+	/**
+	 * Rebuilds a page from its keyframe and its delta
+	 *
+	 * @param delta    the delta of the page
+	 * @param keyframe the keyframe of the page
+	 * @return the page, {@code null} if the keyframe is not the one the page
+	 *          has been encoded against, e.g. another keyframe stored under its id
+	 */
+	static byte[] apply(byte[] delta, byte[] keyframe)
+	{
+		if (delta.length < HEADER_LENGTH)
+		{
+			throw new WicketRuntimeException("Corrupt page delta: " + delta.length + " bytes");
+		}
+		if (DeflatePageCompressor.readInt(delta, 4) != checksum(keyframe))
+		{
+			return null;
+		}
+		try
+		{
+			int[] position = {HEADER_LENGTH};
+			byte[] page = new byte[readVarInt(delta, position)];
+			int offset = 0;
+			while (true)
+			{
+				int literal = readVarInt(delta, position);
+				System.arraycopy(delta, position[0], page, offset, literal);
+				position[0] += literal;
+				offset += literal;
+				if (position[0] == delta.length)
+				{
+					break;
+				}
+				int copy = readVarInt(delta, position);
+				int from = readVarInt(delta, position);
+				System.arraycopy(keyframe, from, page, offset, copy);
+				offset += copy;
+			}
+			if (offset != page.length)
+			{
+				throw new WicketRuntimeException("Corrupt page delta: " + offset + " of " + page.length + " bytes");
+			}
+			return page;
+		}
+		catch (IndexOutOfBoundsException ioobx)
+		{
+			throw new WicketRuntimeException("Corrupt page delta", ioobx);
+		}
+	}
+
+	/**
+	 * @return the offset + 1 of the last occurrence of the bytes at each hash in the keyframe,
+	 *          {@code null} if the keyframe is too short
+	 */
+	private static int[] index(byte[] keyframe)
+	{
+		if (keyframe.length < MIN_MATCH)
+		{
+			return null;
+		}
+		int bits = Math.min(MAX_HASH_BITS, 32 - Integer.numberOfLeadingZeros(keyframe.length));
+		int[] table = new int[1 << bits];
+		int mask = table.length - 1;
+		for (int offset = 0; offset <= keyframe.length - MIN_MATCH; offset++)
+		{
+			table[hash(keyframe, offset, mask)] = offset + 1;
+		}
+		return table;
+	}
+
+	private static int hash(byte[] data, int offset, int mask)
+	{
+		long value = 0;
+		for (int i = 0; i < MIN_MATCH; i++)
+		{
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return (int) ((value * HASH_MULTIPLIER) >>> 40) & mask;
+	}
+
+	private static boolean matches(byte[] keyframe, int from, byte[] page, int offset)
+	{
+		if (from > keyframe.length - MIN_MATCH)
+		{
+			return false;
+		}
+		for (int i = 0; i < MIN_MATCH; i++)
+		{
+			if (keyframe[from + i] != page[offset + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeLiteral(byte[] page, int offset, int count)
+	{
+		writeVarInt(count);
+		ensureCapacity(count);
+		System.arraycopy(page, offset, buffer, length, count);
+		length += count;
+	}
+
+	private void writeVarInt(int value)
+	{
+		ensureCapacity(5);
+		int rest = value;
+		while ((rest & ~0x7F) != 0)
+		{
+			buffer[length++] = (byte) ((rest & 0x7F) | 0x80);
+			rest >>>= 7;
+		}
+		buffer[length++] = (byte) rest;
+	}
+
+	private static int readVarInt(byte[] data, int[] position)
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = data[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new WicketRuntimeException("Corrupt page delta: too long number");
+	}
+
+	private static int checksum(byte[] keyframe)
+	{
+		Adler32 adler = new Adler32();
+		adler.update(keyframe, 0, keyframe.length);
+		return (int) adler.getValue();
+	}
+
+	private void ensureCapacity(int count)
+	{
+		if (length + count > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+		}
+	}
+
+	private byte[] toByteArray()
+	{
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * A keyframe with the hash table of its bytes and its checksum,
+	 * used to encode all pages against it
+	 */
+	static final class Keyframe
+	{
+		private final byte[] data;
+
+		private final int[] table;
+
+		private final int checksum;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param data the page which becomes the keyframe
+		 */
+		Keyframe(byte[] data)
+		{
+			this.data = data;
+			this.table = index(data);
+			this.checksum = checksum(data);
+		}
+
+		/**
+		 * @return the page which is the keyframe
+		 */
+		byte[] getData()
+		{
+			return data;
+		}
+	}
+}
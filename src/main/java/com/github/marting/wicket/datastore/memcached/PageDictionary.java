@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Adler32;
+
+/**
+ * Trains a preset dictionary for Deflate from sample pages.
+ *
+ * The serialized pages repeat the same class descriptors, field names and
+ * strings. The dictionary is made of the segments of the samples with the
+ * most frequent byte sequences: the samples are split into as many epochs
+ * as there are segments in the dictionary and the best segment of each epoch
+ * is taken. The sequences of a taken segment do not count anymore, so the
+ * segments do not repeat each other. Deflate finds the matches closer
+ * to the data cheaper, so the best segments are put at the end.
+ */
+final class PageDictionary
+{
+	/**
+	 * The length of the sequences which are counted
+	 */
+	private static final int SEQUENCE_LENGTH = 8;
+
+	/**
+	 * The length of the segments of the dictionary
+	 */
+	private static final int SEGMENT_LENGTH = 64;
+
+	private static final int HASH_BITS = 20;
+
+	private PageDictionary()
+	{
+	}
+
+	/**
+	 * @param samples the sample pages
+	 * @param size    the maximum size of the dictionary
+	 * @return the dictionary or {@code null} if the samples are too short
+	 */
+	static byte[] train(List<byte[]> samples, int size)
+	{
+		byte[] corpus = concat(samples);
+		if (corpus.length < SEGMENT_LENGTH)
+		{
+			return null;
+		}
+		if (corpus.length <= size)
+		{
+			return corpus;
+		}
+
+		int[] frequencies = new int[1 << HASH_BITS];
+		for (int i = 0; i + SEQUENCE_LENGTH <= corpus.length; i++)
+		{
+			frequencies[hash(corpus, i)]++;
+		}
+
+		int segmentCount = Math.min(size / SEGMENT_LENGTH, corpus.length / SEGMENT_LENGTH);
+		int epochLength = corpus.length / segmentCount;
+		List<int[]> segments = new ArrayList<int[]>(segmentCount);
+		for (int epoch = 0; epoch < segmentCount; epoch++)
+		{
+			int[] segment = bestSegment(corpus, frequencies, epoch * epochLength,
+					Math.min(corpus.length, (epoch + 1) * epochLength));
+			if (segment != null)
+			{
+				segments.add(segment);
+			}
+		}
+
+		// the best segments last
+		Collections.sort(segments, new Comparator<int[]>()
+		{
+			@Override
+			public int compare(int[] segment1, int[] segment2)
+			{
+				return segment1[1] < segment2[1] ? -1 : (segment1[1] == segment2[1] ? 0 : 1);
+			}
+		});
+		byte[] dictionary = new byte[segments.size() * SEGMENT_LENGTH];
+		for (int i = 0; i < segments.size(); i++)
+		{
+			System.arraycopy(corpus, segments.get(i)[0], dictionary, i * SEGMENT_LENGTH, SEGMENT_LENGTH);
+		}
+		return dictionary;
+	}
+
+	/**
+	 * @param dictionary a dictionary
+	 * @return the id of the dictionary, its Adler-32 checksum like in the zlib format
+	 */
+	static int getId(byte[] dictionary)
+	{
+		Adler32 adler = new Adler32();
+		adler.update(dictionary, 0, dictionary.length);
+		return (int) adler.getValue();
+	}
+
+	/**
+	 * Finds the segment with the highest sum of the frequencies of its sequences
+	 * and resets the frequencies of its sequences
+	 *
+	 * @return the offset and the score of the segment, or {@code null} if there is none
+	 */
+	private static int[] bestSegment(byte[] corpus, int[] frequencies, int start, int end)
+	{
+		int sequences = SEGMENT_LENGTH - SEQUENCE_LENGTH + 1;
+		if (end - start < SEGMENT_LENGTH)
+		{
+			return null;
+		}
+
+		int score = 0;
+		for (int i = start; i < start + sequences; i++)
+		{
+			score += frequencies[hash(corpus, i)];
+		}
+		int bestOffset = start;
+		int bestScore = score;
+		for (int offset = start + 1; offset + SEGMENT_LENGTH <= end; offset++)
+		{
+			score += frequencies[hash(corpus, offset + sequences - 1)] - frequencies[hash(corpus, offset - 1)];
+			if (score > bestScore)
+			{
+				bestOffset = offset;
+				bestScore = score;
+			}
+		}
+		if (bestScore <= sequences)
+		{
+			// no sequence repeats
+			return null;
+		}
+
+		for (int i = bestOffset; i < bestOffset + sequences; i++)
+		{
+			frequencies[hash(corpus, i)] = 0;
+		}
+		return new int[] {bestOffset, bestScore};
+	}
+
+	private static int hash(byte[] data, int offset)
+	{
+		long value = 0;
+		for (int i = offset; i < offset + SEQUENCE_LENGTH; i++)
+		{
+			value = (value << 8) | (data[i] & 0xFF);
+		}
+		return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+	}
+
+	private static byte[] concat(List<byte[]> samples)
+	{
+		int length = 0;
+		for (byte[] sample : samples)
+		{
+			length += sample.length;
+		}
+		byte[] corpus = new byte[length];
+		int offset = 0;
+		for (byte[] sample : samples)
+		{
+			System.arraycopy(sample, 0, corpus, offset, sample.length);
+			offset += sample.length;
+		}
+		return corpus;
+	}
+}
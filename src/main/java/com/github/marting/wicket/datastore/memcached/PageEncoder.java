@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.util.lang.Args;
+
+/**
+ * Converts the serialized pages to the payloads stored in Memcached and back.
+ *
+ * Each payload starts with a header byte:
+ * <ul>
+ *     <li>{@value #RAW_HEADER} - the page follows as is</li>
+ *     <li>{@value #RAW_HEADER} + the compressor id - the page is compressed by that compressor</li>
+ *     <li>{@value #DELTA_HEADER}, possibly + the compressor id - the same for a {@link PageDelta}</li>
+ * </ul>
+ * The pages stored before the header existed get a {@value #RAW_HEADER} header
+ * from {@link PageTranscoder}, which tells them apart by their flags.
+ */
+class PageEncoder
+{
+	/**
+	 * The header of a payload with an uncompressed page
+	 */
+	static final int RAW_HEADER = 0xF0;
+
+	/**
+	 * The header of a payload with an uncompressed page delta
+	 */
+	static final int DELTA_HEADER = 0xD0;
+
+	/**
+	 * The mask for the compressor id in the header
+	 */
+	private static final int COMPRESSOR_MASK = 0x0F;
+
+	/**
+	 * The weight of the latest page in the moving average of the compression ratio
+	 */
+	private static final double RATIO_SMOOTHING = 0.1;
+
+	/**
+	 * When compression is not worth it one page in so many is compressed anyway
+	 * to notice when the pages become compressible again
+	 */
+	private static final int SAMPLE_INTERVAL = 32;
+
+	/**
+	 * The compressor used for new pages or {@code null}
+	 */
+	private final IPageCompressor compressor;
+
+	/**
+	 * The compressors by id, used for reading
+	 */
+	private final IPageCompressor[] compressors = new IPageCompressor[COMPRESSOR_MASK + 1];
+
+	private final int threshold;
+
+	private final double maxRatio;
+
+	private final boolean adaptive;
+
+	/**
+	 * Moving average of the compressed/uncompressed sizes
+	 */
+	private volatile double averageRatio;
+
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param settings the compression settings
+	 */
+	PageEncoder(IMemcachedSettings settings)
+	{
+		this(settings, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param settings             the compression settings
+	 * @param dictionaryCompressor the compressor with the trained dictionaries,
+	 *                             {@code null} if the dictionary compression is disabled
+	 */
+	PageEncoder(IMemcachedSettings settings, IPageCompressor dictionaryCompressor)
+	{
+		Args.notNull(settings, "settings");
+
+		register(new DeflatePageCompressor());
+		if (settings.getPageCompressor() != null)
+		{
+			register(settings.getPageCompressor());
+		}
+		if (dictionaryCompressor != null)
+		{
+			Args.isTrue(compressors[dictionaryCompressor.getId()] == null,
+					"The id %s of the page compressor is reserved for the dictionary compression",
+					dictionaryCompressor.getId());
+			register(dictionaryCompressor);
+		}
+		this.compressor = dictionaryCompressor != null ? dictionaryCompressor : settings.getPageCompressor();
+		this.threshold = (int) settings.getCompressionThreshold().bytes();
+		this.maxRatio = settings.getMaxCompressionRatio();
+		this.adaptive = settings.isAdaptiveCompression();
+	}
+
+	private void register(IPageCompressor pageCompressor)
+	{
+		int id = pageCompressor.getId();
+		Args.withinRange(1, COMPRESSOR_MASK - 1, id, "id");
+		compressors[id] = pageCompressor;
+	}
+
+	/**
+	 * @param page the serialized page
+	 * @return the payload to store in Memcached
+	 */
+	byte[] encode(byte[] page)
+	{
+		return encode(RAW_HEADER, page);
+	}
+
+	/**
+	 * @param delta the delta of a page
+	 * @return the payload to store in Memcached
+	 */
+	byte[] encodeDelta(byte[] delta)
+	{
+		return encode(DELTA_HEADER, delta);
+	}
+
+	private byte[] encode(int header, byte[] data)
+	{
+		if (compressor != null && data.length >= threshold && shouldCompress())
+		{
+			byte[] compressed = compressor.compress(data);
+			double ratio = (double) compressed.length / data.length;
+			averageRatio = averageRatio == 0 ? ratio : averageRatio + RATIO_SMOOTHING * (ratio - averageRatio);
+
+			if (ratio <= maxRatio)
+			{
+				return withHeader(header | compressor.getId(), compressed);
+			}
+		}
+		return withHeader(header, data);
+	}
+
+	/**
+	 * @param payload the payload stored in Memcached
+	 * @return {@code true} if the payload holds a {@link PageDelta}
+	 */
+	static boolean isDelta(byte[] payload)
+	{
+		return payload.length > 0 && ((payload[0] & 0xFF) & ~COMPRESSOR_MASK) == DELTA_HEADER;
+	}
+
+	/**
+	 * @param payload the payload stored in Memcached
+	 * @return the serialized page, or the page delta if {@link #isDelta(byte[])},
+	 *          {@code null} if the compressor cannot decompress it anymore
+	 */
+	byte[] decode(byte[] payload)
+	{
+		if (payload.length == 0)
+		{
+			return payload;
+		}
+
+		int header = payload[0] & 0xFF;
+		if (isDelta(payload))
+		{
+			// decoded like the payload of a page
+			header = RAW_HEADER | (header & COMPRESSOR_MASK);
+		}
+		if (header == RAW_HEADER)
+		{
+			byte[] page = new byte[payload.length - 1];
+			System.arraycopy(payload, 1, page, 0, page.length);
+			return page;
+		}
+		else if ((header & ~COMPRESSOR_MASK) == RAW_HEADER)
+		{
+			IPageCompressor pageCompressor = compressors[header & COMPRESSOR_MASK];
+			if (pageCompressor == null)
+			{
+				throw new WicketRuntimeException("No page compressor with id " + (header & COMPRESSOR_MASK));
+			}
+			return pageCompressor.decompress(payload, 1, payload.length - 1);
+		}
+
+		throw new WicketRuntimeException("Unknown page header " + Integer.toHexString(header));
+	}
+
+	/**
+	 * @return the moving average of the compressed/uncompressed size
+	 */
+	double getAverageRatio()
+	{
+		return averageRatio;
+	}
+
+	/**
+	 * In adaptive mode the pages are not compressed while the recent pages
+	 * did not compress well, except for a sample to keep measuring.
+	 *
+	 * @return {@code true} if the next page should be compressed
+	 */
+	private boolean shouldCompress()
+	{
+		if (adaptive && averageRatio > maxRatio)
+		{
+			return skipped.incrementAndGet() % SAMPLE_INTERVAL == 0;
+		}
+		return true;
+	}
+
+	/**
+	 * @param header the header byte
+	 * @param data   the page or the delta
+	 * @return the payload with the header
+	 */
+	static byte[] withHeader(int header, byte[] data)
+	{
+		byte[] payload = new byte[data.length + 1];
+		payload[0] = (byte) header;
+		System.arraycopy(data, 0, payload, 1, data.length);
+		return payload;
+	}
+}
@@ -0,0 +1,774 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Arrays;
+
+/**
+ * The ids of the pages stored for a session.
+ *
+ * The ids are kept in a primitive array, ordered from the least to the most
+ * recently stored page. A session rarely has more than a few dozens of pages
+ * so the linear lookups are cheaper than any hashing or tree structure.
+ *
+ * All methods are synchronized because the index is used by the request
+ * threads, by the listener threads of MemcachedClient and by the SessionReaper.
+ */
+final class PageIdIndex
+{
+	private static final int INITIAL_CAPACITY = 4;
+
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * The deadline of a page which does not expire
+	 */
+	private static final int NEVER = Integer.MAX_VALUE;
+
+	/**
+	 * The origin of the deadlines, in milliseconds
+	 */
+	private static final long EPOCH = System.currentTimeMillis();
+
+	private int[] pageIds = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The number of chunks per page, parallel to {@link #pageIds}.
+	 * Allocated only when a page of the session is split into chunks.
+	 */
+	private int[] chunkCounts;
+
+	/**
+	 * The sizes of the stored payloads, parallel to {@link #pageIds}.
+	 * Allocated only when a size is known.
+	 */
+	private int[] sizes;
+
+	/**
+	 * When the pages expire in Memcached, in seconds since {@link #EPOCH}
+	 * rounded up, parallel to {@link #pageIds}. Allocated only when a page
+	 * of the session expires.
+	 */
+	private int[] deadlines;
+
+	/**
+	 * The negative ids of the keyframes the pages are encoded against, 0 if not
+	 * encoded as a delta, parallel to {@link #pageIds}. Allocated only when
+	 * a keyframe of the session is stored.
+	 */
+	private int[] keyframeIds;
+
+	private int size;
+
+	/**
+	 * The sum of {@link #sizes}
+	 */
+	private long totalSize;
+
+	/**
+	 * Set when the session is removed. An invalidated index does not accept new pages.
+	 */
+	private boolean invalidated;
+
+	/**
+	 * The number of entries appended to the shared index by this node
+	 * since the shared index was compacted
+	 */
+	private int sharedIndexAppends;
+
+	/**
+	 * Whether the shared index is being compacted
+	 */
+	private boolean compacting;
+
+	/**
+	 * The generation of the session when the pages are invalidated by generation,
+	 * -1 if not read yet
+	 */
+	private long generation = -1;
+
+	/**
+	 * When the expiration of the generation was extended for the last time, in milliseconds
+	 */
+	private long generationRefreshedAt;
+
+	/**
+	 * When the expiration of the pages was extended for the last time, in milliseconds
+	 */
+	private long touchedAt;
+
+	/**
+	 * The prefix of the keys of the session, {@code null} if not created yet
+	 */
+	private String keyPrefix;
+
+	/**
+	 * The keyframe the pages are encoded against, {@code null} if not created yet
+	 */
+	private DeltaChain deltaChain;
+
+	/**
+	 * The pages stored in the fallback data store while the circuit breaker was open,
+	 * their copies in Memcached are stale. Allocated only when a page is stored there.
+	 */
+	private int[] fallbackPageIds;
+
+	/**
+	 * Adds a page id as the most recently stored one
+	 *
+	 * @param pageId     the id of the page
+	 * @param chunkCount the number of chunks of the page, 0 if not split
+	 * @return {@code false} if the index is invalidated
+	 */
+	synchronized boolean add(int pageId, int chunkCount)
+	{
+		return add(pageId, chunkCount, 0);
+	}
+
+	/**
+	 * Adds a page id as the most recently stored one
+	 *
+	 * @param pageId      the id of the page
+	 * @param chunkCount  the number of chunks of the page, 0 if not split
+	 * @param payloadSize the size of the stored payload, 0 if not known
+	 * @return {@code false} if the index is invalidated
+	 */
+	synchronized boolean add(int pageId, int chunkCount, int payloadSize)
+	{
+		return add(pageId, chunkCount, payloadSize, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Adds a page id as the most recently stored one
+	 *
+	 * @param pageId      the id of the page
+	 * @param chunkCount  the number of chunks of the page, 0 if not split
+	 * @param payloadSize the size of the stored payload, 0 if not known
+	 * @param deadline    when the page expires in Memcached in milliseconds,
+	 *                    {@link Long#MAX_VALUE} if it does not expire
+	 * @return {@code false} if the index is invalidated
+	 */
+	synchronized boolean add(int pageId, int chunkCount, int payloadSize, long deadline)
+	{
+		return add(pageId, chunkCount, payloadSize, deadline, 0);
+	}
+
+	/**
+	 * Adds a page id as the most recently stored one
+	 *
+	 * @param pageId      the id of the page
+	 * @param chunkCount  the number of chunks of the page, 0 if not split
+	 * @param payloadSize the size of the stored payload, 0 if not known
+	 * @param deadline    when the page expires in Memcached in milliseconds,
+	 *                    {@link Long#MAX_VALUE} if it does not expire
+	 * @param keyframeId  the id of the keyframe the page is encoded against,
+	 *                    0 if not encoded as a delta
+	 * @return {@code false} if the index is invalidated
+	 */
+	synchronized boolean add(int pageId, int chunkCount, int payloadSize, long deadline, int keyframeId)
+	{
+		if (invalidated)
+		{
+			return false;
+		}
+
+		clearFallback(pageId);
+		int index = indexOf(pageId);
+		if (index >= 0)
+		{
+			removeAt(index);
+		}
+		else if (size == pageIds.length)
+		{
+			pageIds = Arrays.copyOf(pageIds, size * 2);
+			if (chunkCounts != null)
+			{
+				chunkCounts = Arrays.copyOf(chunkCounts, size * 2);
+			}
+			if (sizes != null)
+			{
+				sizes = Arrays.copyOf(sizes, size * 2);
+			}
+			if (deadlines != null)
+			{
+				deadlines = Arrays.copyOf(deadlines, size * 2);
+			}
+			if (keyframeIds != null)
+			{
+				keyframeIds = Arrays.copyOf(keyframeIds, size * 2);
+			}
+		}
+
+		pageIds[size] = pageId;
+		if (chunkCount > 0 && chunkCounts == null)
+		{
+			chunkCounts = new int[pageIds.length];
+		}
+		if (chunkCounts != null)
+		{
+			chunkCounts[size] = chunkCount;
+		}
+		if (payloadSize > 0 && sizes == null)
+		{
+			sizes = new int[pageIds.length];
+		}
+		if (sizes != null)
+		{
+			sizes[size] = payloadSize;
+			totalSize += payloadSize;
+		}
+		int seconds = toSeconds(deadline);
+		if (seconds != NEVER && deadlines == null)
+		{
+			deadlines = new int[pageIds.length];
+			Arrays.fill(deadlines, NEVER);
+		}
+		if (deadlines != null)
+		{
+			deadlines[size] = seconds;
+		}
+		if ((keyframeId != 0 || pageId < 0) && keyframeIds == null)
+		{
+			// a keyframe or a page encoded against one
+			keyframeIds = new int[pageIds.length];
+		}
+		if (keyframeIds != null)
+		{
+			keyframeIds[size] = keyframeId;
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * @param pageId the id of the page
+	 * @return {@code true} if the page is in the index
+	 */
+	synchronized boolean contains(int pageId)
+	{
+		return indexOf(pageId) >= 0;
+	}
+
+	/**
+	 * @param pageId the id of the page
+	 * @return the number of chunks of the page, 0 if not split or not in the index
+	 */
+	synchronized int getChunkCount(int pageId)
+	{
+		int index = chunkCounts != null ? indexOf(pageId) : -1;
+		return index >= 0 ? chunkCounts[index] : 0;
+	}
+
+	/**
+	 * Removes a page id
+	 *
+	 * @param pageId the id of the page
+	 * @return {@code true} if the page was in the index
+	 */
+	synchronized boolean remove(int pageId)
+	{
+		clearFallback(pageId);
+		int index = indexOf(pageId);
+		if (index >= 0)
+		{
+			removeAt(index);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a page id and marks the page as stored in the fallback data store,
+	 * so its copy in Memcached is not read until the page is stored there again
+	 *
+	 * @param pageId the id of the page
+	 */
+	synchronized void moveToFallback(int pageId)
+	{
+		int index = indexOf(pageId);
+		if (index >= 0)
+		{
+			removeAt(index);
+		}
+		if (fallbackPageIds == null)
+		{
+			fallbackPageIds = new int[] {pageId};
+		}
+		else if (!isInFallback(pageId))
+		{
+			fallbackPageIds = Arrays.copyOf(fallbackPageIds, fallbackPageIds.length + 1);
+			fallbackPageIds[fallbackPageIds.length - 1] = pageId;
+		}
+	}
+
+	/**
+	 * @param pageId the id of the page
+	 * @return {@code true} if the page was stored in the fallback data store
+	 *          after it was stored in Memcached
+	 */
+	synchronized boolean isInFallback(int pageId)
+	{
+		return fallbackIndexOf(pageId) >= 0;
+	}
+
+	/**
+	 * @return the number of pages in the index
+	 */
+	synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the sum of the sizes of the stored payloads
+	 */
+	synchronized long getTotalSize()
+	{
+		return totalSize;
+	}
+
+	/**
+	 * Removes the least recently stored pages until there are at most
+	 * {@code maxPages} pages of at most {@code maxSize} bytes in total.
+	 * The most recently stored page is never removed.
+	 *
+	 * The keyframes do not count toward the quota. A keyframe is removed
+	 * together with the last page encoded against it, unless it is the most
+	 * recently stored keyframe which the next pages are encoded against.
+	 *
+	 * @param maxPages the maximum number of pages
+	 * @param maxSize  the maximum sum of the sizes of the payloads
+	 * @return the removed pages, {@code null} if none
+	 */
+	synchronized PageIdIndex evict(int maxPages, long maxSize)
+	{
+		int pages = size;
+		long pagesSize = totalSize;
+		int currentKeyframe = -1;
+		for (int i = 0; keyframeIds != null && i < size; i++)
+		{
+			if (pageIds[i] < 0)
+			{
+				pages--;
+				pagesSize -= sizes != null ? sizes[i] : 0;
+				currentKeyframe = i;
+			}
+		}
+
+		boolean[] removed = null;
+		for (int i = 0; i < size && pages > 1 && (pages > maxPages || pagesSize > maxSize); i++)
+		{
+			if (pageIds[i] >= 0)
+			{
+				if (removed == null)
+				{
+					removed = new boolean[size];
+				}
+				removed[i] = true;
+				pages--;
+				pagesSize -= sizes != null ? sizes[i] : 0;
+			}
+		}
+		if (removed == null)
+		{
+			return null;
+		}
+
+		for (int i = 0; keyframeIds != null && i < size; i++)
+		{
+			if (pageIds[i] < 0 && i != currentKeyframe && !isKeyframeUsed(pageIds[i], removed))
+			{
+				removed[i] = true;
+			}
+		}
+
+		PageIdIndex evicted = new PageIdIndex();
+		for (int i = 0; i < size; i++)
+		{
+			if (removed[i])
+			{
+				evicted.add(pageIds[i], chunkCounts != null ? chunkCounts[i] : 0, sizes != null ? sizes[i] : 0,
+						getDeadline(i));
+			}
+		}
+		for (int i = size - 1; i >= 0; i--)
+		{
+			if (removed[i])
+			{
+				removeAt(i);
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Removes a page id if the page has expired in Memcached
+	 *
+	 * @param pageId the id of the page
+	 * @param now    the current time in milliseconds
+	 * @return {@code true} if the page was in the index and has expired
+	 */
+	synchronized boolean removeIfExpired(int pageId, long now)
+	{
+		int index = deadlines != null ? indexOf(pageId) : -1;
+		if (index >= 0 && getDeadline(index) <= now)
+		{
+			removeAt(index);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the pages which have expired in Memcached
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the number of removed pages
+	 */
+	synchronized int removeExpired(long now)
+	{
+		int removed = 0;
+		if (deadlines != null)
+		{
+			for (int i = size - 1; i >= 0; i--)
+			{
+				if (getDeadline(i) <= now)
+				{
+					removeAt(i);
+					removed++;
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * @return when the first page expires in Memcached in milliseconds,
+	 *          {@link Long#MAX_VALUE} if no page expires
+	 */
+	synchronized long getNextDeadline()
+	{
+		long next = Long.MAX_VALUE;
+		for (int i = 0; deadlines != null && i < size; i++)
+		{
+			next = Math.min(next, getDeadline(i));
+		}
+		return next;
+	}
+
+	/**
+	 * Postpones the deadlines of all pages, e.g. when their expiration is extended
+	 *
+	 * @param deadline the new deadline in milliseconds
+	 */
+	synchronized void extendDeadlines(long deadline)
+	{
+		int seconds = toSeconds(deadline);
+		for (int i = 0; deadlines != null && i < size; i++)
+		{
+			deadlines[i] = Math.max(deadlines[i], seconds);
+		}
+	}
+
+	/**
+	 * @return a copy of the page ids from the least to the most recently stored
+	 */
+	synchronized int[] getPageIds()
+	{
+		return size > 0 ? Arrays.copyOf(pageIds, size) : EMPTY;
+	}
+
+	/**
+	 * Marks the index as invalidated so no more pages are added to it
+	 *
+	 * @return the page ids in the index
+	 */
+	synchronized int[] invalidate()
+	{
+		invalidated = true;
+		return getPageIds();
+	}
+
+	/**
+	 * Marks the index as invalidated if it has no pages, neither in Memcached
+	 * nor in the fallback data store
+	 *
+	 * @return {@code true} if the index is empty and invalidated
+	 */
+	synchronized boolean invalidateIfEmpty()
+	{
+		if (size == 0 && fallbackPageIds == null)
+		{
+			invalidated = true;
+		}
+		return invalidated && size == 0;
+	}
+
+	/**
+	 * @return {@code true} if the session of this index is removed
+	 */
+	synchronized boolean isInvalidated()
+	{
+		return invalidated;
+	}
+
+	/**
+	 * @return the number of entries appended to the shared index by this node,
+	 *          including the current one
+	 */
+	synchronized int incrementSharedIndexAppends()
+	{
+		return ++sharedIndexAppends;
+	}
+
+	/**
+	 * @return {@code true} if the shared index is not being compacted already,
+	 *          so the caller should compact it
+	 */
+	synchronized boolean startCompaction()
+	{
+		if (compacting)
+		{
+			return false;
+		}
+		compacting = true;
+		return true;
+	}
+
+	/**
+	 * Called after the compaction of the shared index has completed
+	 *
+	 * @param compacted {@code false} if the index could not be compacted,
+	 *                  so it is compacted again after the next append
+	 */
+	synchronized void compactionCompleted(boolean compacted)
+	{
+		compacting = false;
+		if (compacted)
+		{
+			sharedIndexAppends = 0;
+		}
+	}
+
+	/**
+	 * @return the generation of the session, -1 if not read yet
+	 */
+	synchronized long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * @param generation the generation of the session read from Memcached
+	 */
+	synchronized void setGeneration(long generation)
+	{
+		this.generation = generation;
+	}
+
+	/**
+	 * Checks whether the expiration of the generation should be extended
+	 * and if so, marks it as extended
+	 *
+	 * @param now      the current time in milliseconds
+	 * @param interval the minimum time between two extensions in milliseconds
+	 * @return {@code true} if the expiration should be extended now
+	 */
+	synchronized boolean refreshGeneration(long now, long interval)
+	{
+		if (now - generationRefreshedAt >= interval)
+		{
+			generationRefreshedAt = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the expiration of the pages should be extended
+	 * and if so, marks them as extended
+	 *
+	 * @param now      the current time in milliseconds
+	 * @param interval the minimum time between two extensions in milliseconds
+	 * @return {@code true} if the expiration should be extended now
+	 */
+	synchronized boolean touch(long now, long interval)
+	{
+		if (now - touchedAt >= interval)
+		{
+			touchedAt = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the prefix of the keys of the session, {@code null} if not created yet
+	 */
+	synchronized String getKeyPrefix()
+	{
+		return keyPrefix;
+	}
+
+	/**
+	 * @param keyPrefix the prefix of the keys of the session
+	 */
+	synchronized void setKeyPrefix(String keyPrefix)
+	{
+		this.keyPrefix = keyPrefix;
+	}
+
+	/**
+	 * @return the keyframe the pages of the session are encoded against, created if missing
+	 */
+	synchronized DeltaChain getDeltaChain()
+	{
+		if (deltaChain == null)
+		{
+			deltaChain = new DeltaChain();
+		}
+		return deltaChain;
+	}
+
+	/**
+	 * @return the keyframe the pages of the session are encoded against, {@code null} if not created yet
+	 */
+	synchronized DeltaChain peekDeltaChain()
+	{
+		return deltaChain;
+	}
+
+	private int indexOf(int pageId)
+	{
+		// the recently stored pages are more likely to be looked up
+		for (int i = size - 1; i >= 0; i--)
+		{
+			if (pageIds[i] == pageId)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int fallbackIndexOf(int pageId)
+	{
+		if (fallbackPageIds != null)
+		{
+			for (int i = 0; i < fallbackPageIds.length; i++)
+			{
+				if (fallbackPageIds[i] == pageId)
+				{
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private void clearFallback(int pageId)
+	{
+		int index = fallbackIndexOf(pageId);
+		if (index < 0)
+		{
+			return;
+		}
+		if (fallbackPageIds.length == 1)
+		{
+			fallbackPageIds = null;
+		}
+		else
+		{
+			int[] remaining = new int[fallbackPageIds.length - 1];
+			System.arraycopy(fallbackPageIds, 0, remaining, 0, index);
+			System.arraycopy(fallbackPageIds, index + 1, remaining, index, remaining.length - index);
+			fallbackPageIds = remaining;
+		}
+	}
+
+	/**
+	 * @param keyframeId the id of a keyframe
+	 * @param removed    the pages being removed
+	 * @return {@code true} if a page which is kept is encoded against the keyframe
+	 */
+	private boolean isKeyframeUsed(int keyframeId, boolean[] removed)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			if (!removed[i] && keyframeIds[i] == keyframeId)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private long getDeadline(int index)
+	{
+		int seconds = deadlines != null ? deadlines[index] : NEVER;
+		return seconds != NEVER ? EPOCH + seconds * 1000L : Long.MAX_VALUE;
+	}
+
+	private static int toSeconds(long deadline)
+	{
+		if (deadline == Long.MAX_VALUE)
+		{
+			return NEVER;
+		}
+		// rounded up, a page must not be seen as expired before Memcached expires it
+		long seconds = (deadline - EPOCH + 999) / 1000;
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(NEVER - 1, seconds));
+	}
+
+	private void removeAt(int index)
+	{
+		removeRange(index, 1);
+	}
+
+	private void removeRange(int index, int count)
+	{
+		if (sizes != null)
+		{
+			for (int i = index; i < index + count; i++)
+			{
+				totalSize -= sizes[i];
+			}
+		}
+		int tail = size - index - count;
+		if (tail > 0)
+		{
+			System.arraycopy(pageIds, index + count, pageIds, index, tail);
+			if (chunkCounts != null)
+			{
+				System.arraycopy(chunkCounts, index + count, chunkCounts, index, tail);
+			}
+			if (sizes != null)
+			{
+				System.arraycopy(sizes, index + count, sizes, index, tail);
+			}
+			if (deadlines != null)
+			{
+				System.arraycopy(deadlines, index + count, deadlines, index, tail);
+			}
+			if (keyframeIds != null)
+			{
+				System.arraycopy(keyframeIds, index + count, keyframeIds, index, tail);
+			}
+		}
+		size -= count;
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.util.lang.Args;
+
+/**
+ * Builds the keys of the pages and of the other entries of a session.
+ *
+ * All keys of a session start with the same prefix, which is created once
+ * per session by {@link #getSessionPrefix(String)}. The keys are built
+ * from the prefix in a single array of the exact length, without
+ * StringBuilder and the copies when it grows.
+ *
+ * @see KeyFormat
+ */
+final class PageKeys
+{
+	private static final String SEPARATOR = "|||";
+
+	private static final String KEY_SUFFIX = SEPARATOR + "Wicket-Memcached";
+
+	private static final String GENERATION_SUFFIX = "generation" + KEY_SUFFIX;
+
+	private static final String INDEX_SUFFIX = "index" + KEY_SUFFIX;
+
+	private static final String KEYFRAME_COUNTER_SUFFIX = "keyframes" + KEY_SUFFIX;
+
+	private static final String COMPACT_GENERATION_SUFFIX = "~g";
+
+	private static final String COMPACT_INDEX_SUFFIX = "~i";
+
+	private static final String COMPACT_KEYFRAME_COUNTER_SUFFIX = "~k";
+
+	private static final String DICTIONARY_PREFIX = "dictionary" + SEPARATOR;
+
+	private static final String COMPACT_DICTIONARY_PREFIX = "~d";
+
+	/**
+	 * The number of bytes of the hash of the session id, 16 characters in base 64
+	 */
+	private static final int HASH_LENGTH = 12;
+
+	private static final char[] BASE64 =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>()
+	{
+		@Override
+		protected MessageDigest initialValue()
+		{
+			try
+			{
+				return MessageDigest.getInstance("MD5");
+			}
+			catch (NoSuchAlgorithmException nsax)
+			{
+				throw new WicketRuntimeException("MD5 is not available", nsax);
+			}
+		}
+	};
+
+	private final boolean compact;
+
+	private final int radix;
+
+	private final String namespace;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param format    the format of the keys
+	 * @param namespace the prefix of the compact keys
+	 */
+	PageKeys(KeyFormat format, String namespace)
+	{
+		this.compact = Args.notNull(format, "format") == KeyFormat.COMPACT;
+		this.radix = compact ? 36 : 10;
+		this.namespace = Args.notNull(namespace, "namespace");
+	}
+
+	/**
+	 * @param sessionId the id of the http session
+	 * @return the prefix of all keys of the session
+	 */
+	String getSessionPrefix(String sessionId)
+	{
+		if (!compact)
+		{
+			return sessionId.concat(SEPARATOR);
+		}
+
+		byte[] hash = MD5.get().digest(sessionId.getBytes(UTF_8));
+		char[] prefix = new char[namespace.length() + HASH_LENGTH / 3 * 4];
+		namespace.getChars(0, namespace.length(), prefix, 0);
+		int offset = namespace.length();
+		for (int i = 0; i < HASH_LENGTH; i += 3)
+		{
+			int bits = (hash[i] & 0xFF) << 16 | (hash[i + 1] & 0xFF) << 8 | (hash[i + 2] & 0xFF);
+			prefix[offset++] = BASE64[bits >>> 18];
+			prefix[offset++] = BASE64[(bits >>> 12) & 0x3F];
+			prefix[offset++] = BASE64[(bits >>> 6) & 0x3F];
+			prefix[offset++] = BASE64[bits & 0x3F];
+		}
+		return new String(prefix);
+	}
+
+	/**
+	 * @param sessionPrefix the prefix of the keys of the session
+	 * @param pageId        the id of the page
+	 * @return the key of the page
+	 */
+	String getPageKey(String sessionPrefix, int pageId)
+	{
+		return join(sessionPrefix, pageId, compact ? "" : KEY_SUFFIX);
+	}
+
+	/**
+	 * @param sessionPrefix the prefix of the keys of the session
+	 * @param generation    the generation of the session
+	 * @param pageId        the id of the page
+	 * @return the key of the page when the pages are invalidated by generation
+	 */
+	String getPageKey(String sessionPrefix, long generation, int pageId)
+	{
+		return join(join(sessionPrefix, generation, compact ? "." : SEPARATOR), pageId, compact ? "" : KEY_SUFFIX);
+	}
+
+	/**
+	 * @param sessionPrefix the prefix of the keys of the session
+	 * @return the key of the generation of the session
+	 */
+	String getGenerationKey(String sessionPrefix)
+	{
+		return sessionPrefix.concat(compact ? COMPACT_GENERATION_SUFFIX : GENERATION_SUFFIX);
+	}
+
+	/**
+	 * @param sessionPrefix the prefix of the keys of the session
+	 * @return the key of the shared index of the pages of the session
+	 */
+	String getIndexKey(String sessionPrefix)
+	{
+		return sessionPrefix.concat(compact ? COMPACT_INDEX_SUFFIX : INDEX_SUFFIX);
+	}
+
+	/**
+	 * @param sessionPrefix the prefix of the keys of the session
+	 * @return the key of the counter of the ids of the keyframes of the session
+	 */
+	String getKeyframeCounterKey(String sessionPrefix)
+	{
+		return sessionPrefix.concat(compact ? COMPACT_KEYFRAME_COUNTER_SUFFIX : KEYFRAME_COUNTER_SUFFIX);
+	}
+
+	/**
+	 * @param dictionaryId the id of a compression dictionary
+	 * @return the key of the dictionary, shared by all sessions
+	 */
+	String getDictionaryKey(int dictionaryId)
+	{
+		long id = dictionaryId & 0xFFFFFFFFL;
+		return compact
+				? join(namespace + COMPACT_DICTIONARY_PREFIX, id, "")
+				: join(DICTIONARY_PREFIX, id, KEY_SUFFIX);
+	}
+
+	/**
+	 * @return the prefix, the number and the suffix, built in a single array
+	 */
+	private String join(String prefix, long number, String suffix)
+	{
+		if (number < 0)
+		{
+			return prefix + Long.toString(number, radix) + suffix;
+		}
+
+		int digits = 1;
+		for (long rest = number / radix; rest > 0; rest /= radix)
+		{
+			digits++;
+		}
+
+		char[] key = new char[prefix.length() + digits + suffix.length()];
+		prefix.getChars(0, prefix.length(), key, 0);
+		int offset = prefix.length() + digits;
+		suffix.getChars(0, suffix.length(), key, offset);
+		long rest = number;
+		do
+		{
+			key[--offset] = DIGITS[(int) (rest % radix)];
+			rest /= radix;
+		}
+		while (rest > 0);
+		return new String(key);
+	}
+}
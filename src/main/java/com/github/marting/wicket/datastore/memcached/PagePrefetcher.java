@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the pages read ahead together with a requested page.
+ *
+ * When a page is read, the pages stored right before it are likely to be
+ * requested next (e.g. with the back button). They are read with the same
+ * multi-get and kept for a short time in a buffer per session. A page is
+ * taken out of the buffer when used, stored again or removed.
+ */
+final class PagePrefetcher
+{
+	/**
+	 * The expired buffers are removed once per this many prefetches
+	 */
+	private static final int CLEAN_UP_INTERVAL = 256;
+
+	private final int count;
+
+	private final long timeToLive;
+
+	private final ConcurrentMap<String, Buffer> buffers = new ConcurrentHashMap<String, Buffer>();
+
+	private final AtomicLong prefetches = new AtomicLong();
+
+	private final AtomicLong prefetched = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param count      the maximum number of pages to read ahead
+	 * @param timeToLive how long to keep the pages read ahead, in milliseconds
+	 */
+	PagePrefetcher(int count, long timeToLive)
+	{
+		this.count = count;
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * @param pageIds the ids of the pages of the session, from the least recently stored
+	 * @param pageId  the id of the requested page
+	 * @return the ids of the pages stored right before the requested one,
+	 *          from the most recently stored
+	 */
+	int[] getNeighbours(int[] pageIds, int pageId)
+	{
+		int position = pageIds.length - 1;
+		while (position >= 0 && pageIds[position] != pageId)
+		{
+			position--;
+		}
+
+		int[] neighbours = new int[Math.max(0, Math.min(count, position))];
+		int length = 0;
+		for (int i = position - 1; i >= 0 && length < neighbours.length; i--)
+		{
+			// the keyframes of the delta encoding are not pages
+			if (pageIds[i] >= 0)
+			{
+				neighbours[length++] = pageIds[i];
+			}
+		}
+		return length == neighbours.length ? neighbours : Arrays.copyOf(neighbours, length);
+	}
+
+	/**
+	 * Keeps the pages read ahead, replacing the previous ones of the session
+	 *
+	 * @param sessionId the id of the http session
+	 * @param pageIds   the ids of the pages read ahead
+	 * @param payloads  the payloads of the pages, {@code null} for the missing ones
+	 */
+	void put(String sessionId, int[] pageIds, byte[][] payloads)
+	{
+		long now = System.currentTimeMillis();
+		if (prefetches.incrementAndGet() % CLEAN_UP_INTERVAL == 0)
+		{
+			cleanUp(now);
+		}
+
+		for (byte[] payload : payloads)
+		{
+			if (payload != null)
+			{
+				prefetched.incrementAndGet();
+			}
+		}
+		buffers.put(sessionId, new Buffer(pageIds, payloads, now + timeToLive));
+	}
+
+	/**
+	 * Takes a page read ahead out of the buffer
+	 *
+	 * @param sessionId the id of the http session
+	 * @param pageId    the id of the page
+	 * @return the payload of the page or {@code null} if it is not read ahead
+	 */
+	byte[] take(String sessionId, int pageId)
+	{
+		Buffer buffer = buffers.get(sessionId);
+		byte[] payload = null;
+		if (buffer != null)
+		{
+			if (buffer.expiresAt <= System.currentTimeMillis())
+			{
+				buffers.remove(sessionId, buffer);
+			}
+			else
+			{
+				payload = buffer.take(pageId);
+			}
+		}
+		if (payload != null)
+		{
+			hits.incrementAndGet();
+		}
+		return payload;
+	}
+
+	/**
+	 * Drops a page read ahead, e.g. because it is stored again
+	 *
+	 * @param sessionId the id of the http session
+	 * @param pageId    the id of the page
+	 */
+	void invalidate(String sessionId, int pageId)
+	{
+		Buffer buffer = buffers.get(sessionId);
+		if (buffer != null)
+		{
+			buffer.take(pageId);
+		}
+	}
+
+	/**
+	 * Drops all pages read ahead for a session
+	 *
+	 * @param sessionId the id of the http session
+	 */
+	void invalidate(String sessionId)
+	{
+		buffers.remove(sessionId);
+	}
+
+	/**
+	 * @return the statistics since the start
+	 */
+	PrefetchStatistics getStatistics()
+	{
+		return new PrefetchStatistics(prefetches.get(), prefetched.get(), hits.get());
+	}
+
+	private void cleanUp(long now)
+	{
+		Iterator<Buffer> iterator = buffers.values().iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next().expiresAt <= now)
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * The pages read ahead for a session
+	 */
+	private static final class Buffer
+	{
+		private final int[] pageIds;
+
+		private final byte[][] payloads;
+
+		private final long expiresAt;
+
+		private Buffer(int[] pageIds, byte[][] payloads, long expiresAt)
+		{
+			this.pageIds = Arrays.copyOf(pageIds, pageIds.length);
+			this.payloads = Arrays.copyOf(payloads, payloads.length);
+			this.expiresAt = expiresAt;
+		}
+
+		private synchronized byte[] take(int pageId)
+		{
+			for (int i = 0; i < pageIds.length; i++)
+			{
+				if (pageIds[i] == pageId)
+				{
+					byte[] payload = payloads[i];
+					payloads[i] = null;
+					return payload;
+				}
+			}
+			return null;
+		}
+	}
+}
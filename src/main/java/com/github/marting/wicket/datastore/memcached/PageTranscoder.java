@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes the payloads of the pages to and from Memcached as they are.
+ *
+ * Unlike the default SerializingTranscoder it never checks the type of
+ * the value and never gzips it behind our back - the pages are compressed
+ * by the {@link IPageCompressor} and split by {@link PageChunks} already.
+ * The bytes are neither copied on encoding nor on decoding.
+ *
+ * The payloads are flagged with a type SerializingTranscoder does not know,
+ * so the versions before the {@link PageEncoder} header read them as missing
+ * instead of as corrupt pages during a rolling upgrade. The byte arrays stored by
+ * SerializingTranscoder are read as pages without compression, gunzipped if needed,
+ * so their first byte is never mistaken for a header.
+ */
+final class PageTranscoder implements Transcoder<byte[]>
+{
+	private static final Logger LOG = LoggerFactory.getLogger(PageTranscoder.class);
+
+	/**
+	 * The flags of the payloads, a type after the ones of SerializingTranscoder
+	 */
+	static final int FLAGS = 0x0F00;
+
+	/**
+	 * The bits with the type of the value in SerializingTranscoder
+	 */
+	private static final int TYPE_MASK = 0xFF00;
+
+	/**
+	 * Set by SerializingTranscoder for the values it has gzipped
+	 */
+	private static final int COMPRESSED = 2;
+
+	static final PageTranscoder INSTANCE = new PageTranscoder();
+
+	private PageTranscoder()
+	{
+	}
+
+	@Override
+	public boolean asyncDecode(CachedData d)
+	{
+		return false;
+	}
+
+	@Override
+	public CachedData encode(byte[] o)
+	{
+		return new CachedData(FLAGS, o, getMaxSize());
+	}
+
+	@Override
+	public byte[] decode(CachedData d)
+	{
+		byte[] data = d.getData();
+		if ((d.getFlags() & TYPE_MASK) == FLAGS)
+		{
+			return data;
+		}
+
+		// stored by SerializingTranscoder before the payloads had a header
+		if ((d.getFlags() & COMPRESSED) != 0)
+		{
+			data = gunzip(data);
+		}
+		return data != null ? PageEncoder.withHeader(PageEncoder.RAW_HEADER, data) : null;
+	}
+
+	@Override
+	public int getMaxSize()
+	{
+		return CachedData.MAX_SIZE;
+	}
+
+	/**
+	 * @param data a value gzipped by SerializingTranscoder
+	 * @return the decompressed value or {@code null} if it is corrupt
+	 */
+	private static byte[] gunzip(byte[] data)
+	{
+		try
+		{
+			GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0)
+			{
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+		catch (IOException iox)
+		{
+			LOG.warn("Could not decompress a value stored by SerializingTranscoder", iox);
+			return null;
+		}
+	}
+}
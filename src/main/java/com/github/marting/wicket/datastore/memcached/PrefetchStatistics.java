@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * The statistics of the pages read ahead by MemcachedDataStore.
+ *
+ * Use {@link #getHitRate()} to tune {@link IMemcachedSettings#setPrefetchCount(int)}:
+ * a low hit rate means that most pages are read ahead in vain.
+ */
+public final class PrefetchStatistics
+{
+	private final long prefetches;
+
+	private final long prefetched;
+
+	private final long hits;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param prefetches the number of multi-gets which read pages ahead
+	 * @param prefetched the number of pages read ahead
+	 * @param hits       the number of pages read ahead and then requested
+	 */
+	public PrefetchStatistics(long prefetches, long prefetched, long hits)
+	{
+		this.prefetches = prefetches;
+		this.prefetched = prefetched;
+		this.hits = hits;
+	}
+
+	/**
+	 * @return the number of multi-gets which read pages ahead
+	 */
+	public long getPrefetches()
+	{
+		return prefetches;
+	}
+
+	/**
+	 * @return the number of pages read ahead
+	 */
+	public long getPrefetched()
+	{
+		return prefetched;
+	}
+
+	/**
+	 * @return the number of pages read ahead and then requested
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return the ratio of the pages read ahead which were requested, 0 if none were read ahead
+	 */
+	public double getHitRate()
+	{
+		return prefetched > 0 ? (double) hits / prefetched : 0d;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "prefetches: " + prefetches + ", prefetched: " + prefetched
+				+ ", hits: " + hits + ", hit rate: " + getHitRate();
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.Operation;
+import org.apache.wicket.util.lang.Args;
+
+/**
+ * A MemcachedNode which exposes only the state of another node, for the
+ * read-only copies of the locators. All the other methods throw
+ * {@link UnsupportedOperationException}.
+ *
+ * The same as spymemcached's MemcachedNodeROImpl, which is not visible
+ * outside of its package.
+ */
+final class ReadOnlyMemcachedNode implements MemcachedNode
+{
+	private final MemcachedNode root;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param root the node to expose
+	 */
+	ReadOnlyMemcachedNode(MemcachedNode root)
+	{
+		this.root = Args.notNull(root, "root");
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RO: " + root.toString();
+	}
+
+	@Override
+	public SocketAddress getSocketAddress()
+	{
+		return root.getSocketAddress();
+	}
+
+	@Override
+	public boolean isActive()
+	{
+		return root.isActive();
+	}
+
+	@Override
+	public int getReconnectCount()
+	{
+		return root.getReconnectCount();
+	}
+
+	@Override
+	public int getSelectionOps()
+	{
+		return root.getSelectionOps();
+	}
+
+	@Override
+	public int getBytesRemainingToWrite()
+	{
+		return root.getBytesRemainingToWrite();
+	}
+
+	@Override
+	public boolean hasReadOp()
+	{
+		return root.hasReadOp();
+	}
+
+	@Override
+	public boolean hasWriteOp()
+	{
+		return root.hasWriteOp();
+	}
+
+	@Override
+	public void copyInputQueue()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Collection<Operation> destroyInputQueue()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setupResend()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void fillWriteBuffer(boolean optimizeGets)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void transitionWriteItem()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Operation getCurrentReadOp()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Operation removeCurrentReadOp()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Operation getCurrentWriteOp()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Operation removeCurrentWriteOp()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void addOp(Operation op)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void insertOp(Operation o)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ByteBuffer getRbuf()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ByteBuffer getWbuf()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean isAuthenticated()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public long lastReadDelta()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void completedRead()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void reconnecting()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void connected()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void registerChannel(SocketChannel ch, SelectionKey selectionKey)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setChannel(SocketChannel to)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public SocketChannel getChannel()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setSk(SelectionKey to)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public SelectionKey getSk()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int writeSome()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void fixupOps()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void authComplete()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setupForAuth()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setContinuousTimeout(boolean timedOut)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int getContinuousTimeout()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
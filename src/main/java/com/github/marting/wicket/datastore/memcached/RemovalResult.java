@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * The outcome of removing the data of one or more sessions.
+ *
+ * Every key deleted from Memcached (pages, chunks, indexes)
+ * and every incremented session generation counts as one operation.
+ */
+public final class RemovalResult
+{
+	private final int operations;
+
+	private final int removed;
+
+	private final int notFound;
+
+	private final int failed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param operations the number of sent operations
+	 * @param removed    the number of successful operations
+	 * @param notFound   the number of operations for keys which were not in Memcached
+	 * @param failed     the number of failed operations
+	 */
+	public RemovalResult(int operations, int removed, int notFound, int failed)
+	{
+		this.operations = operations;
+		this.removed = removed;
+		this.notFound = notFound;
+		this.failed = failed;
+	}
+
+	/**
+	 * @return the number of sent operations
+	 */
+	public int getOperations()
+	{
+		return operations;
+	}
+
+	/**
+	 * @return the number of successful operations
+	 */
+	public int getRemoved()
+	{
+		return removed;
+	}
+
+	/**
+	 * @return the number of operations for keys which were not in Memcached,
+	 *          e.g. because they have expired
+	 */
+	public int getNotFound()
+	{
+		return notFound;
+	}
+
+	/**
+	 * @return the number of failed operations
+	 */
+	public int getFailed()
+	{
+		return failed;
+	}
+
+	/**
+	 * @return the number of operations which have not completed yet
+	 */
+	public int getPending()
+	{
+		return operations - removed - notFound - failed;
+	}
+
+	/**
+	 * @return {@code true} if all operations have completed
+	 */
+	public boolean isComplete()
+	{
+		return getPending() == 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "operations: " + operations + ", removed: " + removed + ", not found: " + notFound
+				+ ", failed: " + failed + ", pending: " + getPending();
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+/**
+ * How MemcachedDataStore removes the pages of an invalidated session.
+ */
+public enum SessionInvalidation
+{
+	/**
+	 * Deletes every page of the session, one delete operation per page
+	 * (and per chunk of a page).
+	 */
+	DELETE,
+
+	/**
+	 * Keeps a generation number per session in Memcached and puts it
+	 * into the keys of the pages. Removing a session increments its generation
+	 * with a single operation. The pages of the previous generation are not
+	 * reachable anymore and expire with their expiration time.
+	 */
+	GENERATION
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the expired pages and the sessions without pages from the index
+ * of the pages per session, so the sessions which are never removed by
+ * Wicket do not stay in the heap forever.
+ *
+ * The sessions are scheduled in a hashed timing wheel by the deadline of
+ * their first expiring page. Each tick visits the sessions of a single slot:
+ * their expired pages are removed and they are scheduled again by their next
+ * deadline, or dropped when no page is left. A session whose deadline is
+ * more than a revolution of the wheel away is just scheduled again.
+ */
+final class SessionReaper
+{
+	private static final Logger LOG = LoggerFactory.getLogger(SessionReaper.class);
+
+	/**
+	 * The number of slots of the wheel
+	 */
+	static final int WHEEL_SIZE = 256;
+
+	private final ConcurrentMap<String, PageIdIndex> indexes;
+
+	/**
+	 * The duration of a tick in milliseconds
+	 */
+	private final long tickDuration;
+
+	/**
+	 * The sessions to visit per slot, guarded by {@code this}
+	 */
+	private final List<Scheduled>[] wheel;
+
+	/**
+	 * The last visited tick, guarded by {@code this}
+	 */
+	private long lastTick;
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param indexes      the indexes of the pages by session id
+	 * @param tickDuration the duration of a tick in milliseconds
+	 * @param now          the current time in milliseconds
+	 */
+	@SuppressWarnings("unchecked")
+	SessionReaper(ConcurrentMap<String, PageIdIndex> indexes, long tickDuration, long now)
+	{
+		this.indexes = indexes;
+		this.tickDuration = tickDuration;
+		this.wheel = new List[WHEEL_SIZE];
+		this.lastTick = now / tickDuration;
+	}
+
+	/**
+	 * Starts ticking in a background thread
+	 *
+	 * @param name the name of the thread
+	 */
+	void start(final String name)
+	{
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					tick(System.currentTimeMillis());
+				}
+				catch (RuntimeException rx)
+				{
+					LOG.warn("Could not reap the expired sessions", rx);
+				}
+			}
+		}, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background thread
+	 */
+	void stop()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Schedules the visit of a new session in the next tick,
+	 * when its first pages are stored
+	 *
+	 * @param sessionId the id of the http session
+	 * @param index     the index of the pages of the session
+	 */
+	void schedule(String sessionId, PageIdIndex index)
+	{
+		schedule(new Scheduled(sessionId, index), 0);
+	}
+
+	/**
+	 * Visits the sessions of the slots up to now
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the number of dropped sessions
+	 */
+	int tick(long now)
+	{
+		int dropped = 0;
+		int removed = 0;
+		List<Scheduled> slot;
+		while ((slot = nextSlot(now)) != null)
+		{
+			for (Scheduled scheduled : slot)
+			{
+				PageIdIndex index = scheduled.index;
+				if (indexes.get(scheduled.sessionId) != index)
+				{
+					// the session has been removed meanwhile
+					continue;
+				}
+
+				removed += index.removeExpired(now);
+				if (index.invalidateIfEmpty())
+				{
+					indexes.remove(scheduled.sessionId, index);
+					dropped++;
+				}
+				else
+				{
+					schedule(scheduled, index.getNextDeadline());
+				}
+			}
+		}
+		if (removed > 0 || dropped > 0)
+		{
+			LOG.debug("Reaped {} expired pages and {} sessions without pages", removed, dropped);
+		}
+		return dropped;
+	}
+
+	/**
+	 * Takes the sessions of the next slot to visit
+	 *
+	 * @param now the current time in milliseconds
+	 * @return the sessions of the slot or {@code null} if all slots up to now are visited
+	 */
+	private synchronized List<Scheduled> nextSlot(long now)
+	{
+		long currentTick = now / tickDuration;
+		if (lastTick >= currentTick)
+		{
+			return null;
+		}
+		// after a long pause a single revolution visits all slots
+		lastTick = Math.max(lastTick, currentTick - WHEEL_SIZE) + 1;
+		int slot = (int) (lastTick % WHEEL_SIZE);
+		List<Scheduled> sessions = wheel[slot];
+		wheel[slot] = null;
+		return sessions != null ? sessions : new ArrayList<Scheduled>(0);
+	}
+
+	private synchronized void schedule(Scheduled scheduled, long deadline)
+	{
+		// visit the session in the tick after its deadline, but at most one revolution ahead
+		long tick = Math.min(deadline / tickDuration + 1, lastTick + WHEEL_SIZE);
+		tick = Math.max(tick, lastTick + 1);
+		int slot = (int) (tick % WHEEL_SIZE);
+		if (wheel[slot] == null)
+		{
+			wheel[slot] = new ArrayList<Scheduled>();
+		}
+		wheel[slot].add(scheduled);
+	}
+
+	/**
+	 * A session in the wheel
+	 */
+	private static final class Scheduled
+	{
+		private final String sessionId;
+
+		private final PageIdIndex index;
+
+		private Scheduled(String sessionId, PageIdIndex index)
+		{
+			this.sessionId = sessionId;
+			this.index = index;
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Collection;
+import java.util.Map;
+
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.transcoders.Transcoder;
+import org.apache.wicket.util.lang.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The index of the pages of a session, stored in Memcached so that
+ * all nodes in the cluster can find the pages of a session.
+ *
+ * The index is an append-only log of 8 byte entries: the page id
+ * (or its bitwise complement for a removed page) and the number of chunks
+ * of the page. Adding and removing a page is a single append.
+ * The log is compacted with gets/cas when it grows much bigger
+ * than the number of live pages. The keyframes of the deltas, stored
+ * under negative ids, are not logged: their ids would read as removed pages.
+ * They are found by the ids in the deltas and expire by themselves.
+ *
+ * Nothing here waits for Memcached: the reads return futures the data store
+ * waits for until its read deadline, and the compaction runs in the listeners
+ * of the operations.
+ */
+class SharedPageIndex
+{
+	private static final Logger LOG = LoggerFactory.getLogger(SharedPageIndex.class);
+
+	private static final int ENTRY_LENGTH = 8;
+
+	/**
+	 * How many times to retry the compaction when another node modifies the index meanwhile
+	 */
+	private static final int MAX_CAS_ATTEMPTS = 3;
+
+	private static final IndexTranscoder TRANSCODER = new IndexTranscoder();
+
+	private final MemcachedClient client;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param client the connection to Memcached
+	 */
+	SharedPageIndex(MemcachedClient client)
+	{
+		this.client = Args.notNull(client, "client");
+	}
+
+	/**
+	 * Appends a stored page to the index, creating the index if it does not exist
+	 *
+	 * @param indexKey   the key of the index
+	 * @param pageId     the id of the page
+	 * @param chunkCount the number of chunks of the page
+	 * @param expiration the expiration of the index in seconds
+	 */
+	void add(String indexKey, int pageId, int chunkCount, int expiration)
+	{
+		if (pageId < 0)
+		{
+			return;
+		}
+		append(indexKey, entry(pageId, chunkCount), expiration);
+		client.touch(indexKey, expiration);
+	}
+
+	/**
+	 * Appends a removed page to the index
+	 *
+	 * @param indexKey the key of the index
+	 * @param pageId   the id of the page
+	 */
+	void remove(String indexKey, int pageId)
+	{
+		if (pageId < 0)
+		{
+			return;
+		}
+		client.append(indexKey, entry(~pageId, 0), TRANSCODER);
+	}
+
+	/**
+	 * Starts reading the index
+	 *
+	 * @param indexKey the key of the index
+	 * @return the future of the entries of the index, to {@link #replay(byte[])}.
+	 *          The entries are {@code null} if there is no index.
+	 */
+	GetFuture<byte[]> load(String indexKey)
+	{
+		return client.asyncGet(indexKey, TRANSCODER);
+	}
+
+	/**
+	 * Starts reading the indexes of several sessions with a single multi-get
+	 *
+	 * @param indexKeys the keys of the indexes
+	 * @return the future of the entries of the existing indexes by their keys
+	 */
+	BulkFuture<Map<String, byte[]>> loadAll(Collection<String> indexKeys)
+	{
+		return client.asyncGetBulk(indexKeys, TRANSCODER);
+	}
+
+	/**
+	 * Rewrites the index with the live pages only, in the background
+	 *
+	 * @param indexKey   the key of the index
+	 * @param expiration the expiration of the index in seconds
+	 * @param local      the local index of the session, notified when the compaction completes
+	 */
+	void compact(String indexKey, int expiration, PageIdIndex local)
+	{
+		compact(indexKey, expiration, local, 1);
+	}
+
+	private void compact(final String indexKey, final int expiration, final PageIdIndex local, final int attempt)
+	{
+		final OperationFuture<CASValue<byte[]>> gets = client.asyncGets(indexKey, TRANSCODER);
+		gets.addListener(new OperationCompletionListener()
+		{
+			@Override
+			public void onComplete(OperationFuture<?> future) throws Exception
+			{
+				CASValue<byte[]> value = future.getStatus().isSuccess() ? gets.get() : null;
+				if (value == null)
+				{
+					local.compactionCompleted(false);
+					return;
+				}
+
+				PageIdIndex pages = replay(value.getValue());
+				final int[] pageIds = pages.getPageIds();
+				byte[] entries = new byte[pageIds.length * ENTRY_LENGTH];
+				for (int i = 0; i < pageIds.length; i++)
+				{
+					writeEntry(entries, i * ENTRY_LENGTH, pageIds[i], pages.getChunkCount(pageIds[i]));
+				}
+
+				final OperationFuture<CASResponse> cas =
+						client.asyncCAS(indexKey, value.getCas(), expiration, entries, TRANSCODER);
+				cas.addListener(new OperationCompletionListener()
+				{
+					@Override
+					public void onComplete(OperationFuture<?> future) throws Exception
+					{
+						CASResponse response = cas.get();
+						if (response == CASResponse.OK)
+						{
+							LOG.debug("Compacted the page index '{}' to {} pages", indexKey, pageIds.length);
+							local.compactionCompleted(true);
+						}
+						else if (response == CASResponse.EXISTS && attempt < MAX_CAS_ATTEMPTS)
+						{
+							compact(indexKey, expiration, local, attempt + 1);
+						}
+						else
+						{
+							LOG.debug("Could not compact the page index '{}': {}", indexKey, response);
+							local.compactionCompleted(false);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void append(final String indexKey, final byte[] entry, final int expiration)
+	{
+		client.append(indexKey, entry, TRANSCODER).addListener(new OperationCompletionListener()
+		{
+			@Override
+			public void onComplete(OperationFuture<?> future) throws Exception
+			{
+				if (!future.getStatus().isSuccess())
+				{
+					// there is no index yet
+					client.add(indexKey, expiration, entry, TRANSCODER).addListener(new OperationCompletionListener()
+					{
+						@Override
+						public void onComplete(OperationFuture<?> future) throws Exception
+						{
+							if (!future.getStatus().isSuccess())
+							{
+								// another node has just created it
+								client.append(indexKey, entry, TRANSCODER);
+							}
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param entries the entries of an index
+	 * @return the pages in the index
+	 */
+	static PageIdIndex replay(byte[] entries)
+	{
+		PageIdIndex pages = new PageIdIndex();
+		for (int offset = 0; offset + ENTRY_LENGTH <= entries.length; offset += ENTRY_LENGTH)
+		{
+			int pageId = DeflatePageCompressor.readInt(entries, offset);
+			if (pageId >= 0)
+			{
+				pages.add(pageId, DeflatePageCompressor.readInt(entries, offset + 4));
+			}
+			else
+			{
+				pages.remove(~pageId);
+			}
+		}
+		return pages;
+	}
+
+	private static byte[] entry(int pageId, int chunkCount)
+	{
+		byte[] entry = new byte[ENTRY_LENGTH];
+		writeEntry(entry, 0, pageId, chunkCount);
+		return entry;
+	}
+
+	private static void writeEntry(byte[] entries, int offset, int pageId, int chunkCount)
+	{
+		DeflatePageCompressor.writeInt(entries, offset, pageId);
+		DeflatePageCompressor.writeInt(entries, offset + 4, chunkCount);
+	}
+
+	/**
+	 * Stores the entries as they are. The default transcoder may compress
+	 * big values, which would break the appends.
+	 */
+	private static class IndexTranscoder implements Transcoder<byte[]>
+	{
+		@Override
+		public boolean asyncDecode(CachedData d)
+		{
+			return false;
+		}
+
+		@Override
+		public CachedData encode(byte[] o)
+		{
+			return new CachedData(0, o, getMaxSize());
+		}
+
+		@Override
+		public byte[] decode(CachedData d)
+		{
+			return d.getData();
+		}
+
+		@Override
+		public int getMaxSize()
+		{
+			return CachedData.MAX_SIZE;
+		}
+	}
+}
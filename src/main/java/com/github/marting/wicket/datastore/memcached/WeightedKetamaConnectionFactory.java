@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionObserver;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.HashAlgorithm;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.transcoders.Transcoder;
+import org.apache.wicket.util.lang.Args;
+
+/**
+ * A ConnectionFactory that uses {@link WeightedKetamaNodeLocator}.
+ *
+ * ConnectionFactoryBuilder cannot be told to use a custom locator,
+ * so everything but the locator is delegated to the ConnectionFactory
+ * built by it.
+ */
+class WeightedKetamaConnectionFactory implements ConnectionFactory
+{
+	private final ConnectionFactory delegate;
+
+	private final Map<InetSocketAddress, Integer> weights;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param delegate the factory providing all settings but the locator
+	 * @param weights  the weight of each server
+	 */
+	WeightedKetamaConnectionFactory(ConnectionFactory delegate, Map<InetSocketAddress, Integer> weights)
+	{
+		this.delegate = Args.notNull(delegate, "delegate");
+		this.weights = Args.notNull(weights, "weights");
+	}
+
+	@Override
+	public MemcachedConnection createConnection(List<InetSocketAddress> addrs) throws IOException
+	{
+		// pass 'this' so that MemcachedConnection asks us for the locator
+		return new MemcachedConnection(getReadBufSize(), this, addrs,
+				getInitialObservers(), getFailureMode(), getOperationFactory());
+	}
+
+	@Override
+	public NodeLocator createLocator(List<MemcachedNode> nodes)
+	{
+		return new WeightedKetamaNodeLocator(nodes, weights);
+	}
+
+	@Override
+	public MemcachedNode createMemcachedNode(SocketAddress sa, SocketChannel c, int bufSize)
+	{
+		return delegate.createMemcachedNode(sa, c, bufSize);
+	}
+
+	@Override
+	public BlockingQueue<Operation> createOperationQueue()
+	{
+		return delegate.createOperationQueue();
+	}
+
+	@Override
+	public BlockingQueue<Operation> createReadOperationQueue()
+	{
+		return delegate.createReadOperationQueue();
+	}
+
+	@Override
+	public BlockingQueue<Operation> createWriteOperationQueue()
+	{
+		return delegate.createWriteOperationQueue();
+	}
+
+	@Override
+	public long getOpQueueMaxBlockTime()
+	{
+		return delegate.getOpQueueMaxBlockTime();
+	}
+
+	@Override
+	public ExecutorService getListenerExecutorService()
+	{
+		return delegate.getListenerExecutorService();
+	}
+
+	@Override
+	public boolean isDefaultExecutorService()
+	{
+		return delegate.isDefaultExecutorService();
+	}
+
+	@Override
+	public OperationFactory getOperationFactory()
+	{
+		return delegate.getOperationFactory();
+	}
+
+	@Override
+	public long getOperationTimeout()
+	{
+		return delegate.getOperationTimeout();
+	}
+
+	@Override
+	public boolean isDaemon()
+	{
+		return delegate.isDaemon();
+	}
+
+	@Override
+	public boolean useNagleAlgorithm()
+	{
+		return delegate.useNagleAlgorithm();
+	}
+
+	@Override
+	public Collection<ConnectionObserver> getInitialObservers()
+	{
+		return delegate.getInitialObservers();
+	}
+
+	@Override
+	public FailureMode getFailureMode()
+	{
+		return delegate.getFailureMode();
+	}
+
+	@Override
+	public Transcoder<Object> getDefaultTranscoder()
+	{
+		return delegate.getDefaultTranscoder();
+	}
+
+	@Override
+	public boolean shouldOptimize()
+	{
+		return delegate.shouldOptimize();
+	}
+
+	@Override
+	public int getReadBufSize()
+	{
+		return delegate.getReadBufSize();
+	}
+
+	@Override
+	public HashAlgorithm getHashAlg()
+	{
+		return delegate.getHashAlg();
+	}
+
+	@Override
+	public long getMaxReconnectDelay()
+	{
+		return delegate.getMaxReconnectDelay();
+	}
+
+	@Override
+	public AuthDescriptor getAuthDescriptor()
+	{
+		return delegate.getAuthDescriptor();
+	}
+
+	@Override
+	public int getTimeoutExceptionThreshold()
+	{
+		return delegate.getTimeoutExceptionThreshold();
+	}
+
+	@Override
+	public MetricType enableMetrics()
+	{
+		return delegate.enableMetrics();
+	}
+
+	@Override
+	public MetricCollector getMetricCollector()
+	{
+		return delegate.getMetricCollector();
+	}
+}
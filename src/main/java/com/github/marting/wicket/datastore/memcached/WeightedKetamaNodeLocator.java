@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.util.DefaultKetamaNodeLocatorConfiguration;
+import org.apache.wicket.util.lang.Args;
+
+/**
+ * A Ketama consistent hashing NodeLocator in which every server
+ * gets a number of points on the continuum proportional to its weight.
+ *
+ * The points are computed the same way as by libketama and spymemcached's
+ * KetamaNodeLocator, so with equal weights the keys are mapped to the same
+ * servers as by the other Ketama clients.
+ */
+class WeightedKetamaNodeLocator implements NodeLocator
+{
+	/**
+	 * The number of points on the continuum per unit of weight
+	 */
+	private static final int POINTS_PER_WEIGHT = 160;
+
+	/**
+	 * The number of points derived from a single MD5 digest
+	 */
+	private static final int POINTS_PER_DIGEST = 4;
+
+	private final Map<InetSocketAddress, Integer> weights;
+
+	private volatile List<MemcachedNode> nodes;
+
+	private volatile TreeMap<Long, MemcachedNode> continuum;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param nodes   the Memcached nodes
+	 * @param weights the weight of each node by its address
+	 */
+	WeightedKetamaNodeLocator(List<MemcachedNode> nodes, Map<InetSocketAddress, Integer> weights)
+	{
+		this.weights = Args.notNull(weights, "weights");
+		updateLocator(nodes);
+	}
+
+	/**
+	 * Constructor for the read-only copies.
+	 *
+	 * @param nodes     the Memcached nodes
+	 * @param weights   the weight of each node by its address
+	 * @param continuum the points of the nodes
+	 */
+	private WeightedKetamaNodeLocator(List<MemcachedNode> nodes, Map<InetSocketAddress, Integer> weights,
+			TreeMap<Long, MemcachedNode> continuum)
+	{
+		this.weights = weights;
+		this.nodes = Collections.unmodifiableList(nodes);
+		this.continuum = continuum;
+	}
+
+	@Override
+	public MemcachedNode getPrimary(String key)
+	{
+		return getNodeForHash(DefaultHashAlgorithm.KETAMA_HASH.hash(key));
+	}
+
+	@Override
+	public Iterator<MemcachedNode> getSequence(String key)
+	{
+		// the other nodes in the order they follow the key on the continuum
+		MemcachedNode primary = getPrimary(key);
+		TreeMap<Long, MemcachedNode> points = continuum;
+		long hash = DefaultHashAlgorithm.KETAMA_HASH.hash(key);
+
+		int others = nodes.size() - 1;
+		Set<MemcachedNode> sequence = new LinkedHashSet<MemcachedNode>();
+		collectNodes(points.tailMap(hash, false).values(), primary, others, sequence);
+		collectNodes(points.headMap(hash, true).values(), primary, others, sequence);
+		return sequence.iterator();
+	}
+
+	@Override
+	public Collection<MemcachedNode> getAll()
+	{
+		return nodes;
+	}
+
+	@Override
+	public NodeLocator getReadonlyCopy()
+	{
+		// the same points, but on nodes which cannot be changed
+		Map<MemcachedNode, MemcachedNode> readOnly = new IdentityHashMap<MemcachedNode, MemcachedNode>();
+		List<MemcachedNode> readOnlyNodes = new ArrayList<MemcachedNode>();
+		for (MemcachedNode node : nodes)
+		{
+			readOnlyNodes.add(getReadOnly(node, readOnly));
+		}
+		TreeMap<Long, MemcachedNode> points = new TreeMap<Long, MemcachedNode>();
+		for (Map.Entry<Long, MemcachedNode> point : continuum.entrySet())
+		{
+			points.put(point.getKey(), getReadOnly(point.getValue(), readOnly));
+		}
+		return new WeightedKetamaNodeLocator(readOnlyNodes, weights, points);
+	}
+
+	@Override
+	public void updateLocator(List<MemcachedNode> nodes)
+	{
+		Args.notNull(nodes, "nodes");
+
+		DefaultKetamaNodeLocatorConfiguration configuration = new DefaultKetamaNodeLocatorConfiguration();
+		TreeMap<Long, MemcachedNode> points = new TreeMap<Long, MemcachedNode>();
+		for (MemcachedNode node : nodes)
+		{
+			int digests = POINTS_PER_WEIGHT * getWeight(node) / POINTS_PER_DIGEST;
+			for (int i = 0; i < digests; i++)
+			{
+				byte[] digest = DefaultHashAlgorithm.computeMd5(configuration.getKeyForNode(node, i));
+				for (int h = 0; h < POINTS_PER_DIGEST; h++)
+				{
+					long point = ((long) (digest[3 + h * 4] & 0xFF) << 24)
+							| ((long) (digest[2 + h * 4] & 0xFF) << 16)
+							| ((long) (digest[1 + h * 4] & 0xFF) << 8)
+							| (digest[h * 4] & 0xFF);
+					points.put(point, node);
+				}
+			}
+		}
+
+		this.nodes = Collections.unmodifiableList(new ArrayList<MemcachedNode>(nodes));
+		this.continuum = points;
+	}
+
+	/**
+	 * @param hash the hash of a key
+	 * @return the first node at or after the hash on the continuum
+	 */
+	private MemcachedNode getNodeForHash(long hash)
+	{
+		TreeMap<Long, MemcachedNode> points = continuum;
+		if (points.isEmpty())
+		{
+			return null;
+		}
+		SortedMap<Long, MemcachedNode> tail = points.tailMap(hash);
+		Long point = tail.isEmpty() ? points.firstKey() : tail.firstKey();
+		return points.get(point);
+	}
+
+	/**
+	 * @param node a Memcached node
+	 * @return the configured weight for the node, or 1 if it is unknown
+	 */
+	private int getWeight(MemcachedNode node)
+	{
+		Integer weight = weights.get(node.getSocketAddress());
+		return weight != null ? weight : 1;
+	}
+
+	/**
+	 * @param node     a Memcached node
+	 * @param readOnly the read-only copies created so far, by node
+	 * @return the read-only copy of the node
+	 */
+	private static MemcachedNode getReadOnly(MemcachedNode node, Map<MemcachedNode, MemcachedNode> readOnly)
+	{
+		MemcachedNode copy = readOnly.get(node);
+		if (copy == null)
+		{
+			copy = new ReadOnlyMemcachedNode(node);
+			readOnly.put(node, copy);
+		}
+		return copy;
+	}
+
+	private static void collectNodes(Collection<MemcachedNode> candidates, MemcachedNode primary,
+			int max, Set<MemcachedNode> sequence)
+	{
+		Iterator<MemcachedNode> iterator = candidates.iterator();
+		while (sequence.size() < max && iterator.hasNext())
+		{
+			MemcachedNode node = iterator.next();
+			if (node != primary)
+			{
+				sequence.add(node);
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the pages to store and writes them in the background.
+ *
+ * A newer version of a page replaces the queued one, so a page which is
+ * stored several times in a row is written only once. Each page has at most
+ * one write at a time, so an older version never overwrites a newer one:
+ * a version queued while the page is written waits until that write
+ * completes. At most
+ * <em>maxInFlight</em> pages are written at the same time. The callers of
+ * {@link #offer(String, int, byte[])} are blocked while the queued and
+ * the written pages take more than <em>capacity</em> bytes.
+ */
+final class WriteBehindQueue
+{
+	private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+	/**
+	 * Writes a page to Memcached
+	 */
+	interface IPageWriter
+	{
+		/**
+		 * Issues the write of a page
+		 *
+		 * @param sessionId the id of the http session
+		 * @param pageId    the id of the page
+		 * @param data      the page
+		 * @param listener  to notify when the page is written
+		 */
+		void write(String sessionId, int pageId, byte[] data, OperationCompletionListener listener);
+
+		/**
+		 * Removes a page which has been removed from the queue while it was written
+		 *
+		 * @param sessionId the id of the http session
+		 * @param pageId    the id of the page
+		 */
+		void remove(String sessionId, int pageId);
+	}
+
+	private final IPageWriter writer;
+
+	private final int maxInFlight;
+
+	private final long capacity;
+
+	/**
+	 * The pages waiting to be written, from the least recently queued
+	 */
+	private final LinkedHashMap<PageKey, byte[]> pending = new LinkedHashMap<PageKey, byte[]>();
+
+	/**
+	 * The pages taken from the queue and not completely written yet,
+	 * mapped to {@code null} if they have been removed meanwhile
+	 */
+	private final Map<PageKey, byte[]> writing = new HashMap<PageKey, byte[]>();
+
+	private int inFlight;
+
+	/**
+	 * The size of the pending and the written pages
+	 */
+	private long bytes;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param writer      writes the pages to Memcached
+	 * @param maxInFlight the maximum number of pages written at the same time
+	 * @param capacity    the maximum size of the pending and the written pages
+	 */
+	WriteBehindQueue(IPageWriter writer, int maxInFlight, long capacity)
+	{
+		this.writer = writer;
+		this.maxInFlight = maxInFlight;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Queues a page to write, replacing a queued older version of it.
+	 * Blocks while the queue is full.
+	 *
+	 * @param sessionId the id of the http session
+	 * @param pageId    the id of the page
+	 * @param data      the page
+	 */
+	void offer(String sessionId, int pageId, byte[] data)
+	{
+		PageKey key = new PageKey(sessionId, pageId);
+		synchronized (this)
+		{
+			byte[] previous = pending.remove(key);
+			if (previous != null)
+			{
+				bytes -= previous.length;
+			}
+
+			// a page bigger than the capacity is accepted when the queue is empty
+			while (bytes > 0 && bytes + data.length > capacity)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException ix)
+				{
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			pending.put(key, data);
+			bytes += data.length;
+		}
+		drain(maxInFlight);
+	}
+
+	/**
+	 * @param sessionId the id of the http session
+	 * @param pageId    the id of the page
+	 * @return the page if it is queued but not written yet, otherwise {@code null}
+	 */
+	synchronized byte[] get(String sessionId, int pageId)
+	{
+		PageKey key = new PageKey(sessionId, pageId);
+		byte[] data = pending.get(key);
+		return data != null ? data : writing.get(key);
+	}
+
+	/**
+	 * Removes a queued page
+	 *
+	 * @param sessionId the id of the http session
+	 * @param pageId    the id of the page
+	 */
+	synchronized void remove(String sessionId, int pageId)
+	{
+		PageKey key = new PageKey(sessionId, pageId);
+		byte[] data = pending.remove(key);
+		if (data != null)
+		{
+			release(data.length);
+		}
+		if (writing.containsKey(key))
+		{
+			writing.put(key, null);
+		}
+	}
+
+	/**
+	 * Removes all queued pages of a session
+	 *
+	 * @param sessionId the id of the http session
+	 */
+	synchronized void remove(String sessionId)
+	{
+		Iterator<Map.Entry<PageKey, byte[]>> entries = pending.entrySet().iterator();
+		while (entries.hasNext())
+		{
+			Map.Entry<PageKey, byte[]> entry = entries.next();
+			if (entry.getKey().sessionId.equals(sessionId))
+			{
+				entries.remove();
+				release(entry.getValue().length);
+			}
+		}
+		for (Map.Entry<PageKey, byte[]> entry : writing.entrySet())
+		{
+			if (entry.getKey().sessionId.equals(sessionId))
+			{
+				entry.setValue(null);
+			}
+		}
+	}
+
+	/**
+	 * Writes all queued pages without waiting for the pages in flight.
+	 * The newer versions of the pages in flight are written once these complete.
+	 */
+	void flush()
+	{
+		drain(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the number of pages waiting to be written
+	 */
+	synchronized int size()
+	{
+		return pending.size();
+	}
+
+	private void drain(int limit)
+	{
+		while (true)
+		{
+			final PageKey key;
+			final byte[] data;
+			synchronized (this)
+			{
+				if (inFlight >= limit)
+				{
+					return;
+				}
+				Map.Entry<PageKey, byte[]> entry = nextWritable();
+				if (entry == null)
+				{
+					return;
+				}
+				key = entry.getKey();
+				data = entry.getValue();
+				writing.put(key, data);
+				inFlight++;
+			}
+
+			try
+			{
+				writer.write(key.sessionId, key.pageId, data, new OperationCompletionListener()
+				{
+					@Override
+					public void onComplete(OperationFuture<?> future) throws Exception
+					{
+						written(key, data);
+						drain(maxInFlight);
+					}
+				});
+			}
+			catch (RuntimeException rx)
+			{
+				LOG.warn("Could not write page '{}' of session '{}'", new Object[] {key.pageId, key.sessionId, rx});
+				written(key, data);
+			}
+		}
+	}
+
+	/**
+	 * Takes the least recently queued page which is not written at the moment
+	 *
+	 * @return the page or {@code null} if there is none
+	 */
+	private Map.Entry<PageKey, byte[]> nextWritable()
+	{
+		Iterator<Map.Entry<PageKey, byte[]>> entries = pending.entrySet().iterator();
+		while (entries.hasNext())
+		{
+			Map.Entry<PageKey, byte[]> entry = entries.next();
+			if (!writing.containsKey(entry.getKey()))
+			{
+				entries.remove();
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Completes the write of a page and removes it again
+	 * if it has been removed from the queue meanwhile
+	 */
+	private void written(PageKey key, byte[] data)
+	{
+		boolean removed;
+		synchronized (this)
+		{
+			inFlight--;
+			release(data.length);
+			// a newer version overwrites the removed one anyway
+			removed = writing.remove(key) == null && !pending.containsKey(key);
+		}
+		if (removed)
+		{
+			try
+			{
+				writer.remove(key.sessionId, key.pageId);
+			}
+			catch (RuntimeException rx)
+			{
+				LOG.warn("Could not remove page '{}' of session '{}'", new Object[] {key.pageId, key.sessionId, rx});
+			}
+		}
+	}
+
+	private void release(int length)
+	{
+		bytes -= length;
+		notifyAll();
+	}
+
+	/**
+	 * Identifies a page of a session
+	 */
+	private static final class PageKey
+	{
+		private final String sessionId;
+
+		private final int pageId;
+
+		private PageKey(String sessionId, int pageId)
+		{
+			this.sessionId = sessionId;
+			this.pageId = pageId;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+			{
+				return true;
+			}
+			if (o == null || getClass() != o.getClass())
+			{
+				return false;
+			}
+			PageKey that = (PageKey) o;
+			return pageId == that.pageId && sessionId.equals(that.sessionId);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * sessionId.hashCode() + pageId;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+
+/**
+ * Waits until enough server groups have confirmed the write of a page.
+ *
+ * Each server group gets a {@link Group} which tracks the sets of the page
+ * and its chunks. A group acknowledges the write once all its sets
+ * have succeeded. The groups are numbered in the order they are created,
+ * so the caller can tell which group failed.
+ */
+final class WriteQuorum
+{
+	private final int quorum;
+
+	private final List<Group> groups = new ArrayList<Group>();
+
+	private int acknowledged;
+
+	private int failed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param quorum the number of groups which must acknowledge the write
+	 */
+	WriteQuorum(int quorum)
+	{
+		this.quorum = quorum;
+	}
+
+	/**
+	 * @return a new group whose sets count towards the quorum
+	 */
+	synchronized Group newGroup()
+	{
+		Group group = new Group();
+		groups.add(group);
+		return group;
+	}
+
+	/**
+	 * @param group the number of the group, from 0
+	 * @return {@code true} if all sets of the group have succeeded
+	 */
+	synchronized boolean isAcknowledged(int group)
+	{
+		return groups.get(group).acknowledged;
+	}
+
+	/**
+	 * Waits until the quorum is reached, or all groups have completed.
+	 * A group which has not completed in time has not acknowledged the write.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return {@code true} if the quorum has been reached
+	 */
+	synchronized boolean await(long timeout)
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (acknowledged < quorum && acknowledged + failed < groups.size() && remaining > 0)
+		{
+			try
+			{
+				wait(remaining);
+			}
+			catch (InterruptedException ix)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return acknowledged >= quorum;
+	}
+
+	private synchronized void completed(Group group, boolean success)
+	{
+		if (success)
+		{
+			group.acknowledged = true;
+			acknowledged++;
+		}
+		else
+		{
+			failed++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * The sets of a page in a server group
+	 */
+	final class Group implements OperationCompletionListener
+	{
+		private int pending;
+
+		private boolean closed;
+
+		private boolean success = true;
+
+		/**
+		 * Guarded by the quorum
+		 */
+		private boolean acknowledged;
+
+		private Group()
+		{
+		}
+
+		/**
+		 * Tracks a set of the page or of one of its chunks
+		 *
+		 * @param future the future of the set
+		 */
+		void track(OperationFuture<?> future)
+		{
+			synchronized (this)
+			{
+				pending++;
+			}
+			future.addListener(this);
+		}
+
+		/**
+		 * Marks all sets of the group as sent
+		 */
+		void close()
+		{
+			boolean done;
+			boolean succeeded;
+			synchronized (this)
+			{
+				closed = true;
+				done = pending == 0;
+				succeeded = success;
+			}
+			if (done)
+			{
+				completed(this, succeeded);
+			}
+		}
+
+		/**
+		 * Marks the group as failed, e.g. when its sets could not be sent
+		 */
+		synchronized void fail()
+		{
+			success = false;
+		}
+
+		@Override
+		public void onComplete(OperationFuture<?> future) throws Exception
+		{
+			boolean done;
+			boolean succeeded;
+			synchronized (this)
+			{
+				pending--;
+				if (!future.getStatus().isSuccess())
+				{
+					success = false;
+				}
+				done = closed && pending == 0;
+				succeeded = success;
+			}
+			if (done)
+			{
+				completed(this, succeeded);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests removing the data of several sessions at once
+ */
+public class BatchRemovalTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void deletesAllPagesAndChunks() throws Exception
+	{
+		dataStore = new MemcachedDataStore(new MemcachedSettings()
+				.setPost(server.getPort())
+				.setChunkSize(Bytes.kilobytes(10)));
+		dataStore.storeData("session1", 1, new byte[] {1});
+		dataStore.storeData("session1", 2, new byte[25 * 1024]);
+		dataStore.storeData("session2", 1, new byte[] {1});
+		dataStore.storeData("session3", 1, new byte[] {1});
+
+		RemovalResult result = dataStore.removeData(Arrays.asList("session1", "session2", "unknown"),
+				Duration.seconds(5));
+		assertTrue(result.isComplete());
+		assertEquals(6, result.getOperations());
+		assertEquals(6, result.getRemoved());
+		assertEquals(0, result.getFailed());
+		assertEquals(1, server.getItemCount());
+		assertNotNull(dataStore.getData("session3", 1));
+	}
+
+	@Test
+	public void countsTheMissingKeys() throws Exception
+	{
+		dataStore = new MemcachedDataStore(new MemcachedSettings().setPost(server.getPort()));
+		dataStore.storeData("session", 1, new byte[] {1});
+		dataStore.storeData("session", 2, new byte[] {2});
+		assertNotNull(dataStore.getData("session", 2));
+		server.clear();
+
+		RemovalResult result = dataStore.removeData(Arrays.asList("session"), Duration.seconds(5));
+		assertEquals(2, result.getOperations());
+		assertEquals(2, result.getNotFound());
+	}
+
+	@Test
+	public void incrementsTheGenerations() throws Exception
+	{
+		dataStore = new MemcachedDataStore(new MemcachedSettings()
+				.setPost(server.getPort())
+				.setSessionInvalidation(SessionInvalidation.GENERATION));
+		dataStore.storeData("session1", 1, new byte[] {1});
+		dataStore.storeData("session2", 1, new byte[] {1});
+
+		RemovalResult result = dataStore.removeData(Arrays.asList("session1", "session2"), Duration.seconds(5));
+		assertEquals(2, result.getOperations());
+		assertEquals(2, result.getRemoved());
+		assertNull(dataStore.getData("session1", 1));
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests storing pages bigger than the chunk size
+ */
+public class ChunkedPagesTest extends Assert
+{
+	private static final Random random = new Random();
+
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(server.getPort())
+				.setChunkSize(Bytes.kilobytes(10));
+		dataStore = new MemcachedDataStore(settings);
+	}
+
+	@After
+	public void after()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void bigPageIsSplitIntoChunks() throws Exception
+	{
+		byte[] page = page(35 * 1024);
+		dataStore.storeData("session", 1, page);
+
+		assertArrayEquals(page, dataStore.getData("session", 1));
+		// 4 chunks and the manifest
+		awaitItemCount(5);
+	}
+
+	@Test
+	public void smallerVersionDeletesTheExtraChunks() throws Exception
+	{
+		dataStore.storeData("session", 1, page(35 * 1024));
+		byte[] page = page(15 * 1024);
+		dataStore.storeData("session", 1, page);
+
+		assertArrayEquals(page, dataStore.getData("session", 1));
+		awaitItemCount(3);
+
+		dataStore.storeData("session", 1, page(1024));
+		awaitItemCount(1);
+	}
+
+	@Test
+	public void removeDeletesAllChunks() throws Exception
+	{
+		dataStore.storeData("session", 1, page(35 * 1024));
+		dataStore.storeData("session", 2, page(25 * 1024));
+		awaitItemCount(9);
+
+		dataStore.removeData("session", 1);
+		awaitItemCount(4);
+
+		dataStore.removeData("session");
+		assertNull(dataStore.getData("session", 2));
+		awaitItemCount(0);
+	}
+
+	private void awaitItemCount(int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+
+	private static byte[] page(int length)
+	{
+		byte[] page = new byte[length];
+		random.nextBytes(page);
+		return page;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.pageStore.IDataStore;
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the circuit breaker and the fallback to another data store
+ */
+public class CircuitBreakerTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@After
+	public void after()
+	{
+		if (dataStore != null)
+		{
+			dataStore.destroy();
+		}
+		if (server != null)
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void opensWhenTooManyOperationsFail() throws Exception
+	{
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5d, 50);
+		breaker.recordFailure();
+		breaker.recordSuccess();
+		breaker.recordSuccess();
+		assertTrue(breaker.isClosed());
+		breaker.recordFailure();
+		assertFalse(breaker.isClosed());
+
+		assertFalse(breaker.tryProbe());
+		Thread.sleep(60);
+		assertTrue(breaker.tryProbe());
+		assertFalse(breaker.tryProbe());
+		breaker.recordFailure();
+		assertFalse(breaker.isClosed());
+
+		Thread.sleep(60);
+		assertTrue(breaker.tryProbe());
+		breaker.recordSuccess();
+		assertTrue(breaker.isClosed());
+	}
+
+	@Test
+	public void fallsBackDuringAnOutage() throws Exception
+	{
+		server = new EmbeddedMemcached().start();
+		int port = server.getPort();
+		InMemoryDataStore fallback = new InMemoryDataStore();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(port)
+				.setReadTimeout(Duration.milliseconds(100))
+				.setShutdownTimeout(Duration.milliseconds(100))
+				.setCircuitBreaker(true)
+				.setCircuitBreakerWindow(4)
+				.setCircuitBreakerOpenTime(Duration.milliseconds(200))
+				.setFallbackDataStore(fallback);
+		dataStore = new MemcachedDataStore(settings);
+
+		dataStore.storeData("session", 1, new byte[] {1});
+		assertArrayEquals(new byte[] {1}, dataStore.getData("session", 1));
+		assertTrue(fallback.pages.isEmpty());
+
+		server.stop();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!dataStore.isCircuitBreakerOpen() && System.currentTimeMillis() < deadline)
+		{
+			dataStore.getData("session", 1);
+		}
+		assertTrue(dataStore.isCircuitBreakerOpen());
+
+		dataStore.storeData("session", 2, new byte[] {2});
+		assertArrayEquals(new byte[] {2}, fallback.pages.get("session:2"));
+		assertArrayEquals(new byte[] {2}, dataStore.getData("session", 2));
+		dataStore.storeData("session", 1, new byte[] {11});
+
+		server.start(port);
+		deadline = System.currentTimeMillis() + 30000;
+		while (dataStore.isCircuitBreakerOpen() && System.currentTimeMillis() < deadline)
+		{
+			dataStore.getData("session", 3);
+			Thread.sleep(50);
+		}
+		assertFalse(dataStore.isCircuitBreakerOpen());
+
+		// the pages stored during the outage are still found in the fallback,
+		// not the stale copies in Memcached
+		assertArrayEquals(new byte[] {11}, dataStore.getData("session", 1));
+		assertArrayEquals(new byte[] {2}, dataStore.getData("session", 2));
+
+		dataStore.storeData("session", 1, new byte[] {12});
+		assertNull(fallback.pages.get("session:1"));
+		assertArrayEquals(new byte[] {12}, dataStore.getData("session", 1));
+
+		dataStore.removeData("session");
+		assertTrue(fallback.pages.isEmpty());
+	}
+
+	/**
+	 * A simple fallback data store
+	 */
+	private static class InMemoryDataStore implements IDataStore
+	{
+		private final ConcurrentMap<String, byte[]> pages = new ConcurrentHashMap<String, byte[]>();
+
+		@Override
+		public byte[] getData(String sessionId, int id)
+		{
+			return pages.get(sessionId + ':' + id);
+		}
+
+		@Override
+		public void removeData(String sessionId, int id)
+		{
+			pages.remove(sessionId + ':' + id);
+		}
+
+		@Override
+		public void removeData(String sessionId)
+		{
+			for (String key : pages.keySet())
+			{
+				if (key.startsWith(sessionId + ':'))
+				{
+					pages.remove(key);
+				}
+			}
+		}
+
+		@Override
+		public void storeData(String sessionId, int id, byte[] data)
+		{
+			pages.put(sessionId + ':' + id, data);
+		}
+
+		@Override
+		public void destroy()
+		{
+		}
+
+		@Override
+		public boolean isReplicated()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean canBeAsynchronous()
+		{
+			return true;
+		}
+	}
+}
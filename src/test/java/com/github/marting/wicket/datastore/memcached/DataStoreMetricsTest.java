@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the metrics of MemcachedDataStore
+ */
+public class DataStoreMetricsTest extends Assert
+{
+	@Test
+	public void histogramPercentiles()
+	{
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++)
+		{
+			histogram.record(i);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5d, histogram.getMean(), 0.001d);
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500d, histogram.getMedian(), 500 * 0.125d);
+		assertEquals(990d, histogram.get99thPercentile(), 990 * 0.125d);
+		assertTrue(histogram.get99thPercentile() <= histogram.getMax());
+	}
+
+	@Test
+	public void bucketsCoverAllValues()
+	{
+		long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE};
+		for (long value : values)
+		{
+			int bucket = Histogram.getBucket(value);
+			assertTrue(value <= Histogram.getUpperBound(bucket));
+			assertTrue(bucket == 0 || value > Histogram.getUpperBound(bucket - 1));
+		}
+	}
+
+	@Test
+	public void countsTheOperations() throws Exception
+	{
+		EmbeddedMemcached server = new EmbeddedMemcached().start();
+		MemcachedDataStore dataStore = new MemcachedDataStore(new MemcachedSettings().setPost(server.getPort()));
+		try
+		{
+			dataStore.storeData("session", 1, new byte[100]);
+			assertNotNull(dataStore.getData("session", 1));
+			assertNull(dataStore.getData("session", 2));
+			dataStore.removeData("session", 1);
+
+			DataStoreMetrics metrics = dataStore.getMetrics();
+			assertEquals(1, metrics.getHits());
+			assertEquals(1, metrics.getMisses());
+			assertEquals(0.5d, metrics.getHitRate(), 0.001d);
+			assertEquals(1, metrics.getSets());
+			assertEquals(1, metrics.getDeletes());
+			assertEquals(1, metrics.getGetLatency().getCount());
+			assertEquals(101, metrics.getPayloadSize().getMax());
+			assertEquals(1, metrics.getSessions());
+			assertEquals(0, metrics.getPages());
+
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> names = mbeanServer.queryNames(
+					new ObjectName("com.github.marting.wicket.datastore.memcached:*"), null);
+			assertEquals(1, names.size());
+			ObjectName name = names.iterator().next();
+			assertEquals(1L, mbeanServer.getAttribute(name, "Hits"));
+			CompositeData payloadSize = (CompositeData) mbeanServer.getAttribute(name, "PayloadSize");
+			assertEquals(1L, payloadSize.get("count"));
+		}
+		finally
+		{
+			dataStore.destroy();
+			server.stop();
+		}
+		assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName("com.github.marting.wicket.datastore.memcached:*"), null).isEmpty());
+	}
+}
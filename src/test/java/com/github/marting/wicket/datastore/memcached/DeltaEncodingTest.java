@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests storing the pages as deltas to keyframes
+ */
+public class DeltaEncodingTest extends Assert
+{
+	private static final Random random = new Random();
+
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		if (dataStore != null)
+		{
+			dataStore.destroy();
+		}
+		server.stop();
+	}
+
+	@Test
+	public void pagesAreRebuiltFromTheirKeyframes() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		byte[][] pages = versions(12);
+		for (int pageId = 0; pageId < pages.length; pageId++)
+		{
+			dataStore.storeData("session", pageId, pages[pageId]);
+		}
+
+		for (int pageId = 0; pageId < pages.length; pageId++)
+		{
+			assertArrayEquals(pages[pageId], dataStore.getData("session", pageId));
+		}
+		// a keyframe every 5 pages, and the counter of their ids
+		assertEquals(3, dataStore.getMetrics().getKeyframes());
+		awaitItemCount(16);
+		assertTrue(dataStore.getMetrics().getDeltaBytesSaved() > 8 * pages[0].length);
+	}
+
+	@Test
+	public void overwrittenPageKeepsTheOthersReadable() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		byte[][] pages = versions(3);
+		for (int pageId = 0; pageId < pages.length; pageId++)
+		{
+			dataStore.storeData("session", pageId, pages[pageId]);
+		}
+		// the page the keyframe has been created from
+		dataStore.storeData("session", 0, pages[2]);
+
+		assertArrayEquals(pages[2], dataStore.getData("session", 0));
+		assertArrayEquals(pages[1], dataStore.getData("session", 1));
+		assertArrayEquals(pages[2], dataStore.getData("session", 2));
+	}
+
+	@Test
+	public void keyframesAreReadFromMemcachedByOtherNodes() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		MemcachedDataStore otherNode = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		try
+		{
+			byte[][] pages = versions(7);
+			for (int pageId = 0; pageId < pages.length; pageId++)
+			{
+				dataStore.storeData("session", pageId, pages[pageId]);
+			}
+			// the pages, the keyframes, their counter and the shared index
+			awaitItemCount(11);
+
+			for (int pageId = 0; pageId < pages.length; pageId++)
+			{
+				assertArrayEquals(pages[pageId], otherNode.getData("session", pageId));
+			}
+		}
+		finally
+		{
+			otherNode.destroy();
+		}
+	}
+
+	@Test
+	public void nodesDoNotOverwriteTheKeyframesOfEachOther() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		MemcachedDataStore otherNode = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		try
+		{
+			byte[][] pages = versions(3);
+			byte[][] otherPages = versions(3);
+			for (int pageId = 0; pageId < pages.length; pageId++)
+			{
+				dataStore.storeData("session", pageId, pages[pageId]);
+				otherNode.storeData("session", pageId + pages.length, otherPages[pageId]);
+			}
+			// the pages, a keyframe per node, their counter and the shared index
+			awaitItemCount(10);
+
+			for (int pageId = 0; pageId < pages.length; pageId++)
+			{
+				assertArrayEquals(pages[pageId], otherNode.getData("session", pageId));
+				assertArrayEquals(otherPages[pageId], dataStore.getData("session", pageId + pages.length));
+			}
+		}
+		finally
+		{
+			otherNode.destroy();
+		}
+	}
+
+	@Test
+	public void keyframesAreEvictedAfterTheirPages() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setMaxPagesPerSession(3));
+		byte[][] pages = versions(8);
+		for (int pageId = 0; pageId < 5; pageId++)
+		{
+			dataStore.storeData("session", pageId, pages[pageId]);
+		}
+		// the keyframe does not count toward the quota
+		for (int pageId = 2; pageId < 5; pageId++)
+		{
+			assertArrayEquals(pages[pageId], dataStore.getData("session", pageId));
+		}
+
+		for (int pageId = 5; pageId < pages.length; pageId++)
+		{
+			dataStore.storeData("session", pageId, pages[pageId]);
+		}
+		for (int pageId = 5; pageId < pages.length; pageId++)
+		{
+			assertArrayEquals(pages[pageId], dataStore.getData("session", pageId));
+		}
+		// the first keyframe has been evicted with its last page
+		awaitItemCount(5);
+	}
+
+	@Test
+	public void removeDataDeletesTheKeyframes() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		byte[][] pages = versions(7);
+		for (int pageId = 0; pageId < pages.length; pageId++)
+		{
+			dataStore.storeData("session", pageId, pages[pageId]);
+		}
+		awaitItemCount(10);
+
+		dataStore.removeData("session");
+		assertNull(dataStore.getData("session", 1));
+		awaitItemCount(0);
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings()
+				.setPost(server.getPort())
+				.setDeltaEncoding(true)
+				.setKeyframeInterval(5);
+	}
+
+	/**
+	 * @return versions of a page, each with a few bytes changed
+	 */
+	private static byte[][] versions(int count)
+	{
+		byte[][] pages = new byte[count][];
+		pages[0] = new byte[10000];
+		random.nextBytes(pages[0]);
+		for (int i = 1; i < count; i++)
+		{
+			pages[i] = Arrays.copyOf(pages[i - 1], pages[i - 1].length);
+			pages[i][random.nextInt(pages[i].length)] ^= 1;
+			pages[i][random.nextInt(pages[i].length)] ^= 1;
+		}
+		return pages;
+	}
+
+	private void awaitItemCount(int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.spy.memcached.MemcachedClient;
+import org.apache.wicket.util.lang.Bytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests compressing the pages with the trained dictionaries
+ */
+public class DictionaryCompressionTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		if (dataStore != null)
+		{
+			dataStore.destroy();
+		}
+		server.stop();
+	}
+
+	@Test
+	public void pagesStayReadableAfterRetraining() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		List<byte[]> pages = new PageCorpus(1).serializePages(200);
+		for (int pageId = 0; pageId < pages.size(); pageId++)
+		{
+			dataStore.storeData("session", pageId, pages.get(pageId));
+			int stored = pageId + 1;
+			if (stored % DictionaryPageCompressor.SAMPLE_COUNT == 0)
+			{
+				// the dictionaries are trained in the background
+				awaitItemCount(stored + stored / DictionaryPageCompressor.SAMPLE_COUNT);
+			}
+		}
+
+		for (int pageId = 0; pageId < pages.size(); pageId++)
+		{
+			assertArrayEquals(pages.get(pageId), dataStore.getData("session", pageId));
+		}
+		// the pages and a dictionary after every 64 pages
+		awaitItemCount(203);
+	}
+
+	@Test
+	public void otherNodesReadTheDictionariesFromMemcached() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		MemcachedDataStore otherNode = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		try
+		{
+			List<byte[]> pages = new PageCorpus(2).serializePages(100);
+			for (int pageId = 0; pageId < pages.size(); pageId++)
+			{
+				dataStore.storeData("session", pageId, pages.get(pageId));
+			}
+			// the pages, a dictionary and the shared index
+			awaitItemCount(102);
+
+			for (int pageId = 0; pageId < pages.size(); pageId++)
+			{
+				assertArrayEquals(pages.get(pageId), otherNode.getData("session", pageId));
+			}
+		}
+		finally
+		{
+			otherNode.destroy();
+		}
+	}
+
+	@Test
+	public void pagesOfAMissingDictionaryAreMisses() throws Exception
+	{
+		EmbeddedMemcached otherServer = new EmbeddedMemcached().start();
+		MemcachedClient client = new MemcachedClient(new InetSocketAddress("localhost", server.getPort()));
+		MemcachedClient otherClient = new MemcachedClient(new InetSocketAddress("localhost", otherServer.getPort()));
+		try
+		{
+			byte[] compressed = compressWithDictionary(newCompressor(client, null));
+			DataStoreMetrics metrics = newMetrics();
+
+			// e.g. the dictionary has been evicted
+			DictionaryPageCompressor otherNode = newCompressor(otherClient, null, 0, metrics);
+			assertNull(otherNode.decompress(compressed, 0, compressed.length));
+			assertEquals(1, metrics.getDictionaryMisses());
+		}
+		finally
+		{
+			client.shutdown();
+			otherClient.shutdown();
+			otherServer.stop();
+		}
+	}
+
+	@Test
+	public void usedDictionariesOutliveTheirExpiration() throws Exception
+	{
+		MemcachedClient client = new MemcachedClient(new InetSocketAddress("localhost", server.getPort()));
+		try
+		{
+			DictionaryPageCompressor compressor = newCompressor(client, null, 2, newMetrics());
+			compressWithDictionary(compressor);
+			String key = new PageKeys(KeyFormat.COMPACT, "test").getDictionaryKey(compressor.getDictionaryId());
+			byte[] page = new PageCorpus(1).serializePages(1).get(0);
+
+			long until = System.currentTimeMillis() + 3000;
+			while (System.currentTimeMillis() < until)
+			{
+				compressor.compress(page);
+				Thread.sleep(100);
+			}
+			assertTrue(server.contains(key));
+
+			// not used anymore
+			long deadline = System.currentTimeMillis() + 4000;
+			while (server.contains(key) && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(50);
+			}
+			assertFalse(server.contains(key));
+		}
+		finally
+		{
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void dictionariesAreReplicated() throws Exception
+	{
+		EmbeddedMemcached secondary = new EmbeddedMemcached().start();
+		EmbeddedMemcached restarted = new EmbeddedMemcached().start();
+		MemcachedClient client = new MemcachedClient(new InetSocketAddress("localhost", server.getPort()));
+		MemcachedClient secondaryClient = new MemcachedClient(new InetSocketAddress("localhost", secondary.getPort()));
+		MemcachedClient restartedClient = new MemcachedClient(new InetSocketAddress("localhost", restarted.getPort()));
+		try
+		{
+			List<byte[]> pages = new PageCorpus(1).serializePages(1);
+			byte[] compressed = compressWithDictionary(newCompressor(client, secondaryClient));
+
+			// the primary server has lost the dictionary
+			DictionaryPageCompressor otherNode = newCompressor(restartedClient, secondaryClient);
+			assertArrayEquals(pages.get(0), otherNode.decompress(compressed, 0, compressed.length));
+		}
+		finally
+		{
+			client.shutdown();
+			secondaryClient.shutdown();
+			restartedClient.shutdown();
+			secondary.stop();
+			restarted.stop();
+		}
+	}
+
+	@Test
+	public void otherCompressorMayUseTheIdWhenDisabled() throws Exception
+	{
+		dataStore = new MemcachedDataStore(new MemcachedSettings()
+				.setPost(server.getPort())
+				.setCompressionThreshold(Bytes.bytes(0))
+				.setPageCompressor(new DeflatePageCompressor()
+				{
+					@Override
+					public int getId()
+					{
+						return DictionaryPageCompressor.ID;
+					}
+				}));
+		byte[] page = new PageCorpus(1).serializePages(1).get(0);
+		dataStore.storeData("session", 1, page);
+
+		assertArrayEquals(page, dataStore.getData("session", 1));
+	}
+
+	@Test
+	public void dictionaryIsMadeOfTheRepeatedSegments()
+	{
+		byte[] repeated = "org.apache.wicket.markup.html.form.TextField".getBytes();
+		byte[] sample = new byte[4096];
+		for (int offset = 0; offset + repeated.length <= sample.length; offset += repeated.length + 20)
+		{
+			System.arraycopy(repeated, 0, sample, offset, repeated.length);
+		}
+		List<byte[]> samples = Arrays.asList(sample, sample, sample, sample, sample, sample, sample, sample, sample);
+
+		byte[] dictionary = PageDictionary.train(samples, 1024);
+
+		assertTrue(dictionary.length <= 1024);
+		assertTrue(new String(dictionary).contains("wicket"));
+		assertNull(PageDictionary.train(Arrays.asList(new byte[10]), 1024));
+	}
+
+	private static DictionaryPageCompressor newCompressor(MemcachedClient client, MemcachedClient secondaryClient)
+	{
+		return newCompressor(client, secondaryClient, 0, newMetrics());
+	}
+
+	private static DictionaryPageCompressor newCompressor(MemcachedClient client, MemcachedClient secondaryClient,
+			int expiration, DataStoreMetrics metrics)
+	{
+		return new DictionaryPageCompressor(client, secondaryClient, new PageKeys(KeyFormat.COMPACT, "test"),
+				Integer.MAX_VALUE, expiration, 1000, metrics);
+	}
+
+	private static DataStoreMetrics newMetrics()
+	{
+		return new DataStoreMetrics(Collections.<String, PageIdIndex>emptyMap());
+	}
+
+	/**
+	 * Trains a dictionary and compresses the first page of the corpus with it
+	 */
+	private static byte[] compressWithDictionary(DictionaryPageCompressor compressor) throws InterruptedException
+	{
+		for (byte[] page : new PageCorpus(2).serializePages(DictionaryPageCompressor.SAMPLE_COUNT))
+		{
+			compressor.compress(page);
+		}
+		// trained in the background
+		long deadline = System.currentTimeMillis() + 5000;
+		while (compressor.getDictionaryId() == 0 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertTrue(compressor.getDictionaryId() != 0);
+		byte[] compressed = compressor.compress(new PageCorpus(1).serializePages(1).get(0));
+		assertEquals(compressor.getDictionaryId(), DeflatePageCompressor.readInt(compressed, 4));
+		return compressed;
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings()
+				.setPost(server.getPort())
+				.setCompressionThreshold(Bytes.bytes(0))
+				.setDictionaryCompression(true)
+				.setDictionaryRetrainInterval(DictionaryPageCompressor.SAMPLE_COUNT);
+	}
+
+	private void awaitItemCount(int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+}
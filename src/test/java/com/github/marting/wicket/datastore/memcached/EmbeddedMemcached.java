@@ -0,0 +1,1288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.wicket.util.lang.Args;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lightweight in-process stand-in for a Memcached server. Used by the tests,
+ * the demo application and the benchmarks so they do not need a real Memcached
+ * installation.
+ *
+ * All connections are served by a single non-blocking selector thread.
+ * Each connection speaks the text or the binary protocol, detected by its first byte.
+ * The supported commands are get(s)/getk/gat, set/add/replace/cas, append/prepend,
+ * delete, incr/decr, touch, flush_all, version, noop, stats and quit,
+ * including the quiet variants of the binary protocol.
+ *
+ * Like Memcached, the items are evicted in least recently used order when
+ * the memory limit is reached and items bigger than the item size limit are rejected.
+ */
+public class EmbeddedMemcached
+{
+	private static final Logger LOG = LoggerFactory.getLogger(EmbeddedMemcached.class);
+
+	/**
+	 * Expiration times bigger than this are absolute unix times
+	 */
+	private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+	/**
+	 * The memory used by an item besides its key and data, roughly as in Memcached
+	 */
+	private static final int ITEM_OVERHEAD = 48;
+
+	private static final String VERSION = "1.4.15-embedded";
+
+	/**
+	 * Keys are stored as they are received, one char per byte
+	 */
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * The maximum number of buffers written with a single gathering write
+	 */
+	private static final int MAX_WRITE_BUFFERS = 64;
+
+	private static final byte[] CRLF = {'\r', '\n'};
+
+	private static final int BINARY_REQUEST = 0x80;
+	private static final int BINARY_RESPONSE = 0x81;
+	private static final int HEADER_LENGTH = 24;
+
+	private static final int GET = 0x00;
+	private static final int SET = 0x01;
+	private static final int ADD = 0x02;
+	private static final int REPLACE = 0x03;
+	private static final int DELETE = 0x04;
+	private static final int INCREMENT = 0x05;
+	private static final int DECREMENT = 0x06;
+	private static final int QUIT = 0x07;
+	private static final int FLUSH = 0x08;
+	private static final int GETQ = 0x09;
+	private static final int NOOP = 0x0a;
+	private static final int VERSION_OPCODE = 0x0b;
+	private static final int GETK = 0x0c;
+	private static final int GETKQ = 0x0d;
+	private static final int APPEND = 0x0e;
+	private static final int PREPEND = 0x0f;
+	private static final int STAT = 0x10;
+	private static final int SETQ = 0x11;
+	private static final int ADDQ = 0x12;
+	private static final int REPLACEQ = 0x13;
+	private static final int DELETEQ = 0x14;
+	private static final int INCREMENTQ = 0x15;
+	private static final int DECREMENTQ = 0x16;
+	private static final int QUITQ = 0x17;
+	private static final int FLUSHQ = 0x18;
+	private static final int APPENDQ = 0x19;
+	private static final int PREPENDQ = 0x1a;
+	private static final int TOUCH = 0x1c;
+	private static final int GAT = 0x1d;
+	private static final int GATQ = 0x1e;
+
+	/**
+	 * The outcome of a command, with its status code in the binary protocol
+	 * and its response in the text protocol
+	 */
+	private enum Status
+	{
+		OK(0x00, "STORED", null),
+		NOT_FOUND(0x01, "NOT_FOUND", "Not found"),
+		EXISTS(0x02, "EXISTS", "Data exists for key."),
+		TOO_LARGE(0x03, "SERVER_ERROR object too large for cache", "Too large."),
+		INVALID_ARGUMENTS(0x04, "CLIENT_ERROR bad command line format", "Invalid arguments"),
+		NOT_STORED(0x05, "NOT_STORED", "Not stored."),
+		NON_NUMERIC(0x06, "CLIENT_ERROR cannot increment or decrement non-numeric value",
+				"Non-numeric server-side value for incr or decr"),
+		UNKNOWN_COMMAND(0x81, "ERROR", "Unknown command");
+
+		private final int code;
+		private final String text;
+		private final byte[] message;
+
+		Status(int code, String text, String message)
+		{
+			this.code = code;
+			this.text = text;
+			this.message = message != null ? message.getBytes(CHARSET) : null;
+		}
+	}
+
+	/**
+	 * The items in least recently used order. Guards all statistics below.
+	 */
+	private final LinkedHashMap<String, Item> items = new LinkedHashMap<String, Item>(256, 0.75f, true);
+
+	private long memoryUsed;
+	private long evictions;
+	private long totalItems;
+	private long hits;
+	private long misses;
+	private long casCounter;
+
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	private long maxMemory = Bytes.megabytes(64).bytes();
+
+	private int maxItemSize = (int) Bytes.megabytes(1).bytes();
+
+	private final long startedAt = System.currentTimeMillis();
+
+	private ServerSocketChannel serverChannel;
+
+	private Selector selector;
+
+	private Thread selectorThread;
+
+	private int port;
+
+	private volatile boolean running;
+
+	private volatile long responseDelay;
+
+	/**
+	 * Sets the memory available for the items. The least recently used items
+	 * are evicted when it is exceeded. Default: 64 MB.
+	 *
+	 * @param maxMemory the maximum memory used by the items
+	 * @return this instance, for chaining
+	 */
+	public EmbeddedMemcached setMaxMemory(Bytes maxMemory)
+	{
+		synchronized (items)
+		{
+			this.maxMemory = Args.notNull(maxMemory, "maxMemory").bytes();
+			evict(0);
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the size of the biggest item accepted. Default: 1 MB.
+	 *
+	 * @param maxItemSize the maximum size of the data of an item
+	 * @return this instance, for chaining
+	 */
+	public EmbeddedMemcached setMaxItemSize(Bytes maxItemSize)
+	{
+		Args.notNull(maxItemSize, "maxItemSize");
+		this.maxItemSize = (int) Math.min(maxItemSize.bytes(), Integer.MAX_VALUE);
+		return this;
+	}
+
+	/**
+	 * Delays the processing of the requests, e.g. to simulate a slow server
+	 * or a GC pause. Default: no delay.
+	 *
+	 * @param delay how long to wait before processing the received requests
+	 * @return this instance, for chaining
+	 */
+	public EmbeddedMemcached setResponseDelay(Duration delay)
+	{
+		this.responseDelay = Args.notNull(delay, "delay").getMilliseconds();
+		return this;
+	}
+
+	/**
+	 * Starts listening on a free port on the loopback interface
+	 *
+	 * @return this instance, for chaining
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public EmbeddedMemcached start() throws IOException
+	{
+		return start(0);
+	}
+
+	/**
+	 * Starts listening on the given port on the loopback interface,
+	 * e.g. to restart a stopped server on its previous port
+	 *
+	 * @param port the port to listen to, 0 for a free one
+	 * @return this instance, for chaining
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public EmbeddedMemcached start(int port) throws IOException
+	{
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("localhost"), port), 50);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.port = serverChannel.socket().getLocalPort();
+		running = true;
+
+		final Selector selector = this.selector;
+		selectorThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				serve(selector);
+			}
+		}, "embedded-memcached-" + this.port);
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		return this;
+	}
+
+	/**
+	 * Closes the server socket and all client connections.
+	 * The stored items are kept so the server may be restarted.
+	 */
+	public void stop()
+	{
+		running = false;
+		if (selector != null)
+		{
+			selector.wakeup();
+		}
+		if (selectorThread != null)
+		{
+			try
+			{
+				selectorThread.join(5000);
+			}
+			catch (InterruptedException ix)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the port the server listens to
+	 */
+	public int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * @return the number of stored (possibly expired) items
+	 */
+	public int getItemCount()
+	{
+		synchronized (items)
+		{
+			return items.size();
+		}
+	}
+
+	/**
+	 * @return the memory used by the stored items, including their keys and overhead
+	 */
+	public long getMemoryUsed()
+	{
+		synchronized (items)
+		{
+			return memoryUsed;
+		}
+	}
+
+	/**
+	 * @return the number of items evicted to free memory
+	 */
+	public long getEvictions()
+	{
+		synchronized (items)
+		{
+			return evictions;
+		}
+	}
+
+	/**
+	 * @param key the key to look for
+	 * @return {@code true} if there is a live item with this key
+	 */
+	public boolean contains(String key)
+	{
+		return getLive(key) != null;
+	}
+
+	/**
+	 * @param key the key to look for
+	 * @return the data of the live item with this key, or {@code null}
+	 */
+	public byte[] get(String key)
+	{
+		Item item = getLive(key);
+		return item != null ? item.data : null;
+	}
+
+	/**
+	 * Removes all items
+	 */
+	public void clear()
+	{
+		synchronized (items)
+		{
+			items.clear();
+			memoryUsed = 0;
+		}
+	}
+
+	private void serve(Selector selector)
+	{
+		try
+		{
+			while (running)
+			{
+				selector.select();
+				if (responseDelay > 0)
+				{
+					pause(responseDelay);
+				}
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+				while (selected.hasNext())
+				{
+					SelectionKey key = selected.next();
+					selected.remove();
+					if (key.isValid())
+					{
+						handle(selector, key);
+					}
+				}
+			}
+		}
+		catch (IOException iox)
+		{
+			LOG.warn("The selector failed", iox);
+		}
+		catch (ClosedSelectorException closed)
+		{
+			// stopped
+		}
+		finally
+		{
+			for (SelectionKey key : selector.keys())
+			{
+				closeQuietly(key);
+			}
+			try
+			{
+				selector.close();
+			}
+			catch (IOException ignored)
+			{
+			}
+		}
+	}
+
+	private static void pause(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException ix)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void handle(Selector selector, SelectionKey key)
+	{
+		try
+		{
+			if (key.isAcceptable())
+			{
+				SocketChannel channel = serverChannel.accept();
+				if (channel != null)
+				{
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					SelectionKey connectionKey = channel.register(selector, SelectionKey.OP_READ);
+					connectionKey.attach(new Connection(channel, connectionKey));
+					connectionCount.incrementAndGet();
+				}
+				return;
+			}
+
+			Connection connection = (Connection) key.attachment();
+			if (key.isReadable())
+			{
+				connection.read();
+			}
+			if (key.isValid() && key.isWritable())
+			{
+				connection.write();
+			}
+		}
+		catch (IOException iox)
+		{
+			// the connection was closed by the client
+			closeQuietly(key);
+		}
+	}
+
+	private void closeQuietly(SelectionKey key)
+	{
+		key.cancel();
+		try
+		{
+			key.channel().close();
+		}
+		catch (IOException ignored)
+		{
+		}
+		if (key.attachment() != null)
+		{
+			key.attach(null);
+			connectionCount.decrementAndGet();
+		}
+	}
+
+	private Item getLive(String key)
+	{
+		synchronized (items)
+		{
+			Item item = items.get(key);
+			if (item != null && item.isExpired(System.currentTimeMillis()))
+			{
+				remove(key);
+				item = null;
+			}
+			return item;
+		}
+	}
+
+	private Item getLive(String key, boolean countHit)
+	{
+		synchronized (items)
+		{
+			Item item = getLive(key);
+			if (countHit)
+			{
+				if (item != null)
+				{
+					hits++;
+				}
+				else
+				{
+					misses++;
+				}
+			}
+			return item;
+		}
+	}
+
+	private Status store(int command, String key, int flags, int exptime, byte[] data, long cas)
+	{
+		if (data.length > maxItemSize)
+		{
+			return Status.TOO_LARGE;
+		}
+
+		synchronized (items)
+		{
+			Item existing = getLive(key);
+			boolean concatenate = command == APPEND || command == PREPEND;
+			if (command == ADD && existing != null)
+			{
+				return Status.NOT_STORED;
+			}
+			if ((command == REPLACE || concatenate) && existing == null)
+			{
+				return Status.NOT_STORED;
+			}
+			if (cas != 0)
+			{
+				if (existing == null)
+				{
+					return Status.NOT_FOUND;
+				}
+				if (existing.cas != cas)
+				{
+					return Status.EXISTS;
+				}
+			}
+
+			Item item;
+			if (concatenate)
+			{
+				if (existing.data.length + data.length > maxItemSize)
+				{
+					return Status.TOO_LARGE;
+				}
+				byte[] joined = new byte[existing.data.length + data.length];
+				byte[] first = command == APPEND ? existing.data : data;
+				byte[] second = command == APPEND ? data : existing.data;
+				System.arraycopy(first, 0, joined, 0, first.length);
+				System.arraycopy(second, 0, joined, first.length, second.length);
+				item = new Item(existing.flags, existing.expiresAt, joined, ++casCounter);
+			}
+			else
+			{
+				item = new Item(flags, toDeadline(exptime), data, ++casCounter);
+			}
+			put(key, item);
+			return Status.OK;
+		}
+	}
+
+	private Status delete(String key, long cas)
+	{
+		synchronized (items)
+		{
+			Item existing = getLive(key);
+			if (existing == null)
+			{
+				return Status.NOT_FOUND;
+			}
+			if (cas != 0 && existing.cas != cas)
+			{
+				return Status.EXISTS;
+			}
+			remove(key);
+			return Status.OK;
+		}
+	}
+
+	/**
+	 * @return the new value, or {@code null} if there is no such item
+	 * @throws NumberFormatException if the value of the item is not a number
+	 */
+	private Long incr(String key, long delta, boolean increment)
+	{
+		synchronized (items)
+		{
+			Item existing = getLive(key);
+			if (existing == null)
+			{
+				return null;
+			}
+			long value = Long.parseLong(new String(existing.data, CHARSET).trim());
+			value = increment ? value + delta : Math.max(0, value - delta);
+			put(key, new Item(existing.flags, existing.expiresAt, Long.toString(value).getBytes(CHARSET),
+					++casCounter));
+			return value;
+		}
+	}
+
+	private Item touch(String key, int exptime)
+	{
+		synchronized (items)
+		{
+			Item item = getLive(key);
+			if (item != null)
+			{
+				item.expiresAt = toDeadline(exptime);
+			}
+			return item;
+		}
+	}
+
+	private long getCas(String key)
+	{
+		synchronized (items)
+		{
+			Item item = items.get(key);
+			return item != null ? item.cas : 0;
+		}
+	}
+
+	private void put(String key, Item item)
+	{
+		remove(key);
+		long size = item.size(key);
+		evict(size);
+		items.put(key, item);
+		memoryUsed += size;
+		totalItems++;
+	}
+
+	private void remove(String key)
+	{
+		Item item = items.remove(key);
+		if (item != null)
+		{
+			memoryUsed -= item.size(key);
+		}
+	}
+
+	/**
+	 * Evicts the least recently used items until there is enough memory for a new item
+	 *
+	 * @param size the size of the new item
+	 */
+	private void evict(long size)
+	{
+		Iterator<Map.Entry<String, Item>> eldest = items.entrySet().iterator();
+		while (memoryUsed + size > maxMemory && eldest.hasNext())
+		{
+			Map.Entry<String, Item> entry = eldest.next();
+			memoryUsed -= entry.getValue().size(entry.getKey());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	private Map<String, String> getStats()
+	{
+		Map<String, String> stats = new LinkedHashMap<String, String>();
+		synchronized (items)
+		{
+			stats.put("uptime", Long.toString((System.currentTimeMillis() - startedAt) / 1000));
+			stats.put("version", VERSION);
+			stats.put("curr_connections", Integer.toString(connectionCount.get()));
+			stats.put("curr_items", Integer.toString(items.size()));
+			stats.put("total_items", Long.toString(totalItems));
+			stats.put("bytes", Long.toString(memoryUsed));
+			stats.put("limit_maxbytes", Long.toString(maxMemory));
+			stats.put("item_size_max", Integer.toString(maxItemSize));
+			stats.put("evictions", Long.toString(evictions));
+			stats.put("get_hits", Long.toString(hits));
+			stats.put("get_misses", Long.toString(misses));
+		}
+		return stats;
+	}
+
+	private static long toDeadline(int exptime)
+	{
+		if (exptime == 0)
+		{
+			return 0;
+		}
+		if (exptime < 0)
+		{
+			// already expired
+			return 1;
+		}
+		if (exptime > MAX_RELATIVE_EXPIRATION)
+		{
+			return (exptime & 0xFFFFFFFFL) * 1000L;
+		}
+		return System.currentTimeMillis() + exptime * 1000L;
+	}
+
+	/**
+	 * A client connection with its pending input and output
+	 */
+	private class Connection
+	{
+		private final SocketChannel channel;
+
+		private final SelectionKey key;
+
+		private final Deque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+
+		/**
+		 * The received bytes, in write mode between the reads
+		 */
+		private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		/**
+		 * {@code null} until the first byte is received
+		 */
+		private Boolean binary;
+
+		/**
+		 * Set by quit. The connection is closed once the output is written.
+		 */
+		private boolean closing;
+
+		private Connection(SocketChannel channel, SelectionKey key)
+		{
+			this.channel = channel;
+			this.key = key;
+		}
+
+		private void read() throws IOException
+		{
+			if (channel.read(input) < 0)
+			{
+				closeQuietly(key);
+				return;
+			}
+
+			input.flip();
+			int required = 0;
+			while (input.hasRemaining() && !closing && required == 0)
+			{
+				if (binary == null)
+				{
+					binary = (input.get(input.position()) & 0xFF) == BINARY_REQUEST;
+				}
+				required = binary ? processBinary() : processText();
+			}
+			input.compact();
+
+			if (required > input.capacity())
+			{
+				// the next request does not fit in the buffer
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(required, input.capacity() * 2));
+				input.flip();
+				bigger.put(input);
+				input = bigger;
+			}
+			else if (input.position() == 0 && input.capacity() > INITIAL_BUFFER_SIZE)
+			{
+				input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+			}
+
+			write();
+		}
+
+		private void write() throws IOException
+		{
+			while (!output.isEmpty())
+			{
+				ByteBuffer[] buffers = new ByteBuffer[Math.min(output.size(), MAX_WRITE_BUFFERS)];
+				Iterator<ByteBuffer> pending = output.iterator();
+				for (int i = 0; i < buffers.length; i++)
+				{
+					buffers[i] = pending.next();
+				}
+				long written = channel.write(buffers);
+				while (!output.isEmpty() && !output.peek().hasRemaining())
+				{
+					output.poll();
+				}
+				if (written == 0)
+				{
+					break;
+				}
+			}
+
+			if (output.isEmpty())
+			{
+				if (closing)
+				{
+					closeQuietly(key);
+				}
+				else
+				{
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+			else
+			{
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Processes a text command
+		 *
+		 * @return 0 if a command was processed, otherwise the number of bytes
+		 *          needed for the next command
+		 */
+		private int processText()
+		{
+			byte[] buffer = input.array();
+			int start = input.position();
+			int end = -1;
+			for (int i = start; i < input.limit(); i++)
+			{
+				if (buffer[i] == '\n')
+				{
+					end = i;
+					break;
+				}
+			}
+			if (end < 0)
+			{
+				return input.remaining() + 1;
+			}
+
+			String line = new String(buffer, start, end - start, CHARSET).trim();
+			String[] tokens = line.split(" +");
+			String command = tokens[0];
+			boolean noreply = "noreply".equals(tokens[tokens.length - 1]);
+
+			int storeCommand = getStoreCommand(command);
+			if (storeCommand >= 0)
+			{
+				int length;
+				try
+				{
+					length = Integer.parseInt(tokens[4]);
+				}
+				catch (RuntimeException rx)
+				{
+					input.position(end + 1);
+					respond(Status.INVALID_ARGUMENTS.text);
+					return 0;
+				}
+				int required = end + 1 - start + length + CRLF.length;
+				if (input.remaining() < required)
+				{
+					return required;
+				}
+				byte[] data = new byte[length];
+				System.arraycopy(buffer, end + 1, data, 0, length);
+				input.position(start + required);
+
+				Status status;
+				try
+				{
+					long cas = "cas".equals(command) ? Long.parseLong(tokens[5]) : 0L;
+					status = store(storeCommand, tokens[1], Integer.parseInt(tokens[2]),
+							Integer.parseInt(tokens[3]), data, cas);
+				}
+				catch (RuntimeException rx)
+				{
+					status = Status.INVALID_ARGUMENTS;
+				}
+				if (!noreply)
+				{
+					respond(status.text);
+				}
+				return 0;
+			}
+
+			input.position(end + 1);
+			try
+			{
+				String response = processText(command, tokens);
+				if (response != null && !noreply)
+				{
+					respond(response);
+				}
+			}
+			catch (RuntimeException rx)
+			{
+				respond(Status.INVALID_ARGUMENTS.text);
+			}
+			return 0;
+		}
+
+		/**
+		 * @return the response line, {@code null} if already written
+		 */
+		private String processText(String command, String[] tokens)
+		{
+			if ("get".equals(command) || "gets".equals(command))
+			{
+				for (int i = 1; i < tokens.length; i++)
+				{
+					Item item = getLive(tokens[i], true);
+					if (item != null)
+					{
+						StringBuilder header = new StringBuilder("VALUE ")
+								.append(tokens[i]).append(' ')
+								.append(item.flags).append(' ')
+								.append(item.data.length);
+						if ("gets".equals(command))
+						{
+							header.append(' ').append(item.cas);
+						}
+						respond(header.toString());
+						output.add(ByteBuffer.wrap(item.data));
+						output.add(ByteBuffer.wrap(CRLF));
+					}
+				}
+				return "END";
+			}
+			else if ("delete".equals(command))
+			{
+				Status status = delete(tokens[1], 0);
+				return status == Status.OK ? "DELETED" : status.text;
+			}
+			else if ("incr".equals(command) || "decr".equals(command))
+			{
+				try
+				{
+					Long value = incr(tokens[1], Long.parseLong(tokens[2]), "incr".equals(command));
+					return value != null ? value.toString() : Status.NOT_FOUND.text;
+				}
+				catch (NumberFormatException nfx)
+				{
+					return Status.NON_NUMERIC.text;
+				}
+			}
+			else if ("touch".equals(command))
+			{
+				return touch(tokens[1], Integer.parseInt(tokens[2])) != null ? "TOUCHED" : Status.NOT_FOUND.text;
+			}
+			else if ("flush_all".equals(command))
+			{
+				clear();
+				return "OK";
+			}
+			else if ("version".equals(command))
+			{
+				return "VERSION " + VERSION;
+			}
+			else if ("verbosity".equals(command))
+			{
+				return "OK";
+			}
+			else if ("stats".equals(command))
+			{
+				for (Map.Entry<String, String> stat : getStats().entrySet())
+				{
+					respond("STAT " + stat.getKey() + ' ' + stat.getValue());
+				}
+				return "END";
+			}
+			else if ("quit".equals(command))
+			{
+				closing = true;
+				return null;
+			}
+			return Status.UNKNOWN_COMMAND.text;
+		}
+
+		/**
+		 * Processes a binary command
+		 *
+		 * @return 0 if a command was processed, otherwise the number of bytes
+		 *          needed for the next command
+		 */
+		private int processBinary()
+		{
+			if (input.remaining() < HEADER_LENGTH)
+			{
+				return HEADER_LENGTH;
+			}
+
+			int start = input.position();
+			if ((input.get(start) & 0xFF) != BINARY_REQUEST)
+			{
+				LOG.warn("Invalid magic byte in a binary request, closing the connection");
+				input.position(input.limit());
+				closing = true;
+				return 0;
+			}
+
+			int opcode = input.get(start + 1) & 0xFF;
+			int keyLength = input.getShort(start + 2) & 0xFFFF;
+			int extrasLength = input.get(start + 4) & 0xFF;
+			int bodyLength = input.getInt(start + 8);
+			int opaque = input.getInt(start + 12);
+			long cas = input.getLong(start + 16);
+			if (input.remaining() < HEADER_LENGTH + bodyLength)
+			{
+				return HEADER_LENGTH + bodyLength;
+			}
+			input.position(start + HEADER_LENGTH + bodyLength);
+
+			int extras = start + HEADER_LENGTH;
+			String key = new String(input.array(), extras + extrasLength, keyLength, CHARSET);
+			int valueOffset = extras + extrasLength + keyLength;
+			int valueLength = bodyLength - extrasLength - keyLength;
+
+			switch (opcode)
+			{
+				case GET :
+				case GETQ :
+				case GETK :
+				case GETKQ :
+				case GAT :
+				case GATQ :
+				{
+					boolean touch = opcode == GAT || opcode == GATQ;
+					Item item = touch ? touch(key, input.getInt(extras)) : getLive(key, true);
+					boolean quiet = opcode == GETQ || opcode == GETKQ || opcode == GATQ;
+					if (item != null)
+					{
+						byte[] responseKey = opcode == GETK || opcode == GETKQ ? key.getBytes(CHARSET) : null;
+						respond(opcode, Status.OK, opaque, item.cas, intBytes(item.flags), responseKey, item.data);
+					}
+					else if (!quiet)
+					{
+						respond(opcode, Status.NOT_FOUND, opaque);
+					}
+					break;
+				}
+				case SET :
+				case SETQ :
+				case ADD :
+				case ADDQ :
+				case REPLACE :
+				case REPLACEQ :
+				case APPEND :
+				case APPENDQ :
+				case PREPEND :
+				case PREPENDQ :
+				{
+					byte[] data = new byte[valueLength];
+					System.arraycopy(input.array(), valueOffset, data, 0, valueLength);
+					boolean concatenate = extrasLength == 0;
+					int flags = concatenate ? 0 : input.getInt(extras);
+					int exptime = concatenate ? 0 : input.getInt(extras + 4);
+					Status status = store(getStoreCommand(opcode), key, flags, exptime, data, cas);
+					if (status != Status.OK || !isQuiet(opcode))
+					{
+						respond(opcode, status, opaque, status == Status.OK ? getCas(key) : 0, null, null, null);
+					}
+					break;
+				}
+				case DELETE :
+				case DELETEQ :
+				{
+					Status status = delete(key, cas);
+					if (status != Status.OK || opcode == DELETE)
+					{
+						respond(opcode, status, opaque);
+					}
+					break;
+				}
+				case INCREMENT :
+				case INCREMENTQ :
+				case DECREMENT :
+				case DECREMENTQ :
+				{
+					increment(opcode, key, input.getLong(extras), input.getLong(extras + 8), input.getInt(extras + 16),
+							opaque);
+					break;
+				}
+				case TOUCH :
+				{
+					respond(opcode, touch(key, input.getInt(extras)) != null ? Status.OK : Status.NOT_FOUND, opaque);
+					break;
+				}
+				case FLUSH :
+				case FLUSHQ :
+				{
+					clear();
+					if (opcode == FLUSH)
+					{
+						respond(opcode, Status.OK, opaque);
+					}
+					break;
+				}
+				case NOOP :
+				{
+					respond(opcode, Status.OK, opaque);
+					break;
+				}
+				case VERSION_OPCODE :
+				{
+					respond(opcode, Status.OK, opaque, 0, null, null, VERSION.getBytes(CHARSET));
+					break;
+				}
+				case STAT :
+				{
+					for (Map.Entry<String, String> stat : getStats().entrySet())
+					{
+						respond(opcode, Status.OK, opaque, 0, null, stat.getKey().getBytes(CHARSET),
+								stat.getValue().getBytes(CHARSET));
+					}
+					respond(opcode, Status.OK, opaque);
+					break;
+				}
+				case QUIT :
+				case QUITQ :
+				{
+					if (opcode == QUIT)
+					{
+						respond(opcode, Status.OK, opaque);
+					}
+					closing = true;
+					break;
+				}
+				default :
+				{
+					respond(opcode, Status.UNKNOWN_COMMAND, opaque);
+				}
+			}
+			return 0;
+		}
+
+		private void increment(int opcode, String key, long delta, long initial, int exptime, int opaque)
+		{
+			boolean increment = opcode == INCREMENT || opcode == INCREMENTQ;
+			boolean quiet = opcode == INCREMENTQ || opcode == DECREMENTQ;
+			Long value;
+			try
+			{
+				synchronized (items)
+				{
+					value = EmbeddedMemcached.this.incr(key, delta, increment);
+					if (value == null && exptime != -1)
+					{
+						// 0xFFFFFFFF means do not create the item
+						store(SET, key, 0, exptime, Long.toString(initial).getBytes(CHARSET), 0);
+						value = initial;
+					}
+				}
+			}
+			catch (NumberFormatException nfx)
+			{
+				respond(opcode, Status.NON_NUMERIC, opaque);
+				return;
+			}
+
+			if (value == null)
+			{
+				respond(opcode, Status.NOT_FOUND, opaque);
+			}
+			else if (!quiet)
+			{
+				byte[] body = new byte[8];
+				ByteBuffer.wrap(body).putLong(value);
+				respond(opcode, Status.OK, opaque, getCas(key), null, null, body);
+			}
+		}
+
+		private void respond(String line)
+		{
+			byte[] bytes = line.getBytes(CHARSET);
+			ByteBuffer buffer = ByteBuffer.allocate(bytes.length + CRLF.length);
+			buffer.put(bytes).put(CRLF).flip();
+			output.add(buffer);
+		}
+
+		private void respond(int opcode, Status status, int opaque)
+		{
+			respond(opcode, status, opaque, 0, null, null, status.message);
+		}
+
+		private void respond(int opcode, Status status, int opaque, long cas, byte[] extras, byte[] key,
+				byte[] value)
+		{
+			int extrasLength = extras != null ? extras.length : 0;
+			int keyLength = key != null ? key.length : 0;
+			int valueLength = value != null ? value.length : 0;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + extrasLength + keyLength);
+			header.put((byte) BINARY_RESPONSE)
+				.put((byte) opcode)
+				.putShort((short) keyLength)
+				.put((byte) extrasLength)
+				.put((byte) 0)
+				.putShort((short) status.code)
+				.putInt(extrasLength + keyLength + valueLength)
+				.putInt(opaque)
+				.putLong(cas);
+			if (extras != null)
+			{
+				header.put(extras);
+			}
+			if (key != null)
+			{
+				header.put(key);
+			}
+			header.flip();
+			output.add(header);
+			if (value != null)
+			{
+				output.add(ByteBuffer.wrap(value));
+			}
+		}
+	}
+
+	private static int getStoreCommand(String command)
+	{
+		if ("set".equals(command) || "cas".equals(command))
+		{
+			return SET;
+		}
+		else if ("add".equals(command))
+		{
+			return ADD;
+		}
+		else if ("replace".equals(command))
+		{
+			return REPLACE;
+		}
+		else if ("append".equals(command))
+		{
+			return APPEND;
+		}
+		else if ("prepend".equals(command))
+		{
+			return PREPEND;
+		}
+		return -1;
+	}
+
+	private static int getStoreCommand(int opcode)
+	{
+		switch (opcode)
+		{
+			case SETQ :
+				return SET;
+			case ADDQ :
+				return ADD;
+			case REPLACEQ :
+				return REPLACE;
+			case APPENDQ :
+				return APPEND;
+			case PREPENDQ :
+				return PREPEND;
+			default :
+				return opcode;
+		}
+	}
+
+	private static boolean isQuiet(int opcode)
+	{
+		return opcode == SETQ || opcode == ADDQ || opcode == REPLACEQ || opcode == APPENDQ || opcode == PREPENDQ;
+	}
+
+	private static byte[] intBytes(int value)
+	{
+		byte[] bytes = new byte[4];
+		ByteBuffer.wrap(bytes).putInt(value);
+		return bytes;
+	}
+
+	private static class Item
+	{
+		private final int flags;
+		private volatile long expiresAt;
+		private final byte[] data;
+		private final long cas;
+
+		private Item(int flags, long expiresAt, byte[] data, long cas)
+		{
+			this.flags = flags;
+			this.expiresAt = expiresAt;
+			this.data = data;
+			this.cas = cas;
+		}
+
+		private boolean isExpired(long now)
+		{
+			return expiresAt != 0 && expiresAt <= now;
+		}
+
+		private long size(String key)
+		{
+			return key.length() + data.length + ITEM_OVERHEAD;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import net.spy.memcached.BinaryConnectionFactory;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.DefaultConnectionFactory;
+import net.spy.memcached.MemcachedClient;
+import org.apache.wicket.util.lang.Bytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests EmbeddedMemcached with both protocols of spymemcached
+ */
+public class EmbeddedMemcachedTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedClient client;
+
+	@After
+	public void after()
+	{
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void textProtocol() throws Exception
+	{
+		connect(new EmbeddedMemcached(), new DefaultConnectionFactory());
+		assertCommands();
+	}
+
+	@Test
+	public void binaryProtocol() throws Exception
+	{
+		connect(new EmbeddedMemcached(), new BinaryConnectionFactory());
+		assertCommands();
+	}
+
+	@Test
+	public void leastRecentlyUsedItemsAreEvicted() throws Exception
+	{
+		connect(new EmbeddedMemcached().setMaxMemory(Bytes.kilobytes(30)), new BinaryConnectionFactory());
+
+		byte[] value = new byte[9 * 1024];
+		assertTrue(client.set("a", 0, value).get());
+		assertTrue(client.set("b", 0, value).get());
+		assertTrue(client.set("c", 0, value).get());
+		// "a" becomes the most recently used one
+		assertNotNull(client.get("a"));
+		assertTrue(client.set("d", 0, value).get());
+
+		assertNotNull(client.get("a"));
+		assertNull(client.get("b"));
+		assertEquals(1, server.getEvictions());
+		assertTrue(server.getMemoryUsed() <= Bytes.kilobytes(30).bytes());
+	}
+
+	@Test
+	public void tooLargeItemsAreRejected() throws Exception
+	{
+		connect(new EmbeddedMemcached().setMaxItemSize(Bytes.kilobytes(10)), new BinaryConnectionFactory());
+
+		try
+		{
+			client.set("big", 0, new byte[10 * 1024 + 1]).get();
+			fail("The item should be rejected");
+		}
+		catch (ExecutionException ex)
+		{
+			// spymemcached reports E2BIG as an error, like with a real Memcached
+		}
+		assertTrue(client.set("small", 0, new byte[10 * 1024]).get());
+		assertEquals(1, server.getItemCount());
+	}
+
+	private void assertCommands() throws Exception
+	{
+		assertTrue(client.set("key", 0, "value").get());
+		assertEquals("value", client.get("key"));
+		assertFalse(client.add("key", 0, "other").get());
+		assertTrue(client.append(0, "key", "-appended").get());
+		assertEquals("value-appended", client.get("key"));
+
+		CASValue<Object> casValue = client.gets("key");
+		assertEquals(CASResponse.OK, client.cas("key", casValue.getCas(), "swapped"));
+		assertEquals(CASResponse.EXISTS, client.cas("key", casValue.getCas(), "again"));
+
+		assertTrue(client.set("counter", 0, "10").get());
+		assertEquals(15, client.incr("counter", 5));
+		assertEquals(13, client.decr("counter", 2));
+
+		assertTrue(client.touch("key", 1).get());
+		assertFalse(client.touch("missing", 1).get());
+
+		Map<String, Object> values = client.getBulk(Arrays.asList("key", "counter", "missing"));
+		assertEquals(2, values.size());
+		assertEquals("swapped", values.get("key"));
+
+		assertTrue(client.delete("key").get());
+		assertFalse(client.delete("key").get());
+		assertNull(client.get("key"));
+
+		Map<String, String> stats = client.getStats().values().iterator().next();
+		assertEquals("1", stats.get("curr_items"));
+
+		assertTrue(client.flush().get());
+		assertEquals(Collections.emptyMap(), client.getBulk(Arrays.asList("counter")));
+	}
+
+	private void connect(EmbeddedMemcached embedded, ConnectionFactory connectionFactory) throws IOException
+	{
+		server = embedded.start();
+		client = new MemcachedClient(connectionFactory,
+				Arrays.asList(new InetSocketAddress("localhost", server.getPort())));
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the delay and the budget of the hedged reads
+ */
+public class HedgePolicyTest extends Assert
+{
+	@Test
+	public void delayIsThe95thPercentileOfTheLastWindow()
+	{
+		HedgePolicy policy = new HedgePolicy(0.1d, 1000000L);
+		for (int i = 0; i < HedgePolicy.WINDOW - 1; i++)
+		{
+			policy.recordLatency(i);
+		}
+		assertEquals(1000000L, policy.getDelay());
+
+		policy.recordLatency(HedgePolicy.WINDOW - 1);
+		long delay = policy.getDelay();
+		assertTrue(String.valueOf(delay), delay >= HedgePolicy.WINDOW * 95 / 100 && delay < HedgePolicy.WINDOW);
+
+		// the next window does not remember the previous one
+		for (int i = 0; i < HedgePolicy.WINDOW; i++)
+		{
+			policy.recordLatency(10000L);
+		}
+		assertTrue(policy.getDelay() >= 10000L);
+	}
+
+	@Test
+	public void hedgesAreLimitedByTheRate()
+	{
+		HedgePolicy policy = new HedgePolicy(0.1d, 0L);
+		int burst = 0;
+		while (policy.tryHedge())
+		{
+			burst++;
+		}
+		assertEquals(10, burst);
+
+		int hedges = 0;
+		for (int i = 0; i < 1000; i++)
+		{
+			policy.recordRead();
+			if (policy.tryHedge())
+			{
+				hedges++;
+			}
+		}
+		assertEquals(100, hedges);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.MemcachedClient;
+
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests hedging the reads from a slow primary server with the secondary server
+ */
+public class HedgedReadsTest extends Assert
+{
+	private static final byte[] PAGE = new byte[] {1, 2, 3};
+
+	private EmbeddedMemcached primary;
+
+	private EmbeddedMemcached secondary;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		primary = new EmbeddedMemcached().start();
+		secondary = new EmbeddedMemcached().start();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(primary.getPort())
+				.addSecondaryServer(new MemcachedServer("localhost", secondary.getPort()))
+				.setHedgedReads(true)
+				.setMaxHedgeRate(0.5d);
+		dataStore = new MemcachedDataStore(settings);
+		dataStore.storeData("session", 1, PAGE);
+	}
+
+	@After
+	public void after()
+	{
+		primary.setResponseDelay(Duration.NONE);
+		dataStore.destroy();
+		primary.stop();
+		secondary.stop();
+	}
+
+	@Test
+	public void slowReadIsHedged() throws Exception
+	{
+		// the latencies are recorded asynchronously, make sure a window is complete
+		for (int i = 0; i < 2 * HedgePolicy.WINDOW; i++)
+		{
+			assertArrayEquals(PAGE, dataStore.getData("session", 1));
+		}
+		long hedged = dataStore.getMetrics().getHedgedReads();
+
+		primary.setResponseDelay(Duration.milliseconds(500));
+		long start = System.currentTimeMillis();
+		assertArrayEquals(PAGE, dataStore.getData("session", 1));
+		assertTrue(System.currentTimeMillis() - start < 400);
+		assertEquals(hedged + 1, dataStore.getMetrics().getHedgedReads());
+		assertTrue(dataStore.getMetrics().getHedgeWins() > 0);
+
+		// let the primary server answer the hedged read before the shutdown
+		Thread.sleep(1000);
+	}
+
+	@Test
+	public void latencyOfCancelledReadsIsRecorded() throws Exception
+	{
+		// accepts the connection, but never answers
+		ServerSocket silentServer = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+		MemcachedClient client = new MemcachedClient(new InetSocketAddress("localhost", silentServer.getLocalPort()));
+		try
+		{
+			HedgePolicy policy = new HedgePolicy(1d, 1000);
+			for (int i = 0; i < HedgePolicy.WINDOW; i++)
+			{
+				HedgedGet get = new HedgedGet("missing", policy);
+				get.send(client);
+				assertFalse(get.await(1000));
+				get.send(client);
+				assertFalse(get.await(5000));
+				get.cancel();
+			}
+			// the reads took at least 6 ms before they were cancelled
+			assertTrue(policy.getDelay() >= 6000);
+		}
+		finally
+		{
+			client.shutdown(100, TimeUnit.MILLISECONDS);
+			silentServer.close();
+		}
+	}
+
+	@Test
+	public void readsAreNotHedgedUntilTheLatencyIsKnown() throws Exception
+	{
+		primary.setResponseDelay(Duration.milliseconds(200));
+		assertArrayEquals(PAGE, dataStore.getData("session", 1));
+		assertEquals(0, dataStore.getMetrics().getHedgedReads());
+	}
+}
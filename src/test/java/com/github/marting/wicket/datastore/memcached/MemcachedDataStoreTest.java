@@ -16,6 +16,7 @@
  */
 package com.github.marting.wicket.datastore.memcached;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.wicket.pageStore.IDataStore;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.time.Duration;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -357,14 +360,29 @@ public class MemcachedDataStoreTest extends Assert
 	 * store()
 	 */
 	@Test
-	public void store()
+	public void store() throws IOException
 	{
 		generateFiles();
 
-		dataStore = new MemcachedDataStore(new MemcachedSettings());
-
-		doTestDataStore();
-
-		dataStore.destroy();
+		// big enough for all files so none is evicted
+		EmbeddedMemcached server = new EmbeddedMemcached()
+				.setMaxMemory(Bytes.megabytes(512))
+				.start();
+		// the writers saturate the connection and the reads wait behind them
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(server.getPort())
+				.setReadTimeout(Duration.seconds(10))
+				.setOperationTimeout(Duration.seconds(10));
+		dataStore = new MemcachedDataStore(settings);
+
+		try
+		{
+			doTestDataStore();
+		}
+		finally
+		{
+			dataStore.destroy();
+			server.stop();
+		}
 	}
 }
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the distribution of the pages across a pool of Memcached servers
+ */
+public class MemcachedServersTest extends Assert
+{
+	private static final Logger log = LoggerFactory.getLogger(MemcachedServersTest.class);
+
+	private static final int SERVER_COUNT = 4;
+	private static final int SESSION_COUNT = 100;
+	private static final int PAGES_PER_SESSION = 20;
+
+	private final List<EmbeddedMemcached> servers = new ArrayList<EmbeddedMemcached>();
+
+	@Before
+	public void before() throws IOException
+	{
+		for (int i = 0; i < SERVER_COUNT; i++)
+		{
+			servers.add(new EmbeddedMemcached().start());
+		}
+	}
+
+	@After
+	public void after()
+	{
+		for (EmbeddedMemcached server : servers)
+		{
+			server.stop();
+		}
+	}
+
+	/**
+	 * The pages are spread evenly across servers with the same weight
+	 */
+	@Test
+	public void pagesAreSpreadEvenly()
+	{
+		IMemcachedSettings settings = new MemcachedSettings();
+		for (EmbeddedMemcached server : servers)
+		{
+			settings.addServer(new MemcachedServer("localhost", server.getPort()));
+		}
+		MemcachedClient client = MemcachedDataStore.createClient(settings);
+		awaitConnections(client);
+		MemcachedDataStore dataStore = new MemcachedDataStore(client, settings);
+
+		List<String> sessionIds = new ArrayList<String>();
+		byte[] data = new byte[] {1, 2, 3};
+		for (int s = 0; s < SESSION_COUNT; s++)
+		{
+			String sessionId = UUID.randomUUID().toString();
+			sessionIds.add(sessionId);
+			for (int pageId = 0; pageId < PAGES_PER_SESSION; pageId++)
+			{
+				dataStore.storeData(sessionId, pageId, data);
+			}
+		}
+
+		for (String sessionId : sessionIds)
+		{
+			for (int pageId = 0; pageId < PAGES_PER_SESSION; pageId++)
+			{
+				assertArrayEquals(data, dataStore.getData(sessionId, pageId));
+			}
+		}
+
+		int total = SESSION_COUNT * PAGES_PER_SESSION;
+		int expected = total / SERVER_COUNT;
+		int sum = 0;
+		for (EmbeddedMemcached server : servers)
+		{
+			int count = server.getItemCount();
+			log.info("Server at port {} has {} of {} items", new Object[] {server.getPort(), count, total});
+			assertTrue("Unbalanced server: " + count, count > expected * 0.6 && count < expected * 1.4);
+			sum += count;
+		}
+		assertEquals(total, sum);
+
+		dataStore.destroy();
+	}
+
+	/**
+	 * A server with a bigger weight gets proportionally more pages
+	 */
+	@Test
+	public void weights()
+	{
+		IMemcachedSettings settings = new MemcachedSettings();
+		settings.addServer(new MemcachedServer("localhost", servers.get(0).getPort(), 1));
+		settings.addServer(new MemcachedServer("localhost", servers.get(1).getPort(), 3));
+
+		MemcachedClient client = MemcachedDataStore.createClient(settings);
+		try
+		{
+			NodeLocator locator = client.getNodeLocator();
+			int keys = 10000;
+			int onServer1 = 0;
+			for (int i = 0; i < keys; i++)
+			{
+				if (locator.getPrimary(key(i)).getSocketAddress().toString().endsWith(":" + servers.get(1).getPort()))
+				{
+					onServer1++;
+				}
+			}
+			log.info("The server with weight 3 has {} of {} keys", onServer1, keys);
+			assertTrue("Expected about 75% but got " + onServer1, onServer1 > keys * 0.65 && onServer1 < keys * 0.85);
+		}
+		finally
+		{
+			client.shutdown();
+		}
+	}
+
+	/**
+	 * The read-only copy of the locator maps the keys like the locator but its nodes cannot be changed
+	 */
+	@Test
+	public void readonlyCopyCannotChangeTheNodes()
+	{
+		IMemcachedSettings settings = new MemcachedSettings();
+		settings.addServer(new MemcachedServer("localhost", servers.get(0).getPort(), 1));
+		settings.addServer(new MemcachedServer("localhost", servers.get(1).getPort(), 3));
+
+		MemcachedClient client = MemcachedDataStore.createClient(settings);
+		try
+		{
+			NodeLocator locator = client.getNodeLocator();
+			NodeLocator copy = locator.getReadonlyCopy();
+			for (int i = 0; i < 1000; i++)
+			{
+				assertEquals(locator.getPrimary(key(i)).getSocketAddress(), copy.getPrimary(key(i)).getSocketAddress());
+			}
+			for (MemcachedNode node : copy.getAll())
+			{
+				try
+				{
+					node.setupResend();
+					fail("The nodes of the read-only copy must not be changed");
+				}
+				catch (UnsupportedOperationException expected)
+				{
+					// read-only
+				}
+			}
+		}
+		finally
+		{
+			client.shutdown();
+		}
+	}
+
+	/**
+	 * Removing a server from the pool remaps only the keys of that server
+	 */
+	@Test
+	public void removingServerRemapsOnlyItsKeys()
+	{
+		IMemcachedSettings all = new MemcachedSettings();
+		IMemcachedSettings withoutLast = new MemcachedSettings();
+		for (int i = 0; i < SERVER_COUNT; i++)
+		{
+			MemcachedServer server = new MemcachedServer("localhost", servers.get(i).getPort());
+			all.addServer(server);
+			if (i < SERVER_COUNT - 1)
+			{
+				withoutLast.addServer(server);
+			}
+		}
+
+		MemcachedClient before = MemcachedDataStore.createClient(all);
+		MemcachedClient after = MemcachedDataStore.createClient(withoutLast);
+		try
+		{
+			int keys = 10000;
+			int moved = 0;
+			int movedFromKeptServers = 0;
+			String removed = ":" + servers.get(SERVER_COUNT - 1).getPort();
+			for (int i = 0; i < keys; i++)
+			{
+				String key = key(i);
+				String oldServer = before.getNodeLocator().getPrimary(key).getSocketAddress().toString();
+				String newServer = after.getNodeLocator().getPrimary(key).getSocketAddress().toString();
+				if (!oldServer.equals(newServer))
+				{
+					moved++;
+					if (!oldServer.endsWith(removed))
+					{
+						movedFromKeptServers++;
+					}
+				}
+			}
+			log.info("Removing a server moved {} of {} keys", moved, keys);
+
+			assertEquals(0, movedFromKeptServers);
+			assertTrue("Too many keys moved: " + moved, moved < keys * 0.35);
+		}
+		finally
+		{
+			before.shutdown();
+			after.shutdown();
+		}
+	}
+
+	/**
+	 * Operations for servers which are not connected yet are redistributed
+	 * to the other servers, so wait for all connections before storing
+	 */
+	private void awaitConnections(MemcachedClient client)
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (client.getAvailableServers().size() < servers.size() && System.currentTimeMillis() < deadline)
+		{
+			try
+			{
+				Thread.sleep(10);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static String key(int i)
+	{
+		return "session-" + (i / PAGES_PER_SESSION) + "|||" + (i % PAGES_PER_SESSION) + "|||Wicket-Memcached";
+	}
+}
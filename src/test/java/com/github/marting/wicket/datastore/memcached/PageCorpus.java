@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.Button;
+import org.apache.wicket.markup.html.form.DropDownChoice;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.mock.MockApplication;
+import org.apache.wicket.model.CompoundPropertyModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.serialize.java.JavaSerializer;
+import org.apache.wicket.util.tester.WicketTester;
+
+/**
+ * Serializes Wicket pages with forms and tables of random data,
+ * like the pages the data store gets from an application
+ */
+class PageCorpus
+{
+	private static final String[] NAMES = {"Alice", "Bob", "Carol", "Dave", "Eve", "Mallory", "Peggy", "Trent"};
+
+	private static final List<String> COUNTRIES = Arrays.asList("Bulgaria", "Germany", "Netherlands",
+			"Switzerland", "United Kingdom");
+
+	private final Random random;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param seed the seed of the random data
+	 */
+	PageCorpus(long seed)
+	{
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param count the number of pages
+	 * @return the serialized pages
+	 */
+	List<byte[]> serializePages(int count)
+	{
+		WicketTester tester = new WicketTester(new MockApplication());
+		try
+		{
+			JavaSerializer serializer = new JavaSerializer("corpus");
+			List<byte[]> pages = new ArrayList<byte[]>(count);
+			for (int i = 0; i < count; i++)
+			{
+				WebPage page = random.nextBoolean() ? new CustomersPage(customers()) : new EditPage(customer());
+				pages.add(serializer.serialize(page));
+			}
+			return pages;
+		}
+		finally
+		{
+			tester.destroy();
+		}
+	}
+
+	private List<Customer> customers()
+	{
+		List<Customer> customers = new ArrayList<Customer>();
+		for (int i = 5 + random.nextInt(30); i > 0; i--)
+		{
+			customers.add(customer());
+		}
+		return customers;
+	}
+
+	private Customer customer()
+	{
+		Customer customer = new Customer();
+		customer.name = NAMES[random.nextInt(NAMES.length)] + " " + NAMES[random.nextInt(NAMES.length)];
+		customer.email = Integer.toString(random.nextInt(Integer.MAX_VALUE), 36) + "@example.com";
+		customer.country = COUNTRIES.get(random.nextInt(COUNTRIES.size()));
+		customer.orders = random.nextInt(100);
+		customer.created = new Date(random.nextLong() >>> 24);
+		return customer;
+	}
+
+	static class Customer implements Serializable
+	{
+		String name;
+		String email;
+		String country;
+		int orders;
+		Date created;
+	}
+
+	static class CustomersPage extends WebPage
+	{
+		CustomersPage(List<Customer> customers)
+		{
+			add(new Label("title", Model.of("Customers")));
+			add(new BookmarkablePageLink<Void>("home", getApplication().getHomePage()));
+			RepeatingView rows = new RepeatingView("rows");
+			add(rows);
+			for (Customer customer : customers)
+			{
+				WebMarkupContainer row = new WebMarkupContainer(rows.newChildId(),
+						new CompoundPropertyModel<Customer>(customer));
+				rows.add(row);
+				row.add(new Label("name"));
+				row.add(new Label("email"));
+				row.add(new Label("orders"));
+				row.add(new BookmarkablePageLink<Void>("edit", EditPage.class));
+			}
+		}
+	}
+
+	static class EditPage extends WebPage
+	{
+		EditPage(Customer customer)
+		{
+			add(new Label("title", Model.of("Edit " + customer.name)));
+			Form<Customer> form = new Form<Customer>("form", new CompoundPropertyModel<Customer>(customer));
+			add(form);
+			form.add(new TextField<String>("name").setRequired(true));
+			form.add(new TextField<String>("email"));
+			form.add(new DropDownChoice<String>("country", COUNTRIES));
+			form.add(new TextField<Integer>("orders"));
+			form.add(new TextField<Date>("created"));
+			form.add(new Button("save"));
+			form.add(new Button("cancel").setDefaultFormProcessing(false));
+		}
+	}
+}
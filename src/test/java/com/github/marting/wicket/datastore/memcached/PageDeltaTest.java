@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests encoding the pages as deltas to a keyframe
+ */
+public class PageDeltaTest extends Assert
+{
+	private static final Random random = new Random();
+
+	@Test
+	public void keyframeItself()
+	{
+		byte[] keyframe = random(10000);
+		byte[] delta = PageDelta.create(-1, new PageDelta.Keyframe(keyframe), keyframe);
+
+		assertEquals(-1, PageDelta.getKeyframeId(delta));
+		assertTrue(delta.length < 16);
+		assertArrayEquals(keyframe, PageDelta.apply(delta, keyframe));
+	}
+
+	@Test
+	public void smallChanges()
+	{
+		byte[] keyframe = random(20000);
+		byte[] page = Arrays.copyOf(keyframe, keyframe.length);
+		// a changed field
+		page[100] ^= 1;
+		page[15000] ^= 1;
+		// an inserted and a removed range
+		byte[] inserted = random(30);
+		page = concat(Arrays.copyOfRange(page, 0, 5000), inserted, Arrays.copyOfRange(page, 5000, 10000),
+				Arrays.copyOfRange(page, 10100, page.length));
+
+		byte[] delta = PageDelta.create(-7, new PageDelta.Keyframe(keyframe), page);
+
+		assertEquals(-7, PageDelta.getKeyframeId(delta));
+		assertTrue(String.valueOf(delta.length), delta.length < 100);
+		assertArrayEquals(page, PageDelta.apply(delta, keyframe));
+	}
+
+	@Test
+	public void unrelatedPage()
+	{
+		byte[] keyframe = random(5000);
+		byte[] page = random(8000);
+
+		byte[] delta = PageDelta.create(-1, new PageDelta.Keyframe(keyframe), page);
+
+		assertTrue(delta.length > page.length);
+		assertArrayEquals(page, PageDelta.apply(delta, keyframe));
+	}
+
+	@Test
+	public void otherKeyframe()
+	{
+		byte[] keyframe = random(10000);
+		byte[] page = Arrays.copyOf(keyframe, keyframe.length);
+		page[100] ^= 1;
+		byte[] delta = PageDelta.create(-1, new PageDelta.Keyframe(keyframe), page);
+
+		// e.g. another keyframe has been stored under the same id
+		assertNull(PageDelta.apply(delta, random(10000)));
+	}
+
+	@Test
+	public void keyframeEncodesSeveralPages()
+	{
+		byte[] keyframe = random(10000);
+		PageDelta.Keyframe indexed = new PageDelta.Keyframe(keyframe);
+		for (int i = 0; i < 3; i++)
+		{
+			byte[] page = Arrays.copyOf(keyframe, keyframe.length);
+			page[1000 * i] ^= 1;
+			byte[] delta = PageDelta.create(-1, indexed, page);
+
+			assertTrue(String.valueOf(delta.length), delta.length < 40);
+			assertArrayEquals(page, PageDelta.apply(delta, keyframe));
+		}
+	}
+
+	@Test
+	public void shortKeyframe()
+	{
+		byte[] keyframe = {1, 2, 3};
+		byte[] page = {1, 2, 3, 4};
+
+		PageDelta.Keyframe indexed = new PageDelta.Keyframe(keyframe);
+
+		assertArrayEquals(page, PageDelta.apply(PageDelta.create(-1, indexed, page), keyframe));
+		assertArrayEquals(new byte[0], PageDelta.apply(PageDelta.create(-1, indexed, new byte[0]), keyframe));
+	}
+
+	private static byte[] concat(byte[]... parts)
+	{
+		int length = 0;
+		for (byte[] part : parts)
+		{
+			length += part.length;
+		}
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts)
+		{
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+
+	private static byte[] random(int length)
+	{
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Random;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import org.apache.wicket.util.lang.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for PageEncoder
+ */
+public class PageEncoderTest extends Assert
+{
+	private static final Random random = new Random();
+
+	@Test
+	public void compressesCompressiblePages()
+	{
+		PageEncoder encoder = new PageEncoder(new MemcachedSettings()
+				.setPageCompressor(new DeflatePageCompressor()));
+
+		byte[] page = compressiblePage(100 * 1024);
+		byte[] payload = encoder.encode(page);
+
+		assertEquals(PageEncoder.RAW_HEADER | DeflatePageCompressor.ID, payload[0] & 0xFF);
+		assertTrue(payload.length < page.length / 2);
+		assertArrayEquals(page, encoder.decode(payload));
+	}
+
+	@Test
+	public void doesNotCompressSmallPages()
+	{
+		PageEncoder encoder = new PageEncoder(new MemcachedSettings()
+				.setPageCompressor(new DeflatePageCompressor())
+				.setCompressionThreshold(Bytes.kilobytes(1)));
+
+		byte[] page = compressiblePage(512);
+		byte[] payload = encoder.encode(page);
+
+		assertEquals(PageEncoder.RAW_HEADER, payload[0] & 0xFF);
+		assertArrayEquals(page, encoder.decode(payload));
+	}
+
+	@Test
+	public void storesIncompressiblePagesUncompressed()
+	{
+		PageEncoder encoder = new PageEncoder(new MemcachedSettings()
+				.setPageCompressor(new DeflatePageCompressor()));
+
+		byte[] page = randomPage(10 * 1024);
+		byte[] payload = encoder.encode(page);
+
+		assertEquals(PageEncoder.RAW_HEADER, payload[0] & 0xFF);
+		assertArrayEquals(page, encoder.decode(payload));
+		assertTrue(encoder.getAverageRatio() > 0.9);
+	}
+
+	@Test
+	public void adaptiveModeStopsCompressing()
+	{
+		CountingCompressor compressor = new CountingCompressor();
+		PageEncoder encoder = new PageEncoder(new MemcachedSettings()
+				.setPageCompressor(compressor)
+				.setAdaptiveCompression(true));
+
+		for (int i = 0; i < 100; i++)
+		{
+			encoder.encode(randomPage(8 * 1024));
+		}
+
+		// the first page plus a sample of the rest
+		assertTrue("Compressed " + compressor.count + " pages", compressor.count < 10);
+	}
+
+	@Test
+	public void readsPagesStoredWithoutHeader()
+	{
+		PageEncoder encoder = new PageEncoder(new MemcachedSettings()
+				.setPageCompressor(new DeflatePageCompressor()));
+
+		// e.g. a page of another serializer which starts like a header
+		byte[] legacy = compressiblePage(1024);
+		legacy[0] = (byte) PageEncoder.RAW_HEADER;
+		CachedData stored = new SerializingTranscoder().encode(legacy);
+
+		assertArrayEquals(legacy, encoder.decode(PageTranscoder.INSTANCE.decode(stored)));
+	}
+
+	private static byte[] compressiblePage(int length)
+	{
+		byte[] page = new byte[length];
+		byte[] pattern = "org.apache.wicket.markup.html.WebPage".getBytes();
+		for (int i = 0; i < length; i++)
+		{
+			page[i] = pattern[i % pattern.length];
+		}
+		return page;
+	}
+
+	private static byte[] randomPage(int length)
+	{
+		byte[] page = new byte[length];
+		random.nextBytes(page);
+		return page;
+	}
+
+	private static class CountingCompressor extends DeflatePageCompressor
+	{
+		private int count;
+
+		@Override
+		public byte[] compress(byte[] data)
+		{
+			count++;
+			return super.compress(data);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for PageKeys
+ */
+public class PageKeysTest extends Assert
+{
+	private static final String SESSION_ID = "F2A3B7C4D5E6F708192A3B4C5D6E7F80";
+
+	@Test
+	public void readableKeysAreUnchanged()
+	{
+		PageKeys keys = new PageKeys(KeyFormat.READABLE, "wm:");
+		String prefix = keys.getSessionPrefix(SESSION_ID);
+
+		assertEquals(SESSION_ID + "|||12|||Wicket-Memcached", keys.getPageKey(prefix, 12));
+		assertEquals(SESSION_ID + "|||3|||12|||Wicket-Memcached", keys.getPageKey(prefix, 3L, 12));
+		assertEquals(SESSION_ID + "|||generation|||Wicket-Memcached", keys.getGenerationKey(prefix));
+		assertEquals(SESSION_ID + "|||index|||Wicket-Memcached", keys.getIndexKey(prefix));
+		assertEquals(SESSION_ID + "|||keyframes|||Wicket-Memcached", keys.getKeyframeCounterKey(prefix));
+		assertEquals(SESSION_ID + "|||0|||Wicket-Memcached", keys.getPageKey(prefix, 0));
+		assertEquals(SESSION_ID + "|||" + Integer.MAX_VALUE + "|||Wicket-Memcached",
+				keys.getPageKey(prefix, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void compactKeys()
+	{
+		PageKeys keys = new PageKeys(KeyFormat.COMPACT, "app:");
+		String prefix = keys.getSessionPrefix(SESSION_ID);
+
+		assertEquals(prefix, keys.getSessionPrefix(SESSION_ID));
+		assertTrue(prefix.startsWith("app:"));
+		assertEquals("app:".length() + 16, prefix.length());
+		assertEquals(prefix + "c", keys.getPageKey(prefix, 12));
+		assertEquals(prefix + "zz", keys.getPageKey(prefix, 36 * 36 - 1));
+		assertEquals(prefix + "3.c", keys.getPageKey(prefix, 3L, 12));
+		assertEquals(prefix + "~g", keys.getGenerationKey(prefix));
+		assertEquals(prefix + "~i", keys.getIndexKey(prefix));
+		assertEquals(prefix + "~k", keys.getKeyframeCounterKey(prefix));
+	}
+
+	@Test
+	public void compactPrefixesAreDistinct()
+	{
+		PageKeys keys = new PageKeys(KeyFormat.COMPACT, "");
+		Set<String> prefixes = new HashSet<String>();
+		for (int i = 0; i < 10000; i++)
+		{
+			String prefix = keys.getSessionPrefix(UUID.randomUUID().toString());
+			assertTrue(prefix, prefix.matches("[A-Za-z0-9_-]{16}"));
+			prefixes.add(prefix);
+		}
+		assertEquals(10000, prefixes.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void namespaceWithWhitespace()
+	{
+		new MemcachedSettings().setKeyNamespace("my app");
+	}
+
+	@Test
+	public void dataStoreWithCompactKeys() throws Exception
+	{
+		EmbeddedMemcached server = new EmbeddedMemcached().start();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(server.getPort())
+				.setKeyFormat(KeyFormat.COMPACT)
+				.setSessionInvalidation(SessionInvalidation.GENERATION)
+				.setSharedPageIndex(true);
+		MemcachedDataStore dataStore = new MemcachedDataStore(settings);
+		try
+		{
+			byte[] page = {1, 2, 3};
+			dataStore.storeData(SESSION_ID, 1, page);
+			assertArrayEquals(page, dataStore.getData(SESSION_ID, 1));
+
+			String prefix = new PageKeys(KeyFormat.COMPACT, settings.getKeyNamespace()).getSessionPrefix(SESSION_ID);
+			assertTrue(server.contains(prefix + "~g"));
+			assertTrue(server.contains(prefix + "0.1"));
+
+			dataStore.removeData(SESSION_ID);
+			assertNull(dataStore.getData(SESSION_ID, 1));
+		}
+		finally
+		{
+			dataStore.destroy();
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading pages ahead
+ */
+public class PagePrefetcherTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(server.getPort())
+				.setPrefetchCount(2)
+				.setPrefetchTimeToLive(Duration.minutes(1));
+		dataStore = new MemcachedDataStore(settings);
+	}
+
+	@After
+	public void after()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void neighbours()
+	{
+		PagePrefetcher prefetcher = new PagePrefetcher(2, 1000);
+		assertArrayEquals(new int[] {4, 3}, prefetcher.getNeighbours(new int[] {1, 3, 4, 7}, 7));
+		assertArrayEquals(new int[] {1}, prefetcher.getNeighbours(new int[] {1, 3, 4, 7}, 3));
+		assertArrayEquals(new int[0], prefetcher.getNeighbours(new int[] {1, 3, 4, 7}, 1));
+		assertArrayEquals(new int[0], prefetcher.getNeighbours(new int[] {1, 3, 4, 7}, 2));
+	}
+
+	@Test
+	public void backButtonUsesThePrefetchedPages() throws Exception
+	{
+		for (int i = 1; i <= 5; i++)
+		{
+			dataStore.storeData("session", i, new byte[] {(byte) i});
+		}
+
+		assertArrayEquals(new byte[] {5}, dataStore.getData("session", 5));
+		assertArrayEquals(new byte[] {4}, dataStore.getData("session", 4));
+		assertArrayEquals(new byte[] {3}, dataStore.getData("session", 3));
+
+		PrefetchStatistics statistics = dataStore.getPrefetchStatistics();
+		assertEquals(1, statistics.getPrefetches());
+		assertEquals(2, statistics.getPrefetched());
+		assertEquals(2, statistics.getHits());
+		assertEquals(1d, statistics.getHitRate(), 0.001d);
+	}
+
+	@Test
+	public void storedPageIsNotTakenFromTheBuffer() throws Exception
+	{
+		for (int i = 1; i <= 3; i++)
+		{
+			dataStore.storeData("session", i, new byte[] {(byte) i});
+		}
+		assertArrayEquals(new byte[] {3}, dataStore.getData("session", 3));
+
+		dataStore.storeData("session", 2, new byte[] {22});
+		assertArrayEquals(new byte[] {22}, dataStore.getData("session", 2));
+		assertEquals(0, dataStore.getPrefetchStatistics().getHits());
+	}
+}
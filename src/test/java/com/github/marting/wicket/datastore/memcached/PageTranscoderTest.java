@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.Arrays;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for PageTranscoder
+ */
+public class PageTranscoderTest extends Assert
+{
+	@Test
+	public void passesTheBytesThrough()
+	{
+		byte[] page = new byte[300 * 1024];
+		Arrays.fill(page, (byte) 'a');
+
+		CachedData data = PageTranscoder.INSTANCE.encode(page);
+		assertSame(page, data.getData());
+		assertSame(page, PageTranscoder.INSTANCE.decode(data));
+	}
+
+	@Test
+	public void readsTheEntriesOfSerializingTranscoder()
+	{
+		// compressible and bigger than its compression threshold, so it is gzipped
+		byte[] page = new byte[SerializingTranscoder.DEFAULT_COMPRESSION_THRESHOLD * 2];
+		Arrays.fill(page, (byte) 'a');
+		SerializingTranscoder serializing = new SerializingTranscoder();
+
+		CachedData legacy = serializing.encode(page);
+		assertTrue(legacy.getData().length < page.length);
+		assertArrayEquals(withRawHeader(page), PageTranscoder.INSTANCE.decode(legacy));
+
+		byte[] small = {1, 2, 3};
+		assertArrayEquals(withRawHeader(small), PageTranscoder.INSTANCE.decode(serializing.encode(small)));
+	}
+
+	@Test
+	public void entriesAreMissingForSerializingTranscoder()
+	{
+		byte[] page = {(byte) PageEncoder.RAW_HEADER, 1, 2, 3};
+		assertNull(new SerializingTranscoder().decode(PageTranscoder.INSTANCE.encode(page)));
+	}
+
+	private static byte[] withRawHeader(byte[] page)
+	{
+		return PageEncoder.withHeader(PageEncoder.RAW_HEADER, page);
+	}
+}
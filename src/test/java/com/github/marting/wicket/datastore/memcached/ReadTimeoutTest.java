@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a slow server does not block the reads longer than the read timeout
+ */
+public class ReadTimeoutTest extends Assert
+{
+	/**
+	 * Accepts the connections and reads the commands, but never replies
+	 */
+	private ServerSocket silentServer;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		silentServer = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+		Thread acceptor = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					while (true)
+					{
+						ignoreCommands(silentServer.accept());
+					}
+				}
+				catch (IOException iox)
+				{
+					// closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		dataStore = new MemcachedDataStore(settings());
+	}
+
+	@After
+	public void after() throws IOException
+	{
+		dataStore.destroy();
+		silentServer.close();
+	}
+
+	@Test
+	public void timedOutReadIsAMiss()
+	{
+		dataStore.storeData("session", 1, new byte[] {1});
+
+		long start = System.currentTimeMillis();
+		assertNull(dataStore.getData("session", 1));
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue("elapsed: " + elapsed, elapsed < 1000);
+		assertEquals(1, dataStore.getReadTimeouts());
+	}
+
+	@Test
+	public void timedOutSharedIndexAndGenerationAreMisses()
+	{
+		dataStore.destroy();
+		dataStore = new MemcachedDataStore(settings()
+				.setSharedPageIndex(true)
+				.setSessionInvalidation(SessionInvalidation.GENERATION));
+
+		long start = System.currentTimeMillis();
+		// reads the generation, the page is not stored under a guessed one
+		try
+		{
+			dataStore.storeData("session", 1, new byte[] {1});
+			fail("The generation should be unknown");
+		}
+		catch (IllegalStateException expected)
+		{
+			// not read in time
+		}
+		// reads the shared index
+		assertNull(dataStore.getData("session2", 1));
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue("elapsed: " + elapsed, elapsed < 1500);
+		assertEquals(2, dataStore.getReadTimeouts());
+	}
+
+	@Test
+	public void readTimeoutCoversTheReplica()
+	{
+		dataStore.destroy();
+		dataStore = new MemcachedDataStore(settings()
+				.addSecondaryServer(new MemcachedServer("localhost", silentServer.getLocalPort())));
+		dataStore.storeData("session", 1, new byte[] {1});
+
+		long start = System.currentTimeMillis();
+		assertNull(dataStore.getData("session", 1));
+		long elapsed = System.currentTimeMillis() - start;
+
+		// the secondary servers are not read once the primary ones took all the time
+		assertTrue("elapsed: " + elapsed, elapsed < 350);
+		assertEquals(1, dataStore.getReadTimeouts());
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings()
+				.setPost(silentServer.getLocalPort())
+				.setReadTimeout(Duration.milliseconds(200))
+				.setShutdownTimeout(Duration.milliseconds(100));
+	}
+
+	private static void ignoreCommands(final Socket socket)
+	{
+		Thread reader = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					InputStream in = socket.getInputStream();
+					while (in.read() != -1)
+					{
+						// ignore the commands
+					}
+				}
+				catch (IOException iox)
+				{
+					// closed
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests replicating the pages to the secondary servers
+ */
+public class ReplicationTest extends Assert
+{
+	private static final Random random = new Random();
+
+	private EmbeddedMemcached primary;
+
+	private EmbeddedMemcached secondary;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		primary = new EmbeddedMemcached().start();
+		secondary = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		if (dataStore != null)
+		{
+			dataStore.destroy();
+		}
+		primary.stop();
+		secondary.stop();
+	}
+
+	@Test
+	public void pagesAreWrittenToBothGroups() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		dataStore.storeData("session", 1, page(1024));
+		// 3 chunks and the manifest
+		dataStore.storeData("session", 2, page(25 * 1024));
+
+		awaitItemCount(primary, 5);
+		awaitItemCount(secondary, 5);
+	}
+
+	@Test
+	public void readsFromTheSecondaryGroupOnMiss() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		byte[] small = page(1024);
+		byte[] big = page(25 * 1024);
+		dataStore.storeData("session", 1, small);
+		dataStore.storeData("session", 2, big);
+		awaitItemCount(secondary, 5);
+
+		// e.g. the primary server restarted
+		primary.clear();
+
+		assertArrayEquals(small, dataStore.getData("session", 1));
+		assertArrayEquals(big, dataStore.getData("session", 2));
+		assertEquals(2, dataStore.getMetrics().getReplicaHits());
+	}
+
+	@Test
+	public void removeDataDeletesFromBothGroups() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings());
+		dataStore.storeData("session", 1, page(1024));
+		dataStore.storeData("session", 2, page(25 * 1024));
+		dataStore.storeData("session", 3, page(1024));
+		awaitItemCount(primary, 6);
+		awaitItemCount(secondary, 6);
+
+		dataStore.removeData("session", 2);
+		awaitItemCount(primary, 2);
+		awaitItemCount(secondary, 2);
+
+		dataStore.removeData("session");
+		assertNull(dataStore.getData("session", 1));
+		awaitItemCount(primary, 0);
+		awaitItemCount(secondary, 0);
+	}
+
+	@Test
+	public void writeQuorumWaitsForBothGroups() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setWriteQuorum(2));
+		for (int pageId = 1; pageId <= 10; pageId++)
+		{
+			dataStore.storeData("session", pageId, page(25 * 1024));
+
+			// the sets have been confirmed, no need to wait
+			assertEquals(pageId * 4, primary.getItemCount());
+			assertEquals(pageId * 4, secondary.getItemCount());
+		}
+		assertEquals(0, dataStore.getMetrics().getQuorumFailures());
+	}
+
+	@Test
+	public void writeFailsWithoutQuorum() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings()
+				.setWriteQuorum(2)
+				.setOperationTimeout(Duration.milliseconds(200))
+				.setShutdownTimeout(Duration.milliseconds(100)));
+		secondary.stop();
+		try
+		{
+			dataStore.storeData("session", 1, page(1024));
+			fail("The write should fail without the secondary group");
+		}
+		catch (IllegalStateException expected)
+		{
+		}
+		assertEquals(1, dataStore.getMetrics().getQuorumFailures());
+	}
+
+	@Test
+	public void secondaryOutageDoesNotOpenTheCircuitBreaker() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings()
+				.setWriteQuorum(2)
+				.setOperationTimeout(Duration.milliseconds(200))
+				.setShutdownTimeout(Duration.milliseconds(100))
+				.setCircuitBreaker(true)
+				.setCircuitBreakerWindow(2));
+		secondary.stop();
+		byte[] page = page(1024);
+		for (int i = 0; i < 4; i++)
+		{
+			try
+			{
+				dataStore.storeData("session", 1, page);
+				fail("The write should fail without the secondary group");
+			}
+			catch (IllegalStateException expected)
+			{
+			}
+		}
+		assertEquals(4, dataStore.getMetrics().getQuorumFailures());
+		assertFalse(dataStore.isCircuitBreakerOpen());
+
+		// the copy in the primary servers is current
+		assertArrayEquals(page, dataStore.getData("session", 1));
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings()
+				.setPost(primary.getPort())
+				.addSecondaryServer(new MemcachedServer("localhost", secondary.getPort()))
+				.setChunkSize(Bytes.kilobytes(10));
+	}
+
+	private static void awaitItemCount(EmbeddedMemcached server, int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+
+	private static byte[] page(int length)
+	{
+		byte[] page = new byte[length];
+		random.nextBytes(page);
+		return page;
+	}
+}
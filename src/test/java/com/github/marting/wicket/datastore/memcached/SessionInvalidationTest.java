@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the invalidation of the sessions by generation
+ */
+public class SessionInvalidationTest extends Assert
+{
+	private static final String GENERATION_KEY = "session|||generation|||Wicket-Memcached";
+
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+		IMemcachedSettings settings = new MemcachedSettings()
+				.setPost(server.getPort())
+				.setSessionInvalidation(SessionInvalidation.GENERATION);
+		dataStore = new MemcachedDataStore(settings);
+	}
+
+	@After
+	public void after()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void removeIncrementsTheGeneration() throws Exception
+	{
+		dataStore.storeData("session", 1, new byte[] {1});
+		dataStore.storeData("session", 2, new byte[] {2});
+		assertArrayEquals(new byte[] {1}, dataStore.getData("session", 1));
+		assertTrue(server.contains("session|||0|||1|||Wicket-Memcached"));
+
+		dataStore.removeData("session");
+		awaitGeneration("1");
+		assertNull(dataStore.getData("session", 1));
+
+		// the pages of the previous generation are left to expire
+		assertEquals(3, server.getItemCount());
+	}
+
+	@Test
+	public void newPagesUseTheNewGeneration() throws Exception
+	{
+		dataStore.storeData("session", 1, new byte[] {1});
+		assertArrayEquals(new byte[] {1}, dataStore.getData("session", 1));
+		dataStore.removeData("session");
+		awaitGeneration("1");
+
+		dataStore.storeData("session", 1, new byte[] {3});
+		assertArrayEquals(new byte[] {3}, dataStore.getData("session", 1));
+		assertTrue(server.contains("session|||1|||1|||Wicket-Memcached"));
+	}
+
+	@Test
+	public void unknownGenerationIsNotGuessed() throws Exception
+	{
+		dataStore.storeData("session", 1, new byte[] {1});
+		dataStore.removeData("session");
+		awaitGeneration("1");
+
+		// another node which has not read the generation yet
+		MemcachedDataStore other = new MemcachedDataStore(new MemcachedSettings()
+				.setPost(server.getPort())
+				.setSessionInvalidation(SessionInvalidation.GENERATION)
+				.setReadTimeout(Duration.milliseconds(100)));
+		try
+		{
+			server.setResponseDelay(Duration.milliseconds(500));
+			try
+			{
+				other.storeData("session", 2, new byte[] {2});
+				fail("The page should not be stored under a guessed generation");
+			}
+			catch (IllegalStateException expected)
+			{
+				// the generation could not be read in time
+			}
+			server.setResponseDelay(Duration.NONE);
+			// the replies delayed meanwhile
+			Thread.sleep(1000);
+
+			other.storeData("session", 2, new byte[] {2});
+			assertArrayEquals(new byte[] {2}, other.getData("session", 2));
+			assertTrue(server.contains("session|||1|||2|||Wicket-Memcached"));
+			assertFalse(server.contains("session|||0|||2|||Wicket-Memcached"));
+		}
+		finally
+		{
+			other.destroy();
+		}
+	}
+
+	private void awaitGeneration(String expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!expected.equals(new String(server.get(GENERATION_KEY))) && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, new String(server.get(GENERATION_KEY)));
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the quotas of pages per session
+ */
+public class SessionQuotaTest extends Assert
+{
+	private static final Random random = new Random();
+
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void oldestPagesAreEvictedAboveMaxPages() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setMaxPagesPerSession(3));
+		for (int pageId = 1; pageId <= 5; pageId++)
+		{
+			dataStore.storeData("session", pageId, page(1024));
+		}
+
+		awaitItemCount(3);
+		assertNull(dataStore.getData("session", 1));
+		assertNull(dataStore.getData("session", 2));
+		assertNotNull(dataStore.getData("session", 3));
+		assertNotNull(dataStore.getData("session", 5));
+		assertEquals(2, dataStore.getMetrics().getQuotaEvictions());
+	}
+
+	@Test
+	public void oldestPagesAreEvictedAboveMaxSize() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setMaxSizePerSession(Bytes.kilobytes(25)));
+		dataStore.storeData("session", 1, page(10 * 1024));
+		dataStore.storeData("session", 2, page(10 * 1024));
+		// a page read again is not more recent, only a page stored again
+		dataStore.storeData("session", 1, page(10 * 1024));
+		dataStore.storeData("session", 3, page(10 * 1024));
+
+		awaitItemCount(2);
+		assertNull(dataStore.getData("session", 2));
+		assertNotNull(dataStore.getData("session", 1));
+		assertNotNull(dataStore.getData("session", 3));
+	}
+
+	@Test
+	public void chunksOfEvictedPagesAreDeleted() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings()
+				.setChunkSize(Bytes.kilobytes(10))
+				.setMaxPagesPerSession(1));
+		dataStore.storeData("session", 1, page(35 * 1024));
+		dataStore.storeData("session", 2, page(1024));
+
+		awaitItemCount(1);
+		assertNotNull(dataStore.getData("session", 2));
+	}
+
+	@Test
+	public void mostRecentPageIsKeptAboveMaxSize() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setMaxSizePerSession(Bytes.kilobytes(1)));
+		dataStore.storeData("session", 1, page(2 * 1024));
+		dataStore.storeData("session", 2, page(2 * 1024));
+
+		awaitItemCount(1);
+		assertNotNull(dataStore.getData("session", 2));
+	}
+
+	@Test
+	public void quotasArePerSession() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setMaxPagesPerSession(2));
+		for (int pageId = 1; pageId <= 2; pageId++)
+		{
+			dataStore.storeData("session1", pageId, page(1024));
+			dataStore.storeData("session2", pageId, page(1024));
+		}
+
+		awaitItemCount(4);
+		assertNotNull(dataStore.getData("session1", 1));
+		assertNotNull(dataStore.getData("session2", 1));
+		assertEquals(0, dataStore.getMetrics().getQuotaEvictions());
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings().setPost(server.getPort());
+	}
+
+	private void awaitItemCount(int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+
+	private static byte[] page(int length)
+	{
+		byte[] page = new byte[length];
+		random.nextBytes(page);
+		return page;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.util.time.Duration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests dropping the expired pages and sessions from the index.
+ *
+ * The deadlines are rounded up to seconds and a session is visited in the tick
+ * after its deadline, so it is dropped up to two ticks after the deadline.
+ */
+public class SessionReaperTest extends Assert
+{
+	private static final long TICK = 1000;
+
+	private final ConcurrentMap<String, PageIdIndex> indexes = new ConcurrentHashMap<String, PageIdIndex>();
+
+	private long now;
+
+	private SessionReaper reaper;
+
+	@Before
+	public void before()
+	{
+		now = System.currentTimeMillis();
+		reaper = new SessionReaper(indexes, TICK, now);
+	}
+
+	@Test
+	public void expiredSessionIsDropped()
+	{
+		PageIdIndex index = newSession("session");
+		index.add(1, 0, 10, now + 5000);
+		index.add(2, 0, 10, now + 5000);
+
+		assertEquals(0, reaper.tick(now + 4000));
+		assertEquals(2, index.size());
+
+		assertEquals(1, reaper.tick(now + 7000));
+		assertNull(indexes.get("session"));
+		assertTrue(index.isInvalidated());
+		assertFalse(index.add(3, 0));
+	}
+
+	@Test
+	public void expiredPagesAreRemovedFromActiveSession()
+	{
+		PageIdIndex index = newSession("session");
+		index.add(1, 0, 10, now + 5000);
+		index.add(2, 0, 10, now + 10000);
+
+		assertEquals(0, reaper.tick(now + 6000));
+		assertArrayEquals(new int[] {2}, index.getPageIds());
+		assertEquals(10, index.getTotalSize());
+
+		index.extendDeadlines(now + 20000);
+		assertEquals(0, reaper.tick(now + 15000));
+		assertSame(index, indexes.get("session"));
+
+		assertEquals(1, reaper.tick(now + 22000));
+		assertNull(indexes.get("session"));
+	}
+
+	@Test
+	public void sessionBeyondTheWheelIsDroppedAfterItsDeadline()
+	{
+		long deadline = now + 3 * SessionReaper.WHEEL_SIZE * TICK;
+		PageIdIndex index = newSession("session");
+		index.add(1, 0, 10, deadline);
+
+		assertEquals(0, reaper.tick(deadline - 1000));
+		assertEquals(1, index.size());
+		assertEquals(1, reaper.tick(deadline + 2 * TICK));
+	}
+
+	@Test
+	public void removedSessionIsIgnored()
+	{
+		PageIdIndex removed = newSession("session");
+		removed.add(1, 0, 10, now + 1000);
+		indexes.remove("session");
+		PageIdIndex index = newSession("session");
+		index.add(1, 0, 10, now + 60000);
+
+		assertEquals(0, reaper.tick(now + 2000));
+		assertSame(index, indexes.get("session"));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void expiredPageIsNotRead() throws Exception
+	{
+		EmbeddedMemcached server = new EmbeddedMemcached().start();
+		MemcachedDataStore dataStore = new MemcachedDataStore(new MemcachedSettings()
+				.setPost(server.getPort())
+				.setExpirationTime(Duration.seconds(1)));
+		try
+		{
+			dataStore.storeData("session", 1, new byte[] {1});
+			assertNotNull(dataStore.getData("session", 1));
+			long reads = dataStore.getMetrics().getGetLatency().getCount();
+
+			// the deadlines are rounded up to seconds
+			Thread.sleep(2100);
+			assertNull(dataStore.getData("session", 1));
+			assertEquals(reads, dataStore.getMetrics().getGetLatency().getCount());
+		}
+		finally
+		{
+			dataStore.destroy();
+			server.stop();
+		}
+	}
+
+	private PageIdIndex newSession(String sessionId)
+	{
+		PageIdIndex index = new PageIdIndex();
+		indexes.put(sessionId, index);
+		reaper.schedule(sessionId, index);
+		return index;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import net.spy.memcached.MemcachedClient;
+import org.apache.wicket.util.lang.Bytes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the pages stored by one node can be read and removed by another
+ * node when the page index is shared
+ */
+public class SharedPageIndexTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore node1;
+
+	private MemcachedDataStore node2;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+		node1 = new MemcachedDataStore(settings());
+		node2 = new MemcachedDataStore(settings());
+	}
+
+	@After
+	public void after()
+	{
+		node1.destroy();
+		node2.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void otherNodeReadsThePages() throws Exception
+	{
+		node1.storeData("session", 1, new byte[] {1});
+		node1.storeData("session", 2, new byte[25 * 1024]);
+		awaitItemCount(6);
+		awaitIndexEntries(2);
+
+		assertArrayEquals(new byte[] {1}, node2.getData("session", 1));
+		assertArrayEquals(new byte[25 * 1024], node2.getData("session", 2));
+		assertNull(node2.getData("session", 3));
+	}
+
+	@Test
+	public void otherNodeRemovesThePages() throws Exception
+	{
+		node1.storeData("session", 1, new byte[] {1});
+		node1.storeData("session", 2, new byte[25 * 1024]);
+		awaitItemCount(6);
+		awaitIndexEntries(2);
+
+		node2.removeData("session", 2);
+		awaitItemCount(2);
+		assertNull(node1.getData("session", 2));
+
+		node2.removeData("session");
+		awaitItemCount(0);
+		assertNull(node1.getData("session", 1));
+	}
+
+	@Test
+	public void indexIsCompacted() throws Exception
+	{
+		for (int i = 0; i < 100; i++)
+		{
+			node1.storeData("session", i % 3, new byte[] {(byte) i});
+		}
+		awaitItemCount(4);
+
+		byte[] page = null;
+		long deadline = System.currentTimeMillis() + 5000;
+		while (page == null || page[0] != 99 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+			page = node2.getData("session", 0);
+		}
+		assertArrayEquals(new byte[] {99}, page);
+
+		// the compaction runs in the background and loses to the appends of a burst,
+		// it is retried after the next append
+		node1.storeData("session", 0, new byte[] {100});
+		String indexKey = "session|||index|||Wicket-Memcached";
+		deadline = System.currentTimeMillis() + 5000;
+		while (server.get(indexKey).length >= 100 * 8 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertTrue(server.get(indexKey).length < 100 * 8);
+		// answered after the compaction, so it does not complete after the shutdown
+		assertArrayEquals(new byte[] {100}, node1.getData("session", 0));
+	}
+
+	@Test
+	public void keyframesAreNotLogged() throws Exception
+	{
+		MemcachedClient client = new MemcachedClient(new InetSocketAddress("localhost", server.getPort()));
+		try
+		{
+			SharedPageIndex index = new SharedPageIndex(client);
+			String indexKey = "session|||index|||Wicket-Memcached";
+			index.add(indexKey, 1, 0, 0);
+			awaitItemCount(1);
+			// a keyframe evicted with its last page, ~-1 is the page id 0
+			index.add(indexKey, -1, 0, 0);
+			index.remove(indexKey, -1);
+			index.add(indexKey, 2, 0, 0);
+			awaitIndexEntries(2);
+
+			assertArrayEquals(new int[] {1, 2}, SharedPageIndex.replay(index.load(indexKey).get()).getPageIds());
+		}
+		finally
+		{
+			client.shutdown();
+		}
+	}
+
+	private void awaitItemCount(int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+
+	private void awaitIndexEntries(int expected) throws InterruptedException
+	{
+		String indexKey = "session|||index|||Wicket-Memcached";
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.get(indexKey).length != expected * 8 && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected * 8, server.get(indexKey).length);
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings()
+				.setPost(server.getPort())
+				.setChunkSize(Bytes.kilobytes(10))
+				.setSharedPageIndex(true);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests extending the expiration of the pages of active sessions
+ */
+public class SlidingExpirationTest extends Assert
+{
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		dataStore.destroy();
+		server.stop();
+	}
+
+	@Test
+	public void pagesOfActiveSessionDoNotExpire() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings(true).setChunkSize(Bytes.kilobytes(1)));
+		dataStore.storeData("session", 1, new byte[] {1});
+		dataStore.storeData("session", 2, new byte[2048]);
+
+		// keep reading page 1 for longer than the expiration time
+		for (int i = 0; i < 10; i++)
+		{
+			Thread.sleep(300);
+			assertNotNull(dataStore.getData("session", 1));
+		}
+
+		// page 2 and its chunks are extended together with page 1
+		assertEquals(2048, dataStore.getData("session", 2).length);
+	}
+
+	@Test
+	public void pagesOfIdleSessionExpire() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings(true));
+		dataStore.storeData("session", 1, new byte[] {1});
+
+		Thread.sleep(2500);
+		assertNull(dataStore.getData("session", 1));
+	}
+
+	@Test
+	public void pagesExpireWithoutSlidingExpiration() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings(false));
+		dataStore.storeData("session", 1, new byte[] {1});
+
+		for (int i = 0; i < 10; i++)
+		{
+			Thread.sleep(300);
+			if (dataStore.getData("session", 1) == null)
+			{
+				return;
+			}
+		}
+		fail("The page should have expired");
+	}
+
+	@Test
+	public void touchesAreRateLimited() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings(true).setTouchInterval(Duration.minutes(1)));
+		dataStore.storeData("session", 1, new byte[] {1});
+		dataStore.storeData("session", 2, new byte[] {2});
+		for (int i = 0; i < 10; i++)
+		{
+			assertNotNull(dataStore.getData("session", 1));
+		}
+
+		// the first store touched page 1 only
+		assertEquals(1, dataStore.getMetrics().getTouches());
+	}
+
+	private IMemcachedSettings settings(boolean slidingExpiration)
+	{
+		return new MemcachedSettings()
+				.setPost(server.getPort())
+				.setExpirationTime(Duration.seconds(2))
+				.setSlidingExpiration(slidingExpiration)
+				.setTouchInterval(Duration.milliseconds(500));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests striping the sessions over several MemcachedClients
+ */
+public class StripedClientsTest extends Assert
+{
+	private static final int SESSIONS = 20;
+
+	private EmbeddedMemcached server;
+
+	private MemcachedDataStore dataStore;
+
+	@Before
+	public void before() throws IOException
+	{
+		server = new EmbeddedMemcached().start();
+	}
+
+	@After
+	public void after()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void storeGetAndRemove() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setChunkSize(Bytes.kilobytes(10)));
+		try
+		{
+			List<String> sessionIds = new ArrayList<String>();
+			for (int i = 0; i < SESSIONS; i++)
+			{
+				String sessionId = "session" + i;
+				sessionIds.add(sessionId);
+				dataStore.storeData(sessionId, 1, new byte[] {(byte) i});
+				dataStore.storeData(sessionId, 2, new byte[25 * 1024]);
+			}
+
+			for (int i = 0; i < SESSIONS; i++)
+			{
+				assertArrayEquals(new byte[] {(byte) i}, dataStore.getData("session" + i, 1));
+				assertEquals(25 * 1024, dataStore.getData("session" + i, 2).length);
+			}
+
+			RemovalResult result = dataStore.removeData(sessionIds, Duration.seconds(5));
+			// 2 pages, the second one with 3 chunks
+			assertEquals(SESSIONS * 5, result.getRemoved());
+			assertEquals(0, server.getItemCount());
+		}
+		finally
+		{
+			dataStore.destroy();
+		}
+	}
+
+	@Test
+	public void sharedIndexIsStriped() throws Exception
+	{
+		dataStore = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		MemcachedDataStore otherNode = new MemcachedDataStore(settings().setSharedPageIndex(true));
+		try
+		{
+			for (int i = 0; i < SESSIONS; i++)
+			{
+				dataStore.storeData("session" + i, 1, new byte[] {(byte) i});
+			}
+			// a page and a shared index per session
+			awaitItemCount(SESSIONS * 2);
+			for (int i = 0; i < SESSIONS; i++)
+			{
+				assertArrayEquals(new byte[] {(byte) i}, otherNode.getData("session" + i, 1));
+			}
+		}
+		finally
+		{
+			otherNode.destroy();
+			dataStore.destroy();
+		}
+	}
+
+	private void awaitItemCount(int expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getItemCount() != expected && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(expected, server.getItemCount());
+	}
+
+	private IMemcachedSettings settings()
+	{
+		return new MemcachedSettings()
+				.setPost(server.getPort())
+				.setClientCount(4);
+	}
+}
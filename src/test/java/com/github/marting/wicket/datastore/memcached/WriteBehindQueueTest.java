@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marting.wicket.datastore.memcached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for WriteBehindQueue
+ */
+public class WriteBehindQueueTest extends Assert
+{
+	private final RecordingWriter writer = new RecordingWriter();
+
+	@Test
+	public void newerVersionReplacesTheQueuedOne() throws Exception
+	{
+		WriteBehindQueue queue = new WriteBehindQueue(writer, 1, 1024);
+		queue.offer("session", 1, new byte[] {1});
+		queue.offer("session", 2, new byte[] {2});
+		queue.offer("session", 2, new byte[] {3});
+		queue.offer("session", 2, new byte[] {4});
+
+		// page 1 is in flight, page 2 is queued once
+		assertEquals(1, writer.written.size());
+		assertEquals(1, queue.size());
+		assertArrayEquals(new byte[] {4}, queue.get("session", 2));
+
+		writer.complete(0);
+		assertEquals(2, writer.written.size());
+		assertArrayEquals(new byte[] {4}, writer.written.get(1));
+		writer.complete(1);
+		assertNull(queue.get("session", 2));
+	}
+
+	@Test
+	public void limitsTheWritesInFlight() throws Exception
+	{
+		WriteBehindQueue queue = new WriteBehindQueue(writer, 2, 1024);
+		for (int i = 0; i < 5; i++)
+		{
+			queue.offer("session", i, new byte[] {(byte) i});
+		}
+		assertEquals(2, writer.written.size());
+		assertEquals(3, queue.size());
+
+		writer.complete(1);
+		assertEquals(3, writer.written.size());
+		queue.flush();
+		assertEquals(5, writer.written.size());
+	}
+
+	@Test
+	public void removedPagesAreNotWritten() throws Exception
+	{
+		WriteBehindQueue queue = new WriteBehindQueue(writer, 1, 1024);
+		queue.offer("session", 1, new byte[] {1});
+		queue.offer("session", 2, new byte[] {2});
+		queue.offer("session", 3, new byte[] {3});
+		queue.offer("other", 1, new byte[] {4});
+		queue.remove("session", 2);
+		queue.remove("session");
+
+		queue.flush();
+		assertEquals(2, writer.written.size());
+		assertArrayEquals(new byte[] {4}, writer.written.get(1));
+	}
+
+	@Test
+	public void pageIsWrittenOnceAtATime() throws Exception
+	{
+		writer.proceed = new CountDownLatch(1);
+		final WriteBehindQueue queue = new WriteBehindQueue(writer, 2, 1024);
+		Thread first = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				queue.offer("session", 1, new byte[] {1});
+			}
+		};
+		first.start();
+		assertTrue(writer.writing.await(5, TimeUnit.SECONDS));
+
+		// the newer version waits for the older one although another write is allowed
+		queue.offer("session", 1, new byte[] {2});
+		assertEquals(1, writer.written.size());
+		assertArrayEquals(new byte[] {2}, queue.get("session", 1));
+
+		writer.proceed.countDown();
+		first.join(5000);
+		writer.complete(0);
+		assertEquals(2, writer.written.size());
+		assertArrayEquals(new byte[] {2}, writer.written.get(1));
+		writer.complete(1);
+		assertNull(queue.get("session", 1));
+	}
+
+	@Test
+	public void pageRemovedWhileWrittenIsRemovedAgain() throws Exception
+	{
+		WriteBehindQueue queue = new WriteBehindQueue(writer, 2, 1024);
+		queue.offer("session", 1, new byte[] {1});
+		queue.offer("session", 2, new byte[] {2});
+		queue.remove("session", 1);
+		queue.remove("session");
+		assertNull(queue.get("session", 1));
+		assertNull(queue.get("session", 2));
+
+		writer.complete(0);
+		writer.complete(1);
+		assertEquals(2, writer.removed.size());
+	}
+
+	@Test
+	public void pageStoredAgainAfterRemovalIsNotRemoved() throws Exception
+	{
+		WriteBehindQueue queue = new WriteBehindQueue(writer, 1, 1024);
+		queue.offer("session", 1, new byte[] {1});
+		queue.remove("session", 1);
+		queue.offer("session", 1, new byte[] {2});
+
+		writer.complete(0);
+		assertEquals(0, writer.removed.size());
+		assertEquals(2, writer.written.size());
+		assertArrayEquals(new byte[] {2}, writer.written.get(1));
+	}
+
+	@Test
+	public void blocksWhileFull() throws Exception
+	{
+		final WriteBehindQueue queue = new WriteBehindQueue(writer, 1, 100);
+		queue.offer("session", 1, new byte[60]);
+
+		final CountDownLatch offered = new CountDownLatch(1);
+		new Thread()
+		{
+			@Override
+			public void run()
+			{
+				queue.offer("session", 2, new byte[60]);
+				offered.countDown();
+			}
+		}.start();
+
+		assertFalse(offered.await(200, TimeUnit.MILLISECONDS));
+		writer.complete(0);
+		assertTrue(offered.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Records the written pages and completes them on demand
+	 */
+	private static class RecordingWriter implements WriteBehindQueue.IPageWriter
+	{
+		private final List<byte[]> written = new ArrayList<byte[]>();
+
+		private final List<OperationCompletionListener> listeners = new ArrayList<OperationCompletionListener>();
+
+		private final List<Integer> removed = new ArrayList<Integer>();
+
+		private final CountDownLatch writing = new CountDownLatch(1);
+
+		/**
+		 * If set the first write waits for it, like a writer which encodes a big page
+		 */
+		private volatile CountDownLatch proceed;
+
+		@Override
+		public void write(String sessionId, int pageId, byte[] data, OperationCompletionListener listener)
+		{
+			boolean first;
+			synchronized (this)
+			{
+				written.add(data);
+				listeners.add(listener);
+				first = written.size() == 1;
+			}
+			writing.countDown();
+			if (first && proceed != null)
+			{
+				try
+				{
+					proceed.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException ix)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public synchronized void remove(String sessionId, int pageId)
+		{
+			removed.add(pageId);
+		}
+
+		private void complete(int index) throws Exception
+		{
+			OperationCompletionListener listener;
+			synchronized (this)
+			{
+				listener = listeners.get(index);
+			}
+			listener.onComplete(null);
+		}
+	}
+}
@@ -16,11 +16,15 @@
  */
 package com.github.marting.wicket.datastore.memcached.app;
 
+import java.io.IOException;
+
 import org.apache.wicket.DefaultPageManagerProvider;
+import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.pageStore.IDataStore;
 import org.apache.wicket.protocol.http.WebApplication;
 
+import com.github.marting.wicket.datastore.memcached.EmbeddedMemcached;
 import com.github.marting.wicket.datastore.memcached.IMemcachedSettings;
 import com.github.marting.wicket.datastore.memcached.MemcachedDataStore;
 import com.github.marting.wicket.datastore.memcached.MemcachedSettings;
@@ -33,6 +37,11 @@ import com.github.marting.wicket.datastore.memcached.MemcachedSettings;
  */
 public class WicketApplication extends WebApplication
 {
+	/**
+	 * Started unless the port of a Memcached server is given with -Dmemcached.port=N
+	 */
+	private EmbeddedMemcached memcached;
+
 	@Override
 	public Class<? extends WebPage> getHomePage()
 	{
@@ -55,9 +64,40 @@ public class WicketApplication extends WebApplication
 			@Override
 			protected IDataStore newDataStore()
 			{
-				IMemcachedSettings settings = new MemcachedSettings();
+				IMemcachedSettings settings = new MemcachedSettings()
+						.setPost(getMemcachedPort());
 				return new MemcachedDataStore(settings);
 			}
 		});
 	}
+
+	@Override
+	protected void onDestroy()
+	{
+		super.onDestroy();
+
+		if (memcached != null)
+		{
+			memcached.stop();
+		}
+	}
+
+	private int getMemcachedPort()
+	{
+		Integer port = Integer.getInteger("memcached.port");
+		if (port != null)
+		{
+			return port;
+		}
+
+		try
+		{
+			memcached = new EmbeddedMemcached().start();
+			return memcached.getPort();
+		}
+		catch (IOException iox)
+		{
+			throw new WicketRuntimeException("Cannot start the embedded Memcached", iox);
+		}
+	}
 }